@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# load the CSV files from the client, building the indexes after the data
+# COPY FROM STDIN needs a driver with the CopyManager API on the classpath;
+# with pg73jdbc3.jar the loader falls back to multi-row INSERTs
+DATA=${1:-$DIR/../../data}
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar BulkLoader $USER"_project_phase_3_DB" $PGPORT $USER $DATA $DIR/../../sql/src/create_indexes.sql
@@ -0,0 +1,14 @@
+/**
+ * Thrown by the services when the session's user may not perform an
+ * operation, such as a customer reading someone else's order.
+ *
+ */
+public class AccessDeniedException extends Exception {
+
+   private static final long serialVersionUID = 1L;
+
+   public AccessDeniedException(String message) {
+      super(message);
+   }
+
+}//end AccessDeniedException
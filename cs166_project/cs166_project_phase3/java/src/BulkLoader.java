@@ -0,0 +1,506 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads the CSV data files from the client machine, so the files do not
+ * have to sit on the database host like the COPY ... FROM in load_data.sql
+ * requires.
+ *
+ *    java -cp classes:lib/<driver>.jar BulkLoader <dbname> <port> <user> <dataDir> [create_indexes.sql]
+ *
+ * One reader thread cuts each file into chunks of CSV records and puts
+ * them on a bounded queue; -Dload.threads worker threads (default 4) take
+ * chunks and write them on their own connections.  With a driver that has
+ * the CopyManager API each chunk is streamed with COPY ... FROM STDIN,
+ * otherwise it is parsed and written as one multi-row INSERT.
+ *
+ * When an index file is given, the indexes it creates are dropped before
+ * the load and built afterwards, in parallel.  When the rental statistics
+ * of create_stats.sql are installed, their triggers are disabled during the
+ * load and the statistics rebuilt once at the end.
+ *
+ * Options:
+ *    -Dload.threads=N     worker threads and connections (default 4)
+ *    -Dload.batch=N       CSV records per chunk (default 1000)
+ *    -Dload.mode=insert   skip COPY even if the driver supports it
+ *    -Dload.truncate=true empty the tables first
+ *
+ */
+public class BulkLoader {
+
+   static final int THREADS = Integer.getInteger("load.threads", 4);
+   static final int BATCH = Integer.getInteger("load.batch", 1000);
+   static final boolean FORCE_INSERT = "insert".equals(System.getProperty("load.mode"));
+   static final boolean TRUNCATE = Boolean.getBoolean("load.truncate");
+
+   // column types, used to convert CSV text for the INSERT path
+   static final char TEXT = 'T', INT = 'I', DECIMAL = 'D', TIMESTAMP = 'S';
+
+   /**
+    * A table and the CSV file that feeds it.  The CSV columns are in table
+    * column order and the first line is a header.
+    */
+   static final class Table {
+      final String name;
+      final String file;
+      final String[] columns;
+      final char[] types;
+
+      Table(String name, String file, String columns, String types) {
+         this.name = name;
+         this.file = file;
+         this.columns = columns.split(", ");
+         this.types = types.toCharArray();
+      }
+
+      String columnList() {
+         return String.join(", ", columns);
+      }
+   }//end Table
+
+   // in foreign key order
+   static final Table[] TABLES = {
+      new Table("Users", "users.csv",
+                "login, password, role, favGames, phoneNum, numOverDueGames", "TTTTTI"),
+      new Table("Catalog", "catalog.csv",
+                "gameID, gameName, genre, price, description, imageURL", "TTTDTT"),
+      new Table("RentalOrder", "rentalorder.csv",
+                RentalOrder.COLUMNS, "TTIDSS"),
+      new Table("TrackingInfo", "trackinginfo.csv",
+                TrackingEvent.COLUMNS, "TTTTTST"),
+      new Table("GamesInOrder", "gamesinorder.csv",
+                "rentalOrderID, gameID, unitsOrdered", "TTI"),
+   };
+
+   // a chunk of raw CSV records; an empty chunk tells a worker to stop
+   private static final List<String> END = Collections.emptyList();
+
+   private final ConnectionPool _pool;
+   private final boolean _copy;
+
+   BulkLoader(ConnectionPool pool) throws SQLException {
+      this._pool = pool;
+      PooledConnection pc = pool.acquire();
+      try {
+         this._copy = !FORCE_INSERT && copyManager(pc.connection()) != null;
+      } finally {
+         pool.release(pc);
+      }
+   }
+
+   public static void main (String[] args) {
+      if (args.length < 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> <dataDir> [create_indexes.sql]");
+         return;
+      }//end if
+
+      ConnectionPool pool = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         pool = new ConnectionPool(url, args[2], "", THREADS, 4);
+         BulkLoader loader = new BulkLoader(pool);
+         List<String> indexes = args.length > 4 ? readIndexStatements(new File(args[4])) : new ArrayList<String>();
+         loader.run(new File(args[3]), indexes);
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      } finally {
+         if (pool != null) {
+            pool.close();
+         }
+      }
+   }//end main
+
+   void run(File dataDir, List<String> indexes) throws Exception {
+      System.out.println("Loading with " + (_copy ? "COPY FROM STDIN" : "multi-row INSERT") +
+                         ", " + THREADS + " threads, " + BATCH + " records per chunk");
+      if (TRUNCATE) {
+         execute("TRUNCATE Users, Catalog, RentalOrder, TrackingInfo, GamesInOrder CASCADE");
+      }
+      for (String create : indexes) {
+         execute("DROP INDEX IF EXISTS " + indexName(create));
+      }
+
+      // the rental statistics triggers would fire once per row; they are
+      // switched off for the load and the statistics rebuilt in one pass
+      boolean stats = exists("SELECT 1 FROM pg_proc WHERE proname = 'refresh_rental_stats'");
+      if (stats) {
+         setStatsTriggers(false);
+      }
+      try {
+         long start = System.nanoTime();
+         long total = 0;
+         for (Table table : TABLES) {
+            File file = new File(dataDir, table.file);
+            long tableStart = System.nanoTime();
+            long rows = load(table, file);
+            total += rows;
+            report(table.name, rows, System.nanoTime() - tableStart);
+         }
+         report("all tables", total, System.nanoTime() - start);
+      } finally {
+         if (stats) {
+            setStatsTriggers(true);
+         }
+      }
+
+      if (!indexes.isEmpty()) {
+         long indexStart = System.nanoTime();
+         runParallel(indexes);
+         System.out.printf("built %d indexes in %.1fs%n", indexes.size(), (System.nanoTime() - indexStart) / 1e9);
+      }
+      if (stats) {
+         long statsStart = System.nanoTime();
+         execute("SELECT refresh_rental_stats()");
+         System.out.printf("rebuilt rental statistics in %.1fs%n", (System.nanoTime() - statsStart) / 1e9);
+      }
+      execute("SELECT setval('rentalOrderID_seq', (SELECT COALESCE(MAX(CAST(substring(rentalOrderID FROM 16) AS bigint)), 0) + 1 " +
+              "FROM RentalOrder WHERE rentalOrderID ~ '^gamerentalorder[0-9]+$'))");
+      execute("SELECT setval('trackingID_seq', (SELECT COALESCE(MAX(CAST(substring(trackingID FROM 11) AS bigint)), 0) + 1 " +
+              "FROM TrackingInfo WHERE trackingID ~ '^trackingid[0-9]+$'))");
+      // the tracking log starts over from the loaded tracking states
+      if (exists("SELECT 1 FROM pg_proc WHERE proname = 'seed_tracking_events'")) {
+         execute("SELECT seed_tracking_events()");
+      }
+      // games loaded without stock get the default copies, plus those their loaded orders have out
+      if (exists("SELECT 1 FROM pg_proc WHERE proname = 'seed_inventory'")) {
+         execute("SELECT seed_inventory()");
+      }
+      // loaded orders can fall due before the watermark, so the next OverdueJob run recounts every user
+      if (exists("SELECT 1 FROM pg_class WHERE relname = 'jobwatermark'")) {
+         execute("DELETE FROM JobWatermark WHERE job = 'overdue'");
+      }
+      for (Table table : TABLES) {
+         execute("ANALYZE " + table.name);
+      }
+   }//end run
+
+   // streams one file through the worker threads and returns the row count
+   long load(final Table table, File file) throws Exception {
+      final BlockingQueue<List<String>> queue = new ArrayBlockingQueue<List<String>>(THREADS * 2);
+      final long[] counts = new long[THREADS];
+      final Exception[] failure = new Exception[1];
+      Thread[] workers = new Thread[THREADS];
+      for (int t = 0; t < THREADS; ++t) {
+         final int slot = t;
+         workers[t] = new Thread("loader-" + table.name + "-" + t) {
+            public void run() {
+               try {
+                  PooledConnection pc = _pool.acquire();
+                  try {
+                     for (List<String> chunk = queue.take(); chunk != END; chunk = queue.take()) {
+                        counts[slot] += _copy ? copyChunk(pc, table, chunk) : insertChunk(pc, table, chunk);
+                     }
+                  } finally {
+                     _pool.release(pc);
+                  }
+               } catch (Exception e) {
+                  synchronized (failure) {
+                     if (failure[0] == null) failure[0] = e;
+                  }
+                  // keep draining so the reader never blocks on a full queue
+                  try {
+                     while (queue.take() != END) { }
+                  } catch (InterruptedException ignored) {
+                     // ignored.
+                  }
+               }
+            }
+         };
+         workers[t].start();
+      }
+
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+         new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+      try {
+         readRecord(reader);   // header
+         List<String> chunk = new ArrayList<String>(BATCH);
+         for (String record = readRecord(reader); record != null; record = readRecord(reader)) {
+            chunk.add(record);
+            if (chunk.size() == BATCH) {
+               queue.put(chunk);
+               chunk = new ArrayList<String>(BATCH);
+            }
+         }
+         if (!chunk.isEmpty()) {
+            queue.put(chunk);
+         }
+      } finally {
+         reader.close();
+         for (int t = 0; t < THREADS; ++t) {
+            queue.put(END);
+         }
+         for (Thread w : workers) {
+            w.join();
+         }
+      }
+      if (failure[0] != null) {
+         throw new SQLException("Loading " + file + " failed: " + failure[0].getMessage());
+      }
+      long rows = 0;
+      for (long c : counts) rows += c;
+      return rows;
+   }//end load
+
+   // writes one chunk with COPY ... FROM STDIN
+   private long copyChunk(PooledConnection pc, Table table, List<String> chunk) throws Exception {
+      StringBuilder data = new StringBuilder(chunk.size() * 96);
+      for (String record : chunk) {
+         data.append(record).append('\n');
+      }
+      Object copyManager = copyManager(pc.connection());
+      Method copyIn = copyManager.getClass().getMethod("copyIn", String.class, Reader.class);
+      Object rows = copyIn.invoke(copyManager,
+         "COPY " + table.name + " (" + table.columnList() + ") FROM STDIN WITH CSV",
+         new StringReader(data.toString()));
+      return ((Number) rows).longValue();
+   }//end copyChunk
+
+   // parses one chunk and writes it as a single multi-row INSERT
+   private long insertChunk(PooledConnection pc, Table table, List<String> chunk) throws SQLException {
+      int cols = table.columns.length;
+      StringBuilder row = new StringBuilder("(?");
+      for (int c = 1; c < cols; ++c) row.append(", ?");
+      row.append(')');
+      StringBuilder sql = new StringBuilder("INSERT INTO ").append(table.name)
+         .append(" (").append(table.columnList()).append(") VALUES ").append(row);
+      for (int r = 1; r < chunk.size(); ++r) sql.append(", ").append(row);
+
+      PreparedStatement stmt = pc.prepare(sql.toString());
+      int index = 1;
+      for (String record : chunk) {
+         List<String> fields = parseRecord(record);
+         if (fields.size() != cols) {
+            throw new SQLException(table.name + ": expected " + cols + " fields in " + record);
+         }
+         for (int c = 0; c < cols; ++c) {
+            stmt.setObject(index++, convert(fields.get(c), table.types[c]));
+         }
+      }
+      return stmt.executeUpdate();
+   }//end insertChunk
+
+   private static Object convert(String value, char type) {
+      if (value == null) {
+         return null;
+      }
+      switch (type) {
+         case INT: return Integer.valueOf(value);
+         case DECIMAL: return new BigDecimal(value);
+         case TIMESTAMP: return Timestamp.valueOf(value.length() == 10 ? value + " 00:00:00" : value);
+         default: return value;
+      }
+   }//end convert
+
+   /*
+    * Reads one CSV record, which spans several lines when a quoted field
+    * contains a line break.  Returns null at end of file.
+    */
+   static String readRecord(BufferedReader reader) throws IOException {
+      String line = reader.readLine();
+      if (line == null) {
+         return null;
+      }
+      StringBuilder record = null;
+      while (countQuotes(record == null ? line : record) % 2 != 0) {
+         String next = reader.readLine();
+         if (next == null) {
+            break;
+         }
+         if (record == null) {
+            record = new StringBuilder(line);
+         }
+         record.append('\n').append(next);
+      }
+      return record == null ? line : record.toString();
+   }//end readRecord
+
+   private static int countQuotes(CharSequence s) {
+      int quotes = 0;
+      for (int i = 0; i < s.length(); ++i) {
+         if (s.charAt(i) == '"') ++quotes;
+      }
+      return quotes;
+   }
+
+   /*
+    * Splits a CSV record into fields.  As with COPY ... CSV, an unquoted
+    * empty field is NULL and a quoted empty field is an empty string.
+    */
+   static List<String> parseRecord(String record) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      boolean wasQuoted = false;
+      for (int i = 0; i < record.length(); ++i) {
+         char ch = record.charAt(i);
+         if (quoted) {
+            if (ch == '"') {
+               if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                  field.append('"');
+                  ++i;
+               } else {
+                  quoted = false;
+               }
+            } else {
+               field.append(ch);
+            }
+         } else if (ch == '"') {
+            quoted = true;
+            wasQuoted = true;
+         } else if (ch == ',') {
+            fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+            field.setLength(0);
+            wasQuoted = false;
+         } else {
+            field.append(ch);
+         }
+      }
+      fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+      return fields;
+   }//end parseRecord
+
+   /*
+    * Returns the driver's CopyManager for the connection, or null when the
+    * driver predates the COPY API.  Looked up reflectively so the loader
+    * still compiles and runs against older drivers.
+    */
+   static Object copyManager(Connection conn) {
+      try {
+         Class<?> pgConnection = Class.forName("org.postgresql.PGConnection");
+         if (!pgConnection.isInstance(conn)) {
+            return null;
+         }
+         return pgConnection.getMethod("getCopyAPI").invoke(conn);
+      } catch (Exception e) {
+         return null;
+      } catch (LinkageError e) {
+         return null;
+      }
+   }//end copyManager
+
+   // runs the statements on all worker connections at once
+   private void runParallel(final List<String> statements) throws Exception {
+      final Exception[] failure = new Exception[1];
+      final int[] next = { 0 };
+      Thread[] workers = new Thread[Math.min(THREADS, statements.size())];
+      for (int t = 0; t < workers.length; ++t) {
+         workers[t] = new Thread() {
+            public void run() {
+               while (true) {
+                  String sql;
+                  synchronized (next) {
+                     if (next[0] >= statements.size()) return;
+                     sql = statements.get(next[0]++);
+                  }
+                  try {
+                     execute(sql);
+                  } catch (SQLException e) {
+                     synchronized (failure) {
+                        if (failure[0] == null) failure[0] = e;
+                     }
+                  }
+               }
+            }
+         };
+         workers[t].start();
+      }
+      for (Thread w : workers) w.join();
+      if (failure[0] != null) {
+         throw failure[0];
+      }
+   }//end runParallel
+
+   // true when the query returns a row, e.g. once sql/src/create_stats.sql has been run
+   private boolean exists(String query) throws SQLException {
+      PooledConnection pc = _pool.acquire();
+      try {
+         Statement stmt = pc.connection().createStatement();
+         try {
+            ResultSet rs = stmt.executeQuery(query);
+            return rs.next();
+         } finally {
+            stmt.close();
+         }
+      } finally {
+         _pool.release(pc);
+      }
+   }//end exists
+
+   private void setStatsTriggers(boolean enabled) throws SQLException {
+      for (String table : new String[] { "Catalog", "RentalOrder", "GamesInOrder" }) {
+         execute("ALTER TABLE " + table + (enabled ? " ENABLE" : " DISABLE") + " TRIGGER USER");
+      }
+   }//end setStatsTriggers
+
+   private void execute(String sql) throws SQLException {
+      PooledConnection pc = _pool.acquire();
+      try {
+         Statement stmt = pc.connection().createStatement();
+         try {
+            stmt.execute(sql);
+         } finally {
+            stmt.close();
+         }
+      } finally {
+         _pool.release(pc);
+      }
+   }//end execute
+
+   private static final Pattern CREATE_INDEX = Pattern.compile(
+      "CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\w+)", Pattern.CASE_INSENSITIVE);
+
+   // the CREATE INDEX statements of an index script, without comments
+   static List<String> readIndexStatements(File file) throws IOException {
+      StringBuilder script = new StringBuilder();
+      for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+         int comment = line.indexOf("--");
+         script.append(comment >= 0 ? line.substring(0, comment) : line).append('\n');
+      }
+      List<String> creates = new ArrayList<String>();
+      for (String stmt : script.toString().split(";")) {
+         if (CREATE_INDEX.matcher(stmt).find()) {
+            creates.add(stmt.trim());
+         }
+      }
+      return creates;
+   }//end readIndexStatements
+
+   static String indexName(String create) {
+      Matcher m = CREATE_INDEX.matcher(create);
+      m.find();
+      return m.group(1);
+   }
+
+   private static void report(String what, long rows, long nanos) {
+      System.out.printf("%-14s %10d rows %8.2fs %12.0f rows/s%n", what, rows, nanos / 1e9, rows / (nanos / 1e9));
+   }
+
+}//end BulkLoader
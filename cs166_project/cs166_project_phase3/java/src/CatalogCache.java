@@ -0,0 +1,438 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-through, in-memory copy of the Catalog table.  Games are held in
+ * parallel arrays with a hash index by gameID, a genre index and a
+ * price-sorted permutation, so the catalog views are answered without a
+ * query: genre lookups in O(1) and price ranges and sorted listings in
+ * O(log n + k).  Sorted listings can also be read a page at a time with
+ * keyset pagination on (price, gameID).  Searches over gameName and
+ * description go through a SearchIndex, built on the first search of each
+ * snapshot.
+ *
+ * The cache is loaded on first use and reloaded after
+ * -Dcatalog.cache.ttl.seconds (default 300) to pick up edits made by other
+ * processes.  Edits made through this process call refresh(gameID).
+ *
+ */
+public class CatalogCache {
+
+   static final long TTL_MS = Long.getLong("catalog.cache.ttl.seconds", 300) * 1000;
+
+   static final String SELECT_GAMES =
+      "SELECT gameID, gameName, genre, price, description, imageURL FROM Catalog";
+
+   /**
+    * An immutable copy of the catalog.  Row i of the catalog is
+    * (ids[i], names[i], genres[i], priceCents[i], descriptions[i], imageURLs[i]),
+    * and the rows are in gameID order.
+    */
+   static final class Snapshot {
+      final String[] ids;
+      final String[] names;
+      final String[] genres;
+      final long[] priceCents;
+      final String[] descriptions;
+      final String[] imageURLs;
+      final long loadedAt;
+
+      final Map<String, Integer> byId;
+      final Map<String, int[]> byGenre;
+      // row numbers ordered by price, then gameID, and their prices
+      final int[] byPrice;
+      final long[] sortedCents;
+      private volatile SearchIndex _search;
+
+      Snapshot(String[] ids, String[] names, String[] genres, long[] priceCents,
+               String[] descriptions, String[] imageURLs, long loadedAt) {
+         this.ids = ids;
+         this.names = names;
+         this.genres = genres;
+         this.priceCents = priceCents;
+         this.descriptions = descriptions;
+         this.imageURLs = imageURLs;
+         this.loadedAt = loadedAt;
+
+         int n = ids.length;
+         byId = new HashMap<String, Integer>(n * 2);
+         Map<String, List<Integer>> genreRows = new HashMap<String, List<Integer>>();
+         Integer[] order = new Integer[n];
+         for (int i = 0; i < n; ++i) {
+            byId.put(ids[i], i);
+            List<Integer> rows = genreRows.get(genres[i]);
+            if (rows == null) {
+               rows = new ArrayList<Integer>();
+               genreRows.put(genres[i], rows);
+            }
+            rows.add(i);
+            order[i] = i;
+         }
+         byGenre = new HashMap<String, int[]>(genreRows.size() * 2);
+         for (Map.Entry<String, List<Integer>> e : genreRows.entrySet()) {
+            byGenre.put(e.getKey(), toArray(e.getValue()));
+         }
+         Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+               int c = Long.compare(Snapshot.this.priceCents[a], Snapshot.this.priceCents[b]);
+               return c != 0 ? c : Snapshot.this.ids[a].compareTo(Snapshot.this.ids[b]);
+            }
+         });
+         byPrice = new int[n];
+         sortedCents = new long[n];
+         for (int i = 0; i < n; ++i) {
+            byPrice[i] = order[i];
+            sortedCents[i] = priceCents[order[i]];
+         }
+      }//end Snapshot
+
+      int size() {
+         return ids.length;
+      }
+
+      SearchIndex search() {
+         SearchIndex index = _search;
+         if (index == null) {
+            synchronized (this) {
+               index = _search;
+               if (index == null) {
+                  index = new SearchIndex(names, descriptions);
+                  _search = index;
+               }
+            }
+         }
+         return index;
+      }//end search
+   }//end Snapshot
+
+   /**
+    * A list of catalog rows taken from one snapshot.  Rows are addressed by
+    * position 0..size()-1; the accessors read straight from the snapshot's
+    * arrays.
+    */
+   public static final class Rows {
+      private final Snapshot _s;
+      private final int[] _rows;   // null means every row in catalog order
+      private final int _from;
+      private final int _to;
+      private final boolean _reversed;
+
+      Rows(Snapshot s, int[] rows, int from, int to, boolean reversed) {
+         this._s = s;
+         this._rows = rows;
+         this._from = from;
+         this._to = to;
+         this._reversed = reversed;
+      }
+
+      public int size() {
+         return _to - _from;
+      }
+
+      private int row(int i) {
+         int pos = _reversed ? _to - 1 - i : _from + i;
+         return _rows == null ? pos : _rows[pos];
+      }
+
+      public String gameID(int i) { return _s.ids[row(i)]; }
+      public String gameName(int i) { return _s.names[row(i)]; }
+      public String genre(int i) { return _s.genres[row(i)]; }
+      public BigDecimal price(int i) { return BigDecimal.valueOf(_s.priceCents[row(i)], 2); }
+      public String description(int i) { return _s.descriptions[row(i)]; }
+      public String imageURL(int i) { return _s.imageURLs[row(i)]; }
+   }//end Rows
+
+   private final GameRental _esql;
+   private final long _ttlMs;
+   private volatile Snapshot _snapshot;
+
+   public CatalogCache(GameRental esql) {
+      this(esql, TTL_MS);
+   }
+
+   public CatalogCache(GameRental esql, long ttlMs) {
+      this._esql = esql;
+      this._ttlMs = ttlMs;
+   }
+
+   /**
+    * @return every game, in the order the table returned them
+    */
+   public Rows all() throws SQLException {
+      Snapshot s = snapshot();
+      return new Rows(s, null, 0, s.size(), false);
+   }
+
+   /**
+    * @param gameID the game to look up
+    * @return the game as a single row, or an empty list if it does not exist
+    */
+   public Rows byId(String gameID) throws SQLException {
+      Snapshot s = snapshot();
+      Integer row = s.byId.get(gameID);
+      if (row == null) {
+         return new Rows(s, new int[0], 0, 0, false);
+      }
+      return new Rows(s, new int[] { row }, 0, 1, false);
+   }//end byId
+
+   /**
+    * @param gameIDs the games to look up
+    * @return the games that exist, in the order given
+    */
+   public Rows byIds(List<String> gameIDs) throws SQLException {
+      Snapshot s = snapshot();
+      int[] rows = new int[gameIDs.size()];
+      int size = 0;
+      for (String gameID : gameIDs) {
+         Integer row = s.byId.get(gameID);
+         if (row != null) {
+            rows[size++] = row;
+         }
+      }
+      return new Rows(s, rows, 0, size, false);
+   }//end byIds
+
+   /**
+    * @param genre the exact genre, as matched by genre = ?
+    * @return the games of that genre
+    */
+   public Rows byGenre(String genre) throws SQLException {
+      Snapshot s = snapshot();
+      int[] rows = s.byGenre.get(genre);
+      if (rows == null) {
+         rows = new int[0];
+      }
+      return new Rows(s, rows, 0, rows.length, false);
+   }//end byGenre
+
+   /**
+    * @param min lowest price, inclusive, or null for no lower bound
+    * @param max highest price, inclusive, or null for no upper bound
+    * @return the games in the range, cheapest first
+    */
+   public Rows priceRange(BigDecimal min, BigDecimal max) throws SQLException {
+      Snapshot s = snapshot();
+      int from = min == null ? 0 : lowerBound(s.sortedCents, toCents(min, true));
+      int to = max == null ? s.size() : lowerBound(s.sortedCents, toCents(max, false) + 1);
+      return new Rows(s, s.byPrice, from, Math.max(from, to), false);
+   }//end priceRange
+
+   /**
+    * @param ascending true for cheapest first, false for most expensive first
+    * @return every game sorted by price
+    */
+   public Rows sortedByPrice(boolean ascending) throws SQLException {
+      Snapshot s = snapshot();
+      return new Rows(s, s.byPrice, 0, s.size(), !ascending);
+   }
+
+   /**
+    * @param query words or word prefixes to find in gameName and description
+    * @param limit the most games to return
+    * @return the matching games, best match first
+    */
+   public Rows search(String query, int limit) throws SQLException {
+      Snapshot s = snapshot();
+      int[] rows = s.search().search(query, limit);
+      return new Rows(s, rows, 0, rows.length, false);
+   }//end search
+
+   /**
+    * Returns one page of the price-sorted listing, seeking past the last
+    * game of the previous page rather than counting an offset.
+    *
+    * @param ascending true for cheapest first, false for most expensive first
+    * @param afterPrice price of the last game already shown, or null for the first page
+    * @param afterGameID gameID of the last game already shown
+    * @param limit the page size
+    * @return up to limit games following (afterPrice, afterGameID)
+    */
+   public Rows pricePage(boolean ascending, BigDecimal afterPrice, String afterGameID, int limit) throws SQLException {
+      Snapshot s = snapshot();
+      int n = s.size();
+      if (ascending) {
+         int from = 0;
+         if (afterPrice != null) {
+            long cents = toCents(afterPrice, false);
+            from = seek(s, cents, afterGameID);
+            if (from < n && s.sortedCents[from] == cents && s.ids[s.byPrice[from]].equals(afterGameID)) {
+               ++from;
+            }
+         }
+         return new Rows(s, s.byPrice, from, Math.min(n, from + limit), false);
+      }
+      int to = afterPrice == null ? n : seek(s, toCents(afterPrice, false), afterGameID);
+      return new Rows(s, s.byPrice, Math.max(0, to - limit), to, true);
+   }//end pricePage
+
+   /**
+    * Drops the cached catalog; the next lookup reloads it.
+    */
+   public void invalidate() {
+      _snapshot = null;
+   }
+
+   /**
+    * Re-reads one game after it was edited, inserted or deleted and patches
+    * it into the cache without reloading the whole table.
+    *
+    * @param gameID the game that changed
+    */
+   public synchronized void refresh(String gameID) throws SQLException {
+      Snapshot s = _snapshot;
+      if (s == null) {
+         return;
+      }
+      Game game = _esql.executeQueryForObject(SELECT_GAMES + " WHERE gameID = ?", Game.MAPPER, gameID);
+      Integer row = s.byId.get(gameID);
+      if (row == null && game == null) {
+         return;
+      }
+      int n = s.size();
+      int size = n + (row == null ? 1 : 0) - (game == null && row != null ? 1 : 0);
+      String[] ids = new String[size];
+      String[] names = new String[size];
+      String[] genres = new String[size];
+      long[] cents = new long[size];
+      String[] descriptions = new String[size];
+      String[] imageURLs = new String[size];
+      int j = 0;
+      // a new game goes before the first row with a greater gameID
+      boolean placed = row != null;
+      for (int i = 0; i < n; ++i) {
+         if (!placed && s.ids[i].compareTo(gameID) > 0) {
+            set(game, j++, ids, names, genres, cents, descriptions, imageURLs);
+            placed = true;
+         }
+         if (row != null && i == row) {
+            if (game == null) {
+               continue;   // deleted
+            }
+            set(game, j++, ids, names, genres, cents, descriptions, imageURLs);
+            continue;
+         }
+         ids[j] = s.ids[i];
+         names[j] = s.names[i];
+         genres[j] = s.genres[i];
+         cents[j] = s.priceCents[i];
+         descriptions[j] = s.descriptions[i];
+         imageURLs[j] = s.imageURLs[i];
+         ++j;
+      }
+      if (!placed) {
+         set(game, j, ids, names, genres, cents, descriptions, imageURLs);
+      }
+      _snapshot = new Snapshot(ids, names, genres, cents, descriptions, imageURLs, s.loadedAt);
+   }//end refresh
+
+   // returns the current snapshot, loading the table when it is missing or stale
+   Snapshot snapshot() throws SQLException {
+      Snapshot s = _snapshot;
+      if (s != null && System.currentTimeMillis() - s.loadedAt < _ttlMs) {
+         return s;
+      }
+      synchronized (this) {
+         s = _snapshot;
+         if (s == null || System.currentTimeMillis() - s.loadedAt >= _ttlMs) {
+            s = load();
+            _snapshot = s;
+         }
+         return s;
+      }
+   }//end snapshot
+
+   // the whole table, from a replica when there is one; a game changed here
+   // is read back from the primary by refresh()
+   private Snapshot load() throws SQLException {
+      List<Game> result;
+      ReplicaRouter.Route route = _esql.router().read(null);
+      try {
+         result = _esql.executeQueryForList(SELECT_GAMES, Game.MAPPER);
+      } finally {
+         route.end();
+      }
+      // sorted here rather than by the database, whose collation may order
+      // gameIDs differently from refresh()
+      Collections.sort(result, new Comparator<Game>() {
+         public int compare(Game a, Game b) {
+            return a.gameID.compareTo(b.gameID);
+         }
+      });
+      int n = result.size();
+      String[] ids = new String[n];
+      String[] names = new String[n];
+      String[] genres = new String[n];
+      long[] cents = new long[n];
+      String[] descriptions = new String[n];
+      String[] imageURLs = new String[n];
+      for (int i = 0; i < n; ++i) {
+         set(result.get(i), i, ids, names, genres, cents, descriptions, imageURLs);
+      }
+      return new Snapshot(ids, names, genres, cents, descriptions, imageURLs, System.currentTimeMillis());
+   }//end load
+
+   private static void set(Game game, int i, String[] ids, String[] names, String[] genres,
+                           long[] cents, String[] descriptions, String[] imageURLs) {
+      ids[i] = game.gameID;
+      names[i] = game.gameName;
+      genres[i] = game.genre;
+      cents[i] = game.price.movePointRight(2).longValue();
+      descriptions[i] = game.description;
+      imageURLs[i] = game.imageURL;
+   }//end set
+
+   // price in cents, rounded towards the inside of the range being searched
+   private static long toCents(BigDecimal price, boolean roundUp) {
+      return price.movePointRight(2).setScale(0,
+         roundUp ? RoundingMode.CEILING : RoundingMode.FLOOR).longValue();
+   }
+
+   // first position in the price order whose (price, gameID) is >= the key
+   private static int seek(Snapshot s, long cents, String gameID) {
+      int lo = 0;
+      int hi = s.size();
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         long c = s.sortedCents[mid];
+         if (c < cents || (c == cents && s.ids[s.byPrice[mid]].compareTo(gameID) < 0)) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }//end seek
+
+   // first index whose value is >= key
+   private static int lowerBound(long[] sorted, long key) {
+      int lo = 0;
+      int hi = sorted.length;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (sorted[mid] < key) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }//end lowerBound
+
+   private static int[] toArray(List<Integer> values) {
+      int[] out = new int[values.size()];
+      for (int i = 0; i < out.length; ++i) {
+         out[i] = values.get(i);
+      }
+      return out;
+   }
+
+}//end CatalogCache
@@ -0,0 +1,64 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+
+/**
+ * The catalog browsing operations.
+ *
+ */
+public interface CatalogService {
+
+   /**
+    * @return every game, in gameID order
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   CatalogCache.Rows allGames() throws SQLException;
+
+   /**
+    * @return the games of one genre, in gameID order
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   CatalogCache.Rows byGenre(String genre) throws SQLException;
+
+   /**
+    * @param min lowest price, or null for no lower bound
+    * @param max highest price, or null for no upper bound
+    * @return the games priced in [min, max], cheapest first
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   CatalogCache.Rows priceRange(BigDecimal min, BigDecimal max) throws SQLException;
+
+   /**
+    * @param ascending cheapest first if true, most expensive first if false
+    * @param afterPrice price of the last game of the previous page, or null for the first page
+    * @param afterGameID gameID of the last game of the previous page
+    * @param limit games per page
+    * @return the next page of games sorted by price
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   CatalogCache.Rows pricePage(boolean ascending, BigDecimal afterPrice, String afterGameID, int limit)
+      throws SQLException;
+
+   /**
+    * @param query words or word prefixes, as typed so far
+    * @param limit the most games to return
+    * @return the games whose name or description match every word, best match first
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   CatalogCache.Rows search(String query, int limit) throws SQLException;
+
+   /**
+    * Sets one field of a game, provided the game is still at the version
+    * the caller read.
+    *
+    * @param field gameName, genre, price, description or imageURL
+    * @param value the new value; a BigDecimal for price
+    * @return the game's new version
+    * @throws ConcurrentUpdateException when the game changed or was deleted
+    *         since it was read, with its current values
+    * @throws AccessDeniedException when the user is not a manager
+    * @throws java.sql.SQLException when the update fails
+    */
+   int updateGame(Session session, String gameID, int version, String field, Object value)
+      throws SQLException, AccessDeniedException, ConcurrentUpdateException;
+
+}//end CatalogService
@@ -0,0 +1,26 @@
+/**
+ * Thrown by the services when a row changed between being read and being
+ * updated, so the update was not made.  Carries the row as it is now, for
+ * the user to look at before trying again.
+ *
+ */
+public class ConcurrentUpdateException extends Exception {
+
+   private static final long serialVersionUID = 1L;
+
+   private final Object _current;
+
+   public ConcurrentUpdateException(String message, Object current) {
+      super(message);
+      this._current = current;
+   }
+
+   /**
+    * @return the row as it is now, e.g. a Game or a User, or null if it
+    *         was deleted
+    */
+   public Object current() {
+      return _current;
+   }
+
+}//end ConcurrentUpdateException
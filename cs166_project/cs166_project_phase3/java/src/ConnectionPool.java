@@ -0,0 +1,125 @@
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed-size pool of physical database connections.  Connections are
+ * opened eagerly, handed out with acquire() and must be given back with
+ * release() once the caller is done with them.
+ *
+ */
+public class ConnectionPool {
+
+   // how long acquire() waits for a free connection before giving up
+   private static final long ACQUIRE_TIMEOUT_MS = 30000;
+
+   private final BlockingQueue<PooledConnection> _idle;
+   private final List<PooledConnection> _all;
+   private final LatencyHistogram _waits = new LatencyHistogram();
+   private volatile boolean _closed = false;
+
+   /**
+    * Opens size connections to the given database.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param size the number of connections to keep open
+    * @param statementCacheSize max prepared statements cached per connection
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public ConnectionPool(String url, String user, String passwd, int size, int statementCacheSize) throws SQLException {
+      if (size < 1) {
+         throw new IllegalArgumentException("pool size must be at least 1");
+      }
+      _idle = new ArrayBlockingQueue<PooledConnection>(size);
+      _all = new ArrayList<PooledConnection>(size);
+      try {
+         for (int i = 0; i < size; ++i) {
+            PooledConnection pc = new PooledConnection(
+               DriverManager.getConnection(url, user, passwd), statementCacheSize);
+            _all.add(pc);
+            _idle.add(pc);
+         }
+      } catch (SQLException e) {
+         close();
+         throw e;
+      }
+   }//end ConnectionPool
+
+   /**
+    * Borrows a connection, waiting until one is free.
+    *
+    * @return an idle connection; must be passed back to release()
+    * @throws java.sql.SQLException when no connection frees up in time
+    */
+   public PooledConnection acquire() throws SQLException {
+      if (_closed) {
+         throw new SQLException("Connection pool is closed");
+      }
+      long start = System.nanoTime();
+      try {
+         PooledConnection pc = _idle.poll(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+         long waited = System.nanoTime() - start;
+         _waits.record(waited);
+         Metrics.waited(waited);
+         if (pc == null) {
+            throw new SQLException("Timed out waiting for a database connection");
+         }
+         return pc;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a database connection");
+      }
+   }//end acquire
+
+   /**
+    * Returns a borrowed connection to the pool.  A connection left in the
+    * middle of a transaction is rolled back first.
+    *
+    * @param pc the connection obtained from acquire()
+    */
+   public void release(PooledConnection pc) {
+      if (pc == null) {
+         return;
+      }
+      pc.reset();
+      if (_closed) {
+         pc.close();
+         return;
+      }
+      _idle.offer(pc);
+   }//end release
+
+   /**
+    * @return the number of connections managed by this pool
+    */
+   public int size() {
+      return _all.size();
+   }
+
+   /**
+    * @return how long acquire() has waited for a free connection
+    */
+   public LatencyHistogram waits() {
+      return _waits;
+   }
+
+   /**
+    * Closes every physical connection.  Connections still borrowed are
+    * closed when they are released.
+    */
+   public void close() {
+      _closed = true;
+      for (PooledConnection pc : _all) {
+         if (_idle.remove(pc)) {
+            pc.close();
+         }
+      }
+   }//end close
+
+}//end ConnectionPool
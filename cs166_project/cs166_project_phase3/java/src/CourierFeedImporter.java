@@ -0,0 +1,301 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Imports a courier scan feed into the tracking log and TrackingInfo.
+ *
+ *    java -cp classes:lib/pg73jdbc3.jar CourierFeedImporter <dbname> <port> <user> <feed file> [source]
+ *
+ * The feed is CSV with a header line, or JSONL with one flat object per
+ * line (recognized by a first line starting with '{').  Either way the
+ * fields are trackingID, status, currentLocation, courierName, eventTime
+ * (or lastUpdateDate) and the optional additionalComments, named in any
+ * case and order.  eventTime is one of
+ *
+ *    yyyy-mm-dd hh:mm:ss[.f]   local time of the database, stored as is
+ *    yyyy-mm-ddThh:mm:ss[.f]   the same
+ *    ...Z or ...+hh:mm         a UTC time or one at that offset
+ *    milliseconds since 1970
+ *
+ * TrackingEvent.eventTime has no time zone and holds the database's local
+ * time, like the times the application writes, so the last two forms are
+ * converted to the database's TimeZone setting (or -Dfeed.zone, a Java zone
+ * ID) before they are compared or stored; a feed may mix the forms.
+ *
+ * The feed is streamed and reduced to the newest event of each trackingID
+ * (the later line wins a tie); only that map is held in memory.  The
+ * events are then applied with TrackingLog.merge(), -Dfeed.chunk (default
+ * 5000) per transaction, so a failure loses at most the chunk in flight
+ * and the import can simply be run again: an event already applied is
+ * logged again but cannot move TrackingInfo back.  Lines that cannot be
+ * read are counted and the first few printed.  The events are logged with
+ * source, which defaults to "courier".
+ *
+ */
+public class CourierFeedImporter {
+
+   static final int CHUNK = Integer.getInteger("feed.chunk", 5000);
+
+   // malformed lines printed before the rest are only counted
+   static final int MAX_REPORTED = 10;
+
+   static final String[] FIELDS = { "trackingid", "status", "currentlocation", "couriername", "eventtime",
+                                    "additionalcomments" };
+
+   /**
+    * What one import did.
+    */
+   public static final class Report {
+      public final long lines;
+      public final long malformed;
+      // events dropped for a newer event of the same trackingID
+      public final long superseded;
+      public final long accepted;
+      public final long rejected;
+      public final long applied;
+      public final long readMillis;
+      public final long applyMillis;
+
+      Report(long lines, long malformed, long superseded, long accepted, long rejected, long applied,
+             long readMillis, long applyMillis) {
+         this.lines = lines;
+         this.malformed = malformed;
+         this.superseded = superseded;
+         this.accepted = accepted;
+         this.rejected = rejected;
+         this.applied = applied;
+         this.readMillis = readMillis;
+         this.applyMillis = applyMillis;
+      }
+
+      public String toString() {
+         return String.format(
+            "read %d events in %.2f s (%.0f/s): %d malformed, %d superseded by a newer event%n" +
+            "applied %d events in %.2f s (%.0f/s): %d stored, %d for unknown tracking IDs, %d tracking states moved forward",
+            lines, readMillis / 1000.0, lines / Math.max(readMillis / 1000.0, 0.001), malformed, superseded,
+            accepted + rejected, applyMillis / 1000.0, (accepted + rejected) / Math.max(applyMillis / 1000.0, 0.001),
+            accepted, rejected, applied);
+      }
+   }//end Report
+
+   private final GameRental _esql;
+
+   public CourierFeedImporter(GameRental esql) {
+      this._esql = esql;
+   }
+
+   public static void main (String[] args) {
+      if (args.length < 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            CourierFeedImporter.class.getName () +
+            " <dbname> <port> <user> <feed file> [source]");
+         return;
+      }//end if
+
+      GameRental esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new GameRental (args[0], args[1], args[2], "");
+         String source = args.length > 4 ? args[4] : "courier";
+         System.out.println(new CourierFeedImporter(esql).importFeed(new File(args[3]), source));
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) esql.cleanup ();
+      }
+   }//end main
+
+   /**
+    * Reads the feed, keeps the newest event per trackingID and applies
+    * them a chunk per transaction.
+    *
+    * @param feed a CSV or JSONL file
+    * @param source the source recorded with the events
+    * @return what was read and applied
+    * @throws java.io.IOException when the feed cannot be read, or has no
+    *         usable CSV header
+    * @throws java.sql.SQLException when a chunk fails; the chunks before it
+    *         stay applied
+    */
+   public Report importFeed(File feed, String source) throws IOException, SQLException {
+      long start = System.nanoTime();
+      ZoneId zone = zone();
+      Map<String, TrackingEvent> newest = new HashMap<String, TrackingEvent>();
+      long[] counts = new long[3];   // lines, malformed, superseded
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(feed), StandardCharsets.UTF_8));
+      try {
+         read(reader, zone, newest, counts);
+      } finally {
+         reader.close();
+      }
+      long readMillis = (System.nanoTime() - start) / 1000000;
+
+      start = System.nanoTime();
+      TrackingLog log = _esql.trackingLog();
+      List<TrackingEvent> events = new ArrayList<TrackingEvent>(newest.values());
+      newest = null;
+      long accepted = 0;
+      long rejected = 0;
+      long applied = 0;
+      for (int from = 0; from < events.size(); from += CHUNK) {
+         TrackingLog.Result result = log.merge(events.subList(from, Math.min(from + CHUNK, events.size())), source);
+         accepted += result.accepted;
+         rejected += result.rejected;
+         applied += result.applied;
+      }
+      return new Report(counts[0], counts[1], counts[2], accepted, rejected, applied,
+                        readMillis, (System.nanoTime() - start) / 1000000);
+   }//end importFeed
+
+   // the zone the database's local times are in
+   private ZoneId zone() throws SQLException {
+      String name = System.getProperty("feed.zone");
+      if (name == null) {
+         name = _esql.executeQueryForObject("SELECT current_setting('TimeZone')", RowMapper.STRING);
+      }
+      try {
+         return ZoneId.of(name, ZoneId.SHORT_IDS);
+      } catch (DateTimeException e) {
+         throw new SQLException("Unknown time zone " + name + "; set -Dfeed.zone");
+      }
+   }//end zone
+
+   // streams the records into newest; counts[] gets records, malformed and superseded
+   private static void read(BufferedReader reader, ZoneId zone, Map<String, TrackingEvent> newest, long[] counts)
+         throws IOException {
+      reader.mark(8192);
+      String first = reader.readLine();
+      if (first == null) {
+         return;
+      }
+      boolean json = first.trim().startsWith("{");
+      int[] columns = null;
+      if (json) {
+         reader.reset();
+      } else {
+         columns = csvColumns(BulkLoader.parseRecord(first));
+      }
+
+      String record;
+      long line = json ? 0 : 1;
+      while ((record = json ? reader.readLine() : BulkLoader.readRecord(reader)) != null) {
+         ++line;
+         if (record.trim().isEmpty()) {
+            continue;
+         }
+         ++counts[0];
+         try {
+            String[] fields = json ? jsonFields(Json.parseObject(record)) : csvFields(BulkLoader.parseRecord(record), columns);
+            TrackingEvent event = event(fields, zone);
+            TrackingEvent previous = newest.get(event.trackingID);
+            if (previous == null || !event.lastUpdateDate.before(previous.lastUpdateDate)) {
+               newest.put(event.trackingID, event);
+            }
+            if (previous != null) {
+               ++counts[2];
+            }
+         } catch (IllegalArgumentException e) {
+            if (++counts[1] <= MAX_REPORTED) {
+               System.err.println("Record " + line + " skipped: " + e.getMessage());
+            }
+         }
+      }
+   }//end read
+
+   // for each of FIELDS, its position in the CSV records, or -1
+   private static int[] csvColumns(List<String> header) throws IOException {
+      int[] columns = new int[FIELDS.length];
+      Arrays.fill(columns, -1);
+      for (int i = 0; i < header.size(); ++i) {
+         String name = header.get(i) == null ? "" : header.get(i).trim().toLowerCase();
+         int f = field(name);
+         if (f >= 0) columns[f] = i;
+      }
+      for (int f = 0; f < FIELDS.length - 1; ++f) {
+         if (columns[f] < 0) {
+            throw new IOException("The feed's header has no " + FIELDS[f] + " column");
+         }
+      }
+      return columns;
+   }//end csvColumns
+
+   private static int field(String name) {
+      if (name.equals("lastupdatedate")) {
+         name = "eventtime";
+      }
+      for (int f = 0; f < FIELDS.length; ++f) {
+         if (FIELDS[f].equals(name)) return f;
+      }
+      return -1;
+   }
+
+   private static String[] csvFields(List<String> record, int[] columns) {
+      String[] fields = new String[FIELDS.length];
+      for (int f = 0; f < FIELDS.length; ++f) {
+         if (columns[f] >= 0 && columns[f] < record.size()) fields[f] = record.get(columns[f]);
+      }
+      return fields;
+   }
+
+   private static String[] jsonFields(Map<String, String> object) {
+      String[] fields = new String[FIELDS.length];
+      for (Map.Entry<String, String> e : object.entrySet()) {
+         int f = field(e.getKey().toLowerCase());
+         if (f >= 0) fields[f] = e.getValue();
+      }
+      return fields;
+   }
+
+   private static TrackingEvent event(String[] fields, ZoneId zone) {
+      for (int f = 0; f < FIELDS.length - 1; ++f) {
+         if (fields[f] == null || fields[f].isEmpty()) {
+            throw new IllegalArgumentException("no " + FIELDS[f]);
+         }
+      }
+      return new TrackingEvent(fields[0], null, fields[1], fields[2], fields[3], timestamp(fields[4], zone), fields[5]);
+   }//end event
+
+   // value as the local time of zone; Timestamp.valueOf keeps the fields as
+   // they are, and so does the driver when it binds them
+   static Timestamp timestamp(String value, ZoneId zone) {
+      String s = value.trim();
+      boolean digits = !s.isEmpty();
+      for (int i = 0; i < s.length() && digits; ++i) {
+         digits = Character.isDigit(s.charAt(i));
+      }
+      if (digits) {
+         return Timestamp.valueOf(LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(s)), zone));
+      }
+      if (s.length() == 10) {
+         return Timestamp.valueOf(s + " 00:00:00");
+      }
+      if (s.endsWith("Z") || s.matches(".*[+-]\\d\\d:\\d\\d")) {
+         try {
+            OffsetDateTime t = OffsetDateTime.parse(s.replace(' ', 'T'));
+            return Timestamp.valueOf(t.atZoneSameInstant(zone).toLocalDateTime());
+         } catch (DateTimeException e) {
+            throw new IllegalArgumentException("bad eventTime " + value);
+         }
+      }
+      return Timestamp.valueOf(s.replace('T', ' '));
+   }//end timestamp
+
+}//end CourierFeedImporter
@@ -0,0 +1,301 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Writes a synthetic data set in the same CSV layout as the files under
+ * data/, ready for BulkLoader or load_data.sql.
+ *
+ *    java -cp classes DataGenerator <outDir> <scale> [seed]
+ *
+ * Scale 1 matches the seed data: 500 users, 500 games and 3000 orders.
+ * Users and orders grow linearly with the scale, the catalog with its
+ * square root (scale 10000 gives 5M users, 50k games, 30M orders).
+ *
+ * The same scale and seed always produce the same files.  Game popularity
+ * is Zipfian, and orders are spread over users with a Zipfian draw as well,
+ * so a few heavy renters have very long histories while most users have a
+ * handful of orders, like production data.
+ *
+ */
+public class DataGenerator {
+
+   static final int BASE_USERS = 500;
+   static final int BASE_GAMES = 500;
+   static final int BASE_ORDERS = 3000;
+
+   // skew of game popularity and of orders per user
+   static final double GAME_SKEW = Double.parseDouble(System.getProperty("gen.game.skew", "1.0"));
+   static final double USER_SKEW = Double.parseDouble(System.getProperty("gen.user.skew", "0.9"));
+
+   private static final String[] GENRES = {
+      "Action", "Adventure", "Fighting", "Misc", "Platform", "Puzzle",
+      "Racing", "Role-Playing", "Shooter", "Simulation", "Sports", "Strategy" };
+   private static final String[] PLATFORMS = {
+      "Wii", "DS", "X360", "PS3", "PS2", "PS4", "3DS", "PC", "XB", "GBA", "NS", "PS5" };
+   private static final String[] PUBLISHERS = {
+      "Nintendo", "Electronic Arts", "Activision", "Ubisoft", "Sony", "THQ",
+      "Sega", "Capcom", "Konami", "Bandai Namco", "Square Enix", "Take-Two" };
+   private static final String[] WORDS = {
+      "Super", "Dragon", "Legend", "Quest", "Star", "Dark", "Racing", "World", "Kingdom",
+      "Battle", "Island", "Zero", "Night", "Hero", "Space", "Ninja", "Party", "Soul",
+      "Street", "Galaxy", "Shadow", "Wild", "Craft", "Empire", "Storm", "City", "Tales" };
+   private static final String[] STATUSES = {
+      "Arrived at Facility", "Attempted Delivery", "Delayed", "Delivered",
+      "In Transit", "Out for Delivery", "Ready for Pickup", "Returned to Sender" };
+   private static final String[] CITIES = {
+      "Houston,TX", "San Antonio,TX", "Los Angeles,CA", "Riverside,CA", "Phoenix,AZ",
+      "Chicago,IL", "New York,NY", "Seattle,WA", "Denver,CO", "Miami,FL" };
+   private static final String[] COURIERS = { "USPS", "UPS", "FedEx", "DHL", "TNT" };
+
+   // orders are placed between these two dates
+   private static final long FIRST_ORDER = 1388534400000L;   // 2014-01-01
+   private static final long LAST_ORDER = 1704067200000L;    // 2024-01-01
+   private static final long DAY = 24L * 3600 * 1000;
+
+   private final Random _random;
+   private final int _users;
+   private final int _games;
+   private final long _orders;
+   private final String[] _gameNames;
+   private final long[] _priceCents;
+   private final Zipf _gamePopularity;
+   private final Zipf _userActivity;
+   // random permutations, so the most popular game/user is not always number 0
+   private final int[] _gameRank;
+   private final int[] _userRank;
+
+   private final SimpleDateFormat _timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+   private final SimpleDateFormat _date = new SimpleDateFormat("yyyy-MM-dd");
+
+   public DataGenerator(int scale, long seed) {
+      this._random = new Random(seed);
+      this._users = BASE_USERS * scale;
+      this._games = (int) (BASE_GAMES * Math.ceil(Math.sqrt(scale)));
+      this._orders = (long) BASE_ORDERS * scale;
+      this._gameNames = new String[_games];
+      this._priceCents = new long[_games];
+      this._gamePopularity = new Zipf(_games, GAME_SKEW);
+      this._userActivity = new Zipf(_users, USER_SKEW);
+      this._gameRank = permutation(_games);
+      this._userRank = permutation(_users);
+      _timestamp.setTimeZone(TimeZone.getTimeZone("UTC"));
+      _date.setTimeZone(TimeZone.getTimeZone("UTC"));
+   }//end DataGenerator
+
+   public static void main (String[] args) {
+      if (args.length < 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataGenerator.class.getName () +
+            " <outDir> <scale> [seed]");
+         return;
+      }//end if
+      try {
+         File dir = new File(args[0]);
+         dir.mkdirs();
+         int scale = Integer.parseInt(args[1]);
+         long seed = args.length > 2 ? Long.parseLong(args[2]) : 166L;
+         long start = System.nanoTime();
+         DataGenerator gen = new DataGenerator(scale, seed);
+         gen.write(dir);
+         System.out.printf("scale %d: %d users, %d games, %d orders written to %s in %.1fs%n",
+            scale, gen._users, gen._games, gen._orders, dir, (System.nanoTime() - start) / 1e9);
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+         System.exit(1);
+      }
+   }//end main
+
+   public void write(File dir) throws IOException {
+      writeCatalog(new File(dir, "catalog.csv"));
+      writeUsers(new File(dir, "users.csv"));
+      writeOrders(new File(dir, "rentalorder.csv"), new File(dir, "gamesinorder.csv"),
+                  new File(dir, "trackinginfo.csv"));
+   }
+
+   static String gameID(int game) {
+      return String.format("game%04d", game + 1);
+   }
+
+   static String login(int user) {
+      return "user" + (user + 1);
+   }
+
+   private void writeCatalog(File file) throws IOException {
+      Writer out = open(file);
+      try {
+         out.write("\"gameID\",\"gameName\",\"genre\",\"price\",\"description\",\"imageURL\"\n");
+         for (int g = 0; g < _games; ++g) {
+            String name = WORDS[_random.nextInt(WORDS.length)] + " " + WORDS[_random.nextInt(WORDS.length)];
+            if (_random.nextInt(3) == 0) {
+               name += " " + (2 + _random.nextInt(8));
+            }
+            _gameNames[g] = name;
+            // $9.99 to $59.99, ending in .99
+            _priceCents[g] = (10 + _random.nextInt(51)) * 100 - 1;
+            out.write(quote(gameID(g)) + "," + quote(name) + "," + quote(GENRES[_random.nextInt(GENRES.length)]) + "," +
+                      BigDecimal.valueOf(_priceCents[g], 2) + "," +
+                      quote("Platform: " + PLATFORMS[_random.nextInt(PLATFORMS.length)] +
+                            ";  Publisher: " + PUBLISHERS[_random.nextInt(PUBLISHERS.length)]) + ",\"\"\n");
+         }
+      } finally {
+         out.close();
+      }
+   }//end writeCatalog
+
+   private void writeUsers(File file) throws IOException {
+      Writer out = open(file);
+      try {
+         out.write("\"login\",\"password\",\"role\",\"favGames\",\"phoneNumber\",\"numOverDueGames\"\n");
+         for (int u = 0; u < _users; ++u) {
+            int r = _random.nextInt(1000);
+            String role = r < 2 ? "manager" : r < 32 ? "employee" : "customer";
+            StringBuilder fav = new StringBuilder();
+            int favCount = _random.nextInt(4);
+            for (int f = 0; f < favCount; ++f) {
+               if (f > 0) fav.append(',');
+               fav.append(_gameNames[popularGame()]);
+            }
+            String phone = String.format("+1-%03d-%03d-%04d", 200 + _random.nextInt(800),
+                                         _random.nextInt(1000), _random.nextInt(10000));
+            out.write(quote(login(u)) + "," + quote(password()) + "," + quote(role) + "," +
+                      quote(fav.toString()) + "," + quote(phone) + ",0\n");
+         }
+      } finally {
+         out.close();
+      }
+   }//end writeUsers
+
+   private void writeOrders(File orderFile, File lineFile, File trackingFile) throws IOException {
+      Writer orders = open(orderFile);
+      Writer lines = open(lineFile);
+      Writer tracking = open(trackingFile);
+      try {
+         orders.write("\"rentalorderid\",\"login\",\"noOfGames\",\"totalprice\",\"orderTimestamp\",\"dueDate\"\n");
+         lines.write("\"rentalorderid\",\"gameID\",\"unitsOrdered\"\n");
+         tracking.write("\"trackingID\",\"rentalorderid\",\"status\",\"currentLocation\",\"courierName\",\"lastUpdateDate\",\"additionalComments\"\n");
+         int[] games = new int[8];
+         for (long o = 0; o < _orders; ++o) {
+            String orderID = quote("gamerentalorder" + (1000 + o));
+            String login = login(_userRank[_userActivity.next(_random)]);
+
+            // 1 to 8 distinct games, usually 1 or 2
+            int lineCount = 1;
+            while (lineCount < games.length && _random.nextInt(3) == 0) {
+               ++lineCount;
+            }
+            int noOfGames = 0;
+            long totalCents = 0;
+            for (int l = 0; l < lineCount; ++l) {
+               int game;
+               boolean repeated;
+               do {
+                  game = popularGame();
+                  repeated = false;
+                  for (int k = 0; k < l; ++k) {
+                     repeated |= games[k] == game;
+                  }
+               } while (repeated);
+               games[l] = game;
+               int units = 1 + (_random.nextInt(4) == 0 ? _random.nextInt(3) : 0);
+               noOfGames += units;
+               totalCents += units * _priceCents[game];
+               lines.write(orderID + "," + quote(gameID(game)) + "," + units + "\n");
+            }
+
+            long placed = FIRST_ORDER + (long) (_random.nextDouble() * (LAST_ORDER - FIRST_ORDER));
+            placed -= placed % 1000;
+            orders.write(orderID + "," + quote(login) + "," + noOfGames + "," + BigDecimal.valueOf(totalCents, 2) + "," +
+                         quote(_timestamp.format(new Date(placed))) + "," +
+                         quote(_date.format(new Date(placed + 30 * DAY))) + "\n");
+            tracking.write(quote("trackingid" + (1000 + o)) + "," + orderID + "," +
+                           quote(STATUSES[_random.nextInt(STATUSES.length)]) + "," +
+                           quote(CITIES[_random.nextInt(CITIES.length)]) + "," +
+                           quote(COURIERS[_random.nextInt(COURIERS.length)]) + "," +
+                           quote(_timestamp.format(new Date(placed + 2 * DAY))) + ",\"\"\n");
+         }
+      } finally {
+         orders.close();
+         lines.close();
+         tracking.close();
+      }
+   }//end writeOrders
+
+   private int popularGame() {
+      return _gameRank[_gamePopularity.next(_random)];
+   }
+
+   private String password() {
+      String chars = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+      char[] pw = new char[9];
+      for (int i = 0; i < pw.length; ++i) {
+         pw[i] = chars.charAt(_random.nextInt(chars.length()));
+      }
+      return new String(pw);
+   }
+
+   private int[] permutation(int n) {
+      int[] p = new int[n];
+      for (int i = 0; i < n; ++i) p[i] = i;
+      for (int i = n - 1; i > 0; --i) {
+         int j = _random.nextInt(i + 1);
+         int t = p[i]; p[i] = p[j]; p[j] = t;
+      }
+      return p;
+   }//end permutation
+
+   private static Writer open(File file) throws IOException {
+      return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+   }
+
+   private static String quote(String s) {
+      return "\"" + s.replace("\"", "\"\"") + "\"";
+   }
+
+   /**
+    * Draws ranks 0..n-1 with probability proportional to 1 / (rank+1)^skew,
+    * by binary search over the cumulative distribution.
+    */
+   static final class Zipf {
+      private final double[] _cdf;
+
+      Zipf(int n, double skew) {
+         _cdf = new double[n];
+         double sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += 1.0 / Math.pow(i + 1, skew);
+            _cdf[i] = sum;
+         }
+         for (int i = 0; i < n; ++i) {
+            _cdf[i] /= sum;
+         }
+      }//end Zipf
+
+      int next(Random random) {
+         double u = random.nextDouble();
+         int lo = 0;
+         int hi = _cdf.length - 1;
+         while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_cdf[mid] < u) {
+               lo = mid + 1;
+            } else {
+               hi = mid;
+            }
+         }
+         return lo;
+      }//end next
+   }//end Zipf
+
+}//end DataGenerator
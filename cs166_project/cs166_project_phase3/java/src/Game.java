@@ -0,0 +1,58 @@
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A row of the Catalog table.
+ *
+ */
+public final class Game {
+
+   /**
+    * Maps gameID, gameName, genre, price, description, imageURL, in that
+    * order, as selected by CatalogCache.SELECT_GAMES.
+    */
+   public static final RowMapper<Game> MAPPER = new RowMapper<Game>() {
+      public Game map(ResultSet rs) throws SQLException {
+         return new Game(rs.getString(1), rs.getString(2), rs.getString(3),
+                         rs.getBigDecimal(4), rs.getString(5), rs.getString(6));
+      }
+   };
+
+   /**
+    * Maps the same columns followed by version, as selected by
+    * IdentityMap.SELECT_GAME.
+    */
+   public static final RowMapper<Game> VERSIONED_MAPPER = new RowMapper<Game>() {
+      public Game map(ResultSet rs) throws SQLException {
+         return new Game(rs.getString(1), rs.getString(2), rs.getString(3),
+                         rs.getBigDecimal(4), rs.getString(5), rs.getString(6), rs.getInt(7));
+      }
+   };
+
+   public final String gameID;
+   public final String gameName;
+   public final String genre;
+   public final BigDecimal price;
+   public final String description;
+   public final String imageURL;
+   // the row version, or -1 when not read
+   public final int version;
+
+   public Game(String gameID, String gameName, String genre, BigDecimal price,
+               String description, String imageURL) {
+      this(gameID, gameName, genre, price, description, imageURL, -1);
+   }
+
+   public Game(String gameID, String gameName, String genre, BigDecimal price,
+               String description, String imageURL, int version) {
+      this.gameID = gameID;
+      this.gameName = gameName;
+      this.genre = genre;
+      this.price = price;
+      this.description = description;
+      this.imageURL = imageURL;
+      this.version = version;
+   }
+
+}//end Game
@@ -13,7 +13,7 @@
 
  import java.sql.DriverManager;
  import java.sql.Connection;
- import java.sql.Statement;
+ import java.sql.PreparedStatement;
  import java.sql.ResultSet;
  import java.sql.ResultSetMetaData;
  import java.sql.SQLException;
@@ -21,8 +21,13 @@
  import java.io.FileReader;
  import java.io.BufferedReader;
  import java.io.InputStreamReader;
+ import java.io.IOException;
+ import java.io.OutputStreamWriter;
+ import java.io.Writer;
+ import java.math.BigDecimal;
  import java.util.List;
  import java.util.ArrayList;
+ import java.util.concurrent.ScheduledExecutorService;
  import java.lang.Math;
  import java.sql.Timestamp; //helper for updating tracking info
  import java.time.LocalDateTime; // helper for updating tracking info 
@@ -35,8 +40,67 @@
   */
  public class GameRental {
  
-    // reference to physical database connection.
-    private Connection _connection = null;
+    // number of physical connections kept open, override with -Dpool.size=N
+    static final int POOL_SIZE = Integer.getInteger("pool.size", 4);
+
+    // prepared statements cached per connection, override with -Dstatement.cache.size=N
+    static final int STATEMENT_CACHE_SIZE = Integer.getInteger("statement.cache.size", 64);
+
+    // rows fetched per round trip by executeQueryAndStream, override with -Dfetch.size=N
+    static final int FETCH_SIZE = Integer.getInteger("fetch.size", 500);
+
+    // false once the driver has refused setFetchSize, as pg73jdbc3 does
+    private static volatile boolean fetchSizeSupported = true;
+
+    // rows or orders shown per page by the paged views, override with -Dpage.size=N
+    static final int PAGE_SIZE = Integer.getInteger("page.size", 20);
+
+    // how results are printed: tsv (default), table or json, override with -Doutput.format=...
+    static final String OUTPUT_FORMAT = System.getProperty("output.format", "tsv");
+
+    // results are rendered a page at a time into this writer; it writes through
+    // System.out, so the output stays in order with the prompts
+    static final Writer CONSOLE = new OutputStreamWriter(System.out);
+
+    // pool of physical database connections.
+    private ConnectionPool _pool = null;
+
+    // the -Dreplicas pools that browse and history reads are routed to
+    private ReplicaRouter _router = null;
+
+    // roles of logged in users, shared by every session of this process
+    private RoleCache _roles = new RoleCache(this);
+
+    // unique rental order and tracking IDs, reserved in blocks from sequences
+    private IdAllocator _rentalOrderIds = new IdAllocator("gamerentalorder",
+       IdAllocator.BLOCK_SIZE, IdAllocator.sequence(this, "rentalorderid_seq"));
+    private IdAllocator _trackingIds = new IdAllocator("trackingid",
+       IdAllocator.BLOCK_SIZE, IdAllocator.sequence(this, "trackingid_seq"));
+
+    // in-memory copy of the catalog used by the browse views
+    private CatalogCache _catalog = new CatalogCache(this);
+
+    // tracking history, and the latest state kept in TrackingInfo
+    private TrackingLog _trackingLog = new TrackingLog(this);
+
+    // latency of every operation and SQL template run through this instance
+    private Metrics _metrics = new Metrics();
+
+    // the operations behind the console menu, the server and the benchmarks,
+    // each call timed as an operation
+    private CatalogService _catalogService = _metrics.instrument(CatalogService.class, new JdbcCatalogService(this));
+    private OrderService _orderService = _metrics.instrument(OrderService.class, new JdbcOrderService(this));
+    private TrackingService _trackingService = _metrics.instrument(TrackingService.class, new JdbcTrackingService(this));
+    private UserService _userService = _metrics.instrument(UserService.class, new JdbcUserService(this));
+    private StatsService _statsService = _metrics.instrument(StatsService.class, new JdbcStatsService(this));
+    private RecommendationService _recommendationService =
+       _metrics.instrument(RecommendationService.class, new JdbcRecommendationService(this));
+
+    // appends the metrics to Metrics.DUMP_FILE while running, when -Dmetrics.dump.seconds is set
+    private ScheduledExecutorService _metricsDump = null;
+
+    // statements slower than -Dslow.query.ms, with sampled plans
+    private SlowQueryLog _slowLog = new SlowQueryLog(this);
  
     // handling the keyboard inputs through a BufferedReader
     // This variable can be global for convenience.
@@ -60,8 +124,12 @@
           String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
           System.out.println ("Connection URL: " + url + "\n");
  
-          // obtain a physical connection
-          this._connection = DriverManager.getConnection(url, user, passwd);
+          // obtain a pool of physical connections
+          this._pool = new ConnectionPool(url, user, passwd, POOL_SIZE, STATEMENT_CACHE_SIZE);
+          this._router = new ReplicaRouter(this._pool, dbname, user, passwd);
+          if (Metrics.DUMP_SECONDS > 0) {
+             this._metricsDump = this._metrics.dumpEvery(Metrics.DUMP_SECONDS, this._pool);
+          }
           System.out.println("Done");
        }catch (Exception e){
           System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -69,159 +137,474 @@
           System.exit(-1);
        }//end catch
     }//end GameRental
+
+    /**
+     * @return the connection pool backing this instance
+     */
+    public ConnectionPool pool() {
+       return this._pool;
+    }
+
+    /**
+     * @return the router that picks the pool of the query methods
+     */
+    public ReplicaRouter router() {
+       return this._router;
+    }
+
+    /**
+     * @return the role cache used for permission checks
+     */
+    public RoleCache roles() {
+       return this._roles;
+    }
+
+    /**
+     * @return the allocator for new rental order IDs
+     */
+    public IdAllocator rentalOrderIds() {
+       return this._rentalOrderIds;
+    }
+
+    /**
+     * @return the allocator for new tracking IDs
+     */
+    public IdAllocator trackingIds() {
+       return this._trackingIds;
+    }
+
+    /**
+     * @return the cached catalog
+     */
+    public CatalogCache catalog() {
+       return this._catalog;
+    }
+
+    /**
+     * @return the tracking event log
+     */
+    public TrackingLog trackingLog() {
+       return this._trackingLog;
+    }
+
+    /**
+     * @return the latency and round trip figures of this instance
+     */
+    public Metrics metrics() {
+       return this._metrics;
+    }
+
+    public CatalogService catalogService() {
+       return this._catalogService;
+    }
+
+    public OrderService orderService() {
+       return this._orderService;
+    }
+
+    public TrackingService trackingService() {
+       return this._trackingService;
+    }
+
+    public UserService userService() {
+       return this._userService;
+    }
+
+    public StatsService statsService() {
+       return this._statsService;
+    }
+
+    public RecommendationService recommendationService() {
+       return this._recommendationService;
+    }
+
+    /**
+     * Binds the given values to the ? placeholders of a statement, in order.
+     *
+     * @param stmt the prepared statement
+     * @param params the values to bind
+     * @throws java.sql.SQLException when a value cannot be bound
+     */
+    static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+       for (int i = 0; i < params.length; ++i)
+          stmt.setObject (i + 1, params[i]);
+    }//end bind
  
+    /**
+     * Records a statement sent to the database in the metrics and, when it
+     * ran over the threshold, in the slow query log.
+     *
+     * @param sql the SQL template
+     * @param params the values bound to it, or null
+     * @param startNanos System.nanoTime() when it was sent
+     * @param rows rows returned or changed, or -1 when it failed
+     */
+    void statementDone (String sql, Object[] params, long startNanos, long rows) {
+       this.statementDone (sql, params, startNanos, rows, false);
+    }//end statementDone
+
+    /**
+     * As above, for a statement that may be marked read only; the slow
+     * query log captures plans only of those.
+     *
+     * @param readOnly true when the statement only reads
+     */
+    void statementDone (String sql, Object[] params, long startNanos, long rows, boolean readOnly) {
+       this._metrics.statement (sql, startNanos, rows);
+       this._slowLog.record (sql, params, System.nanoTime () - startNanos, rows, readOnly);
+    }//end statementDone
+
     /**
      * Method to execute an update SQL statement.  Update SQL instructions
      * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
      *
-     * @param sql the input SQL string
+     * @param sql the input SQL template, with ? for each parameter
+     * @param params the values bound to the placeholders
+     * @return the number of rows changed
      * @throws java.sql.SQLException when update failed
      */
-    public void executeUpdate (String sql) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
- 
-       // issues the update instruction
-       stmt.executeUpdate (sql);
+    public int executeUpdate (String sql, Object... params) throws SQLException {
+       PooledConnection pc = this._pool.acquire ();
+       long start = System.nanoTime ();
+       int rowCount = -1;
+       try {
+          // looks up the cached statement object
+          PreparedStatement stmt = pc.prepare (sql);
+          bind (stmt, params);
  
-       // close the instruction
-       stmt.close ();
+          // issues the update instruction
+          rowCount = stmt.executeUpdate ();
+          return rowCount;
+       } finally {
+          this._pool.release (pc);
+          this.statementDone (sql, params, start, rowCount);
+       }
     }//end executeUpdate
  
     /**
      * Method to execute an input query SQL instruction (i.e. SELECT).  This
      * method issues the query to the DBMS and outputs the results to
-     * standard out.
+     * standard out, rendered in OUTPUT_FORMAT a page at a time.
      *
-     * @param query the input query string
+     * @param query the input query template, with ? for each parameter
+     * @param params the values bound to the placeholders
      * @return the number of rows returned
      * @throws java.sql.SQLException when failed to execute the query
      */
-    public int executeQueryAndPrintResult (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+    public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+       ConnectionPool pool = this._router.current ();
+       boolean reading = this._router.reading ();
+       PooledConnection pc = pool.acquire ();
+       long start = System.nanoTime ();
+       int rowCount = -1;
+       try {
+          PreparedStatement stmt = pc.prepare (query);
+          bind (stmt, params);
+ 
+          // issues the query instruction
+          ResultSet rs = stmt.executeQuery ();
  
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+          // renders the rows, writing to standard out a page at a time
+          Renderer out = console ();
+          RowHandler handler = out.handler ();
+          while (rs.next()){
+             handler.row (rs);
+          }//end while
+          rs.close();
+          rowCount = out.finish ();
+          return rowCount;
+       } catch (IOException e) {
+          throw new SQLException ("Cannot write the result: " + e.getMessage ());
+       } finally {
+          pool.release (pc);
+          this.statementDone (query, params, start, rowCount, reading);
+       }
+    }//end executeQuery
  
-       /*
-        ** obtains the metadata object for the returned result set.  The metadata
-        ** contains row and column info.
-        */
-       ResultSetMetaData rsmd = rs.getMetaData ();
-       int numCol = rsmd.getColumnCount ();
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT).  This
+     * method issues the query to the DBMS and hands each row to the handler
+     * as it arrives.  With a driver that supports fetch sizes the query runs
+     * through a cursor (autocommit off and a fetch size), so only FETCH_SIZE
+     * rows are held in memory at a time.  The bundled pg73 driver does not:
+     * there the whole result is read at once, and callers that page bound
+     * it with their LIMIT.
+     *
+     * @param query the input query template, with ? for each parameter
+     * @param handler receives each row
+     * @param params the values bound to the placeholders
+     * @return the number of rows returned
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQueryAndStream (String query, RowHandler handler, Object... params) throws SQLException {
+       ConnectionPool pool = this._router.current ();
+       boolean reading = this._router.reading ();
+       PooledConnection pc = pool.acquire ();
+       long start = System.nanoTime ();
        int rowCount = 0;
+       boolean done = false;
+       try {
+          // the driver only uses a cursor inside a transaction
+          pc.connection ().setAutoCommit (false);
+          PreparedStatement stmt = pc.prepare (query);
+          if (fetchSizeSupported) {
+             try {
+                stmt.setFetchSize (FETCH_SIZE);
+             } catch (SQLException e) {
+                // not implemented by this driver; asked once per process
+                fetchSizeSupported = false;
+             }
+          }//end if
+          bind (stmt, params);
  
-       // iterates through the result set and output them to standard out.
-       boolean outputHeader = true;
-       while (rs.next()){
-        if(outputHeader){
-          for(int i = 1; i <= numCol; i++){
-          System.out.print(rsmd.getColumnName(i) + "\t");
-          }
-          System.out.println();
-          outputHeader = false;
-        }
-          for (int i=1; i<=numCol; ++i)
-             System.out.print (rs.getString (i) + "\t");
-          System.out.println ();
-          ++rowCount;
-       }//end while
-       stmt.close();
-       return rowCount;
-    }//end executeQuery
+          ResultSet rs = stmt.executeQuery ();
+          while (rs.next()){
+             handler.row (rs);
+             ++rowCount;
+          }//end while
+          rs.close ();
+          pc.connection ().commit ();
+          done = true;
+          return rowCount;
+       } finally {
+          pool.release (pc);
+          this.statementDone (query, params, start, done ? rowCount : -1, reading);
+       }
+    }//end executeQueryAndStream
  
     /**
      * Method to execute an input query SQL instruction (i.e. SELECT).  This
      * method issues the query to the DBMS and returns the results as
      * a list of records. Each record in turn is a list of attribute values
      *
-     * @param query the input query string
+     * @param query the input query template, with ? for each parameter
+     * @param params the values bound to the placeholders
      * @return the query result as a list of records
      * @throws java.sql.SQLException when failed to execute the query
      */
-    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+    public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+       ConnectionPool pool = this._router.current ();
+       boolean reading = this._router.reading ();
+       PooledConnection pc = pool.acquire ();
+       long start = System.nanoTime ();
+       int rowCount = -1;
+       try {
+          PreparedStatement stmt = pc.prepare (query);
+          bind (stmt, params);
  
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+          // issues the query instruction
+          ResultSet rs = stmt.executeQuery ();
  
-       /*
-        ** obtains the metadata object for the returned result set.  The metadata
-        ** contains row and column info.
-        */
-       ResultSetMetaData rsmd = rs.getMetaData ();
-       int numCol = rsmd.getColumnCount ();
-       int rowCount = 0;
+          /*
+           ** obtains the metadata object for the returned result set.  The metadata
+           ** contains row and column info.
+           */
+          ResultSetMetaData rsmd = rs.getMetaData ();
+          int numCol = rsmd.getColumnCount ();
  
-       // iterates through the result set and saves the data returned by the query.
-       boolean outputHeader = false;
-       List<List<String>> result  = new ArrayList<List<String>>();
-       while (rs.next()){
-         List<String> record = new ArrayList<String>();
-       for (int i=1; i<=numCol; ++i)
-          record.add(rs.getString (i));
-         result.add(record);
-       }//end while
-       stmt.close ();
-       return result;
+          // iterates through the result set and saves the data returned by the query.
+          List<List<String>> result  = new ArrayList<List<String>>();
+          while (rs.next()){
+            List<String> record = new ArrayList<String>();
+          for (int i=1; i<=numCol; ++i)
+             record.add(rs.getString (i));
+            result.add(record);
+          }//end while
+          rs.close ();
+          rowCount = result.size ();
+          return result;
+       } finally {
+          pool.release (pc);
+          this.statementDone (query, params, start, rowCount, reading);
+       }
     }//end executeQueryAndReturnResult
  
     /**
      * Method to execute an input query SQL instruction (i.e. SELECT).  This
-     * method issues the query to the DBMS and returns the number of results
+     * method issues the query to the DBMS and maps each row with the given
+     * mapper.
      *
-     * @param query the input query string
-     * @return the number of rows returned
+     * @param query the input query template, with ? for each parameter
+     * @param mapper turns a row into an object
+     * @param params the values bound to the placeholders
+     * @return the mapped rows
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public <T> List<T> executeQueryForList (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+       ConnectionPool pool = this._router.current ();
+       boolean reading = this._router.reading ();
+       PooledConnection pc = pool.acquire ();
+       long start = System.nanoTime ();
+       int rowCount = -1;
+       try {
+          PreparedStatement stmt = pc.prepare (query);
+          bind (stmt, params);
+          ResultSet rs = stmt.executeQuery ();
+          List<T> result = new ArrayList<T>();
+          while (rs.next()){
+             result.add (mapper.map (rs));
+          }//end while
+          rs.close ();
+          rowCount = result.size ();
+          return result;
+       } finally {
+          pool.release (pc);
+          this.statementDone (query, params, start, rowCount, reading);
+       }
+    }//end executeQueryForList
+ 
+    /**
+     * Method to execute a query expected to return at most one row.
+     *
+     * @param query the input query template, with ? for each parameter
+     * @param mapper turns the row into an object
+     * @param params the values bound to the placeholders
+     * @return the mapped first row, or null if there is none
      * @throws java.sql.SQLException when failed to execute the query
      */
-    public int executeQuery (String query) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement ();
+    public <T> T executeQueryForObject (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+       ConnectionPool pool = this._router.current ();
+       boolean reading = this._router.reading ();
+       PooledConnection pc = pool.acquire ();
+       long start = System.nanoTime ();
+       int rowCount = -1;
+       try {
+          PreparedStatement stmt = pc.prepare (query);
+          bind (stmt, params);
+          ResultSet rs = stmt.executeQuery ();
+          try {
+             T row = rs.next() ? mapper.map (rs) : null;
+             rowCount = row == null ? 0 : 1;
+             return row;
+          } finally {
+             rs.close ();
+          }
+       } finally {
+          pool.release (pc);
+          this.statementDone (query, params, start, rowCount, reading);
+       }
+    }//end executeQueryForObject
  
-        // issues the query instruction
-        ResultSet rs = stmt.executeQuery (query);
+    /**
+     * Method to execute an aggregate query such as SELECT COUNT(*) and return
+     * the first column of the first row as a primitive.
+     *
+     * @param query the input query template, with ? for each parameter
+     * @param params the values bound to the placeholders
+     * @return the value, or 0 when there is no row or it is NULL
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public long executeQueryForLong (String query, Object... params) throws SQLException {
+       ConnectionPool pool = this._router.current ();
+       boolean reading = this._router.reading ();
+       PooledConnection pc = pool.acquire ();
+       long start = System.nanoTime ();
+       int rowCount = -1;
+       try {
+          PreparedStatement stmt = pc.prepare (query);
+          bind (stmt, params);
+          ResultSet rs = stmt.executeQuery ();
+          try {
+             boolean found = rs.next();
+             long value = found ? rs.getLong (1) : 0;
+             rowCount = found ? 1 : 0;
+             return value;
+          } finally {
+             rs.close ();
+          }
+       } finally {
+          pool.release (pc);
+          this.statementDone (query, params, start, rowCount, reading);
+       }
+    }//end executeQueryForLong
  
+    /**
+     * Same as executeQueryForLong, for values that fit an int.
+     */
+    public int executeQueryForInt (String query, Object... params) throws SQLException {
+       return (int) executeQueryForLong (query, params);
+    }//end executeQueryForInt
+ 
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT).  This
+     * method issues the query to the DBMS and returns the number of results
+     *
+     * @param query the input query template, with ? for each parameter
+     * @param params the values bound to the placeholders
+     * @return the number of rows returned
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQuery (String query, Object... params) throws SQLException {
+        ConnectionPool pool = this._router.current ();
+        boolean reading = this._router.reading ();
+        PooledConnection pc = pool.acquire ();
+        long start = System.nanoTime ();
         int rowCount = 0;
+        boolean done = false;
+        try {
+           PreparedStatement stmt = pc.prepare (query);
+           bind (stmt, params);
  
-        // iterates through the result set and count nuber of results.
-        while (rs.next()){
-           rowCount++;
-        }//end while
-        stmt.close ();
-        return rowCount;
+           // issues the query instruction
+           ResultSet rs = stmt.executeQuery ();
+ 
+           // iterates through the result set and count nuber of results.
+           while (rs.next()){
+              rowCount++;
+           }//end while
+           rs.close ();
+           done = true;
+           return rowCount;
+        } finally {
+           pool.release (pc);
+           this.statementDone (query, params, start, done ? rowCount : -1, reading);
+        }
     }
  
     /**
      * Method to fetch the last value from sequence. This
      * method issues the query to the DBMS and returns the current
-     * value of sequence used for autogenerated keys
+     * value of sequence used for autogenerated keys.  currval is per
+     * session, so it only sees a nextval issued on the same pooled
+     * connection.
      *
      * @param sequence name of the DB sequence
      * @return current value of a sequence
      * @throws java.sql.SQLException when failed to execute the query
      */
     public int getCurrSeqVal(String sequence) throws SQLException {
-    Statement stmt = this._connection.createStatement ();
- 
-    ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-    if (rs.next())
-       return rs.getInt(1);
-    return -1;
+    PooledConnection pc = this._pool.acquire ();
+    try {
+       PreparedStatement stmt = pc.prepare ("Select currval(CAST(? AS regclass))");
+       stmt.setString (1, sequence);
+       ResultSet rs = stmt.executeQuery ();
+       try {
+          if (rs.next())
+             return rs.getInt(1);
+          return -1;
+       } finally {
+          rs.close ();
+       }
+    } finally {
+       this._pool.release (pc);
+    }
     }
  
     /**
-     * Method to close the physical connection if it is open.
+     * Method to close the physical connections if they are open.
      */
     public void cleanup(){
-       try{
-          if (this._connection != null){
-             this._connection.close ();
-          }//end if
-       }catch (SQLException e){
-          // ignored.
-       }//end try
+       if (this._metricsDump != null){
+          this._metricsDump.shutdown ();
+          this._metrics.dump (this._pool);
+       }//end if
+       this._slowLog.close ();
+       if (this._router != null){
+          this._router.close ();
+       }//end if
+       if (this._pool != null){
+          this._pool.close ();
+       }//end if
     }//end cleanup
  
     /**
@@ -259,14 +642,15 @@
              System.out.println("1. Create user");
              System.out.println("2. Log in");
              System.out.println("9. < EXIT");
-             String authorisedUser = null;
+             Session session = null;
              switch (readChoice()){
                 case 1: CreateUser(esql); break;
-                case 2: authorisedUser = LogIn(esql); break;
+                case 2: session = LogIn(esql); break;
                 case 9: keepon = false; break;
                 default : System.out.println("Unrecognized choice!"); break;
              }//end switch
-             if (authorisedUser != null) {
+             if (session != null) {
+               String authorisedUser = session.login();
                boolean usermenu = true;
                while(usermenu) {
                  System.out.println("\nMAIN MENU");
@@ -286,6 +670,8 @@
                  //the following functionalities basically used by managers
                  System.out.println("10. Update Catalog");
                  System.out.println("11. Update User");
+                 System.out.println("12. Rental Statistics");
+                 System.out.println("13. Recommended for You");
  
                  System.out.println(".........................");
                  System.out.println("20. Log out");
@@ -296,11 +682,13 @@
                     case 4: placeOrder(esql, authorisedUser); break;
                     case 5: viewAllOrders(esql, authorisedUser); break;
                     case 6: viewRecentOrders(esql, authorisedUser); break;
-                    case 7: viewOrderInfo(esql, authorisedUser); break;
-                    case 8: viewTrackingInfo(esql, authorisedUser); break;
-                    case 9: updateTrackingInfo(esql, authorisedUser); break;
-                    case 10: updateCatalog(esql, authorisedUser); break;
-                    case 11: updateUser(esql, authorisedUser); break;
+                    case 7: viewOrderInfo(esql, session); break;
+                    case 8: viewTrackingInfo(esql, session); break;
+                    case 9: updateTrackingInfo(esql, session); break;
+                    case 10: updateCatalog(esql, session); break;
+                    case 11: updateUser(esql, session); break;
+                    case 12: viewStatistics(esql, session); break;
+                    case 13: viewRecommendations(esql, authorisedUser); break;
  
  
  
@@ -372,19 +760,11 @@
           String user_phonenumber = in.readLine();
 
           // checking if login already exists
-          String login_query = String.format("SELECT * FROM Users WHERE login = '%s';", user_login);
-          int userTrue = esql.executeQuery(login_query);
- 
-          if (userTrue > 0) {
+          if (!esql.userService().createUser(user_login, user_password, user_phonenumber)) {
             System.out.print("\nLogin already taken. Please try again.\n");
             return;
          }
  
-          // initializing query
-          String add_user_query = String.format("INSERT INTO Users(login, password, role, favGames, phoneNum, numOverDueGames) VALUES('%s', '%s', 'customer', NULL, '%s', 0)", user_login, user_password, user_phonenumber);
-         
-          // executing query
-          esql.executeUpdate(add_user_query);
           System.out.print("\nUser succesfully created. Welcome, " + user_login + "! \n");
           System.out.print("\n");
  
@@ -393,8 +773,9 @@
        }
     }//end CreateUser
  
-     // check log in credentials for an existing user, return user login or null if the user DNE
-    public static String LogIn(GameRental esql){
+     // check log in credentials for an existing user, return the session or null if the user DNE
+     // the role is read by the same query, so later permission checks need no database work
+    public static Session LogIn(GameRental esql){
        try {
           // prompting user for login info
           System.out.print("\n");
@@ -403,21 +784,16 @@
           System.out.print("\tEnter password: ");
           String user_password = in.readLine(); 
  
-          // initializing sql query
-          String login_query = String.format("SELECT * FROM Users WHERE login = '%s' AND password = '%s';", user_login, user_password);
- 
-          // executing query
-          int userTrue = esql.executeQuery(login_query);
+          Session session = esql.userService().logIn(user_login, user_password);
  
           // checking if login exists
-          if (userTrue > 0) {
+          if (session != null) {
              System.out.print("\nLogin successful. Welcome, " + user_login + "!\n");
-             return user_login;
           }
           else {
              System.out.print("\nLogin unsuccesful. Please re-enter your login/password.\n");
-             return null;
           }
+          return session;
  
        } catch(Exception e){
           System.err.println (e.getMessage ());
@@ -425,25 +801,27 @@
        }
     } //end logIn
  
-    // view favGames, numOverdueGames, and phoneNum
+    // view favGames, numOverdueGames, and phoneNum, from one read of the user's row
     public static void viewProfile(GameRental esql, String user_login) {
        try{
+          User user = new IdentityMap(esql).user(user_login);
+          if (user == null) {
+             System.out.print("\nUser not found.\n");
+             return;
+          }
           // skip line
           System.out.print("\n");
  
           // view favGames
-          String view_favGames = String.format("SELECT favGames AS \"Favorite Games\" FROM Users U WHERE U.login = '%s'", user_login);
-          esql.executeQueryAndPrintResult(view_favGames);
+          printRow(new String[] { "Favorite Games" }, user.favGames);
           System.out.print("\n");
  
           // view numOverDueGames
-          String view_numOverDueGames = String.format("SELECT numOverDueGames AS \"Number of Overdue Games:\" FROM Users U WHERE U.login = '%s'", user_login);
-          esql.executeQueryAndPrintResult(view_numOverDueGames);
+          printRow(new String[] { "Number of Overdue Games:" }, user.numOverDueGames);
           System.out.print("\n");
  
           // view phoneNum
-          String view_phoneNum = String.format("SELECT phoneNum AS \"Phone Number\" FROM Users U WHERE U.login = '%s'", user_login);
-          esql.executeQueryAndPrintResult(view_phoneNum);
+          printRow(new String[] { "Phone Number" }, user.phoneNum);
  
        } catch(Exception e){
        System.err.println (e.getMessage ());
@@ -461,18 +839,15 @@
             switch(readChoice()) {
                case 1: System.out.print("\nFavorite Games: ");
                String new_games = in.readLine();
-               String query1 = String.format("UPDATE Users SET favGames = '%s' WHERE login = '%s'", new_games, user_login);
-               esql.executeUpdate(query1); break;
+               esql.userService().updateFavGames(user_login, new_games); break;
    
                case 2: System.out.print("\nNew Password: ");
                String new_password = in.readLine();
-               String query2 = String.format("UPDATE Users SET password = '%s' WHERE login = '%s'", new_password, user_login);
-               esql.executeUpdate(query2); break;
+               esql.userService().updatePassword(user_login, new_password); break;
                
                case 3: System.out.print("\nNew Phone Number: ");
                String new_phoneNum = in.readLine();
-               String query3 = String.format("UPDATE Users SET phoneNum = '%s' WHERE login = '%s'", new_phoneNum, user_login);
-               esql.executeUpdate(query3); break;
+               esql.userService().updatePhoneNum(user_login, new_phoneNum); break;
             }
             System.out.print("\nProfile updated succesfully. Would you like to update again? \n1. Yes \n2. No\n");
             switch(readChoice()) {
@@ -496,7 +871,8 @@
             System.out.println("3. Filter by Price");
             System.out.println("4. Sort by Price (low to high)");
             System.out.println("5. Sort by price (high to low)");
-            System.out.println("6. Exit Catalog");
+            System.out.println("6. Search by Name, Platform or Publisher");
+            System.out.println("7. Exit Catalog");
 
             switch (readChoice()){
                case 1: viewAllGames(esql); break;
@@ -504,7 +880,8 @@
                case 3: filterByPrice(esql); break;
                case 4: sortByPrice(esql, true); break;
                case 5: sortByPrice(esql, false); break;
-               case 6: keepLooking = false; break; 
+               case 6: searchCatalog(esql); break;
+               case 7: keepLooking = false; break; 
                default: System.out.println("Invalid Input choice!!"); break; 
             }
          }
@@ -514,20 +891,11 @@
          }
    } // end viewCatalog
  
+    // the cart is collected in memory and stored in one transaction once the user is done
     public static void placeOrder(GameRental esql, String user_login) {
       try {
          boolean getGame = true;
-         double totalPrice = 0.0;
-         int totalGames = 0;
-
-         String orderID = generateUniqueRental(esql); // initialize unique orderID 
-         Timestamp dueDate = generateRandomDueDate(); // initialize dueDate 
-         Timestamp timeStamp = getCurrentTimestamp(); // initialize timeStamp 
-         String trackingid = generateUniquetrackingID(esql); // initialize trackingID
-
-         // query
-         String add_order_id = String.format("INSERT INTO rentalorder(rentalorderid, login, noOfGames, totalprice, orderTimestamp, dueDate) VALUES('%s', '%s', 0, 0.0, '%s', '%s')", orderID, user_login, timeStamp, dueDate);
-         esql.executeUpdate(add_order_id);
+         OrderBuilder order = new OrderBuilder();
 
          while (getGame == true) { // iterate until user no longer wants to purchase a game
             System.out.print("\n--PLACE RENTAL ORDER--\n");
@@ -536,17 +904,8 @@
 
             System.out.print("How many units would you like?: ");
             int unitsToOrder = Integer.parseInt(in.readLine());
-            totalGames = unitsToOrder + totalGames;
-
-            String query = String.format("SELECT price FROM Catalog WHERE gameID = '%s'", user_game);
-            List<List<String>> price = esql.executeQueryAndReturnResult(query);
-            String stringPrice = price.get(0).get(0);
-            double intPrice = Double.parseDouble(stringPrice);
-            totalPrice = (unitsToOrder * intPrice) + totalPrice;
-            System.out.print("\nCurrent Price: $" + totalPrice + "\n");
-
-            String add_into_games = String.format("INSERT INTO gamesinorder(rentalorderid, gameID, unitsOrdered) VALUES('%s', '%s', '%s')", orderID, user_game, unitsToOrder);
-            esql.executeUpdate(add_into_games);
+            order.add(user_game, unitsToOrder);
+            System.out.print("\nGames in your cart: " + order.lineCount() + "\n");
 
             System.out.print ("\nWould you like to order more? (Y or N): ");
             String response = in.readLine();
@@ -555,31 +914,26 @@
             }
          }
 
-         // add into rental order
-         String add_order_query = String.format("UPDATE rentalorder SET noOfGames = '%s', totalprice = '%s' WHERE rentalorderid = '%s'", totalGames, totalPrice, orderID);
-         esql.executeUpdate(add_order_query);
+         // stores the order, its games and its tracking info together
+         OrderBuilder.Result placed = esql.orderService().placeOrder(user_login, order);
 
-         // add into tracking info
-         String add_tracking_query = String.format("INSERT INTO trackinginfo(trackingID, rentalorderid, status, currentLocation, courierName, lastUpdateDate, additionalComments) VALUES ('%s', '%s', 'Processing', 'Los Angeles, CA', 'USPS', '%s', '')", trackingid, orderID, timeStamp);
-         esql.executeUpdate(add_tracking_query);
-
-         System.out.print("\nThe total cost of your order is: $" + totalPrice + "\n\nYour order has been placed.\nOrder ID: " + orderID + "\nTracking ID: " + trackingid + "\n");
+         System.out.print("\nThe total cost of your order is: $" + placed.totalPrice + "\n\nYour order has been placed.\nOrder ID: " + placed.rentalOrderID + "\nTracking ID: " + placed.trackingID + "\n");
 
       } catch (Exception e) {
          System.err.println(e.getMessage());
       }
     } // end placeOrder
 
+    // shows the history one page of orders at a time
     public static void viewAllOrders(GameRental esql, String user_login) {
       try {
-         String query = "SELECT r1.rentalOrderID, c.gameName, r1.orderTimestamp, r1.dueDate " + 
-                  "FROM RentalOrder r1 " + 
-                  "JOIN GamesInOrder gm ON r1.rentalOrderID = gm.rentalOrderID " +
-                  "JOIN Catalog c ON gm.gameID = c.gameID " + 
-                  "WHERE r1.login = '" + user_login + "'" +
-                  "ORDER BY r1.orderTimestamp"; 
          System.out.print("Your order history: ");
-         esql.executeQueryAndPrintResult(query);
+         OrderPage page = esql.orderService().historyPage(user_login, null, null, PAGE_SIZE);
+         printOrderLines(page.lines);
+         while (page.hasMore && morePages()) {
+            page = esql.orderService().historyPage(user_login, page.lastTimestamp, page.lastOrderID, PAGE_SIZE);
+            printOrderLines(page.lines);
+         }
 
       } catch (Exception e) {
          System.err.println(e.getMessage());
@@ -588,15 +942,8 @@
 
     public static void viewRecentOrders(GameRental esql, String user_login) {
       try{ 
-         String query = "SELECT r1.rentalOrderID, c.gameName, r1.orderTimestamp, r1.dueDate " + 
-                  "FROM RentalOrder r1 " + 
-                  "JOIN GamesInOrder gm ON r1.rentalOrderID = gm.rentalOrderID " +
-                  "JOIN Catalog c ON gm.gameID = c.gameID " + 
-                  "WHERE r1.login = '" + user_login + "'" +
-                  "ORDER BY r1.orderTimestamp DESC " + 
-                  "LIMIT 5 ";
          System.out.print("Your recent 5 orders: ");
-         esql.executeQueryAndPrintResult(query);
+         printOrderLines(esql.orderService().recentOrders(user_login));
          System.out.print("\n");
 
       } catch (Exception e) {
@@ -604,54 +951,47 @@
       }
    } // end viewRecentOrders
 
-   public static void viewOrderInfo(GameRental esql, String user_login) {
+   public static void viewOrderInfo(GameRental esql, Session session) {
       try {
           System.out.print("\nEnter your rental Order ID: ");
           String rentalOrderID = in.readLine(); 
           System.out.print("\n");
   
-          // Check if the user is a manager or employee
-          boolean isEmployeeOrManager = isEmployeeOrManager(esql, user_login); 
-  
-          // Query to get the login associated with the rental order ID
-          String query = String.format("SELECT login FROM RentalOrder WHERE rentalOrderID = '%s'", rentalOrderID);
-          List<List<String>> result = esql.executeQueryAndReturnResult(query); 
+          OrderInfo info;
+          try {
+             info = esql.orderService().orderInfo(session, rentalOrderID);
+          } catch (AccessDeniedException e) {
+             // not a manager or employee, and the order belongs to someone else
+             System.out.println("You do not have permission to view this order. Please input another order ID or quit to the main menu.");
+             System.out.print("Enter '1' to input another order ID or '2' to quit: ");
+             int choice = Integer.parseInt(in.readLine());
+             if (choice == 1) {
+                 viewOrderInfo(esql, session);
+             }
+             return;
+          }
   
-          if (result.isEmpty()) {
+          if (info == null) {
               System.out.println("Order ID not found. Returning to main menu.");
               return;
           }
   
-          String orderLogin = result.get(0).get(0);
-  
-          // If user is not a manager or employee, check if the order belongs to them
-          if (!isEmployeeOrManager && !orderLogin.equals(user_login)) {
-              System.out.println("You do not have permission to view this order. Please input another order ID or quit to the main menu.");
-              System.out.print("Enter '1' to input another order ID or '2' to quit: ");
-              int choice = Integer.parseInt(in.readLine());
-              if (choice == 1) {
-                  viewOrderInfo(esql, user_login);
-              } else {
-                  return;
-              }
-          }
-  
-          // Query to get the order information
-          query = "SELECT r1.rentalOrderID, r1.login, r1.noOfGames, r1.totalPrice, r1.orderTimestamp, r1.dueDate, " +
-                  "ti.trackingID, ti.status, ti.currentLocation, ti.courierName, ti.lastUpdateDate, ti.additionalComments " +
-                  "FROM RentalOrder r1 " +
-                  "JOIN TrackingInfo ti ON r1.rentalOrderID = ti.rentalOrderID " +
-                  "WHERE r1.rentalOrderID = '" + rentalOrderID + "'";
-  
           System.out.print("\n");
-          esql.executeQueryAndPrintResult(query);
+          RentalOrder order = info.order;
+          TrackingEvent tracking = info.tracking != null ? info.tracking
+             : new TrackingEvent(null, null, null, null, null, null, null);
+          printRow(new String[] { "rentalorderid", "login", "noofgames", "totalprice", "ordertimestamp", "duedate",
+                                  "trackingid", "status", "currentlocation", "couriername", "lastupdatedate", "additionalcomments" },
+                   order.rentalOrderID, order.login, order.noOfGames, order.totalPrice, order.orderTimestamp, order.dueDate,
+                   tracking.trackingID, tracking.status, tracking.currentLocation, tracking.courierName,
+                   tracking.lastUpdateDate, tracking.additionalComments);
   
       } catch (Exception e) {
           System.err.println(e.getMessage());
       }
   } // end viewOrderInfo
 
-   public static void viewTrackingInfo(GameRental esql, String user_login) {  
+   public static void viewTrackingInfo(GameRental esql, Session session) {  
       try {
           System.out.print("\nEnter your tracking ID: ");
           String trackingID = in.readLine(); 
@@ -659,45 +999,45 @@
           String rentalOrderID = in.readLine();
           System.out.print("\n");
   
-          // Check if the user is a manager or employee
-          boolean isEmployeeOrManager = isEmployeeOrManager(esql, user_login);
-  
-          // Query to get the login associated with the rental order ID
-          String loginQuery = String.format("SELECT login FROM RentalOrder WHERE rentalOrderID = '%s'", rentalOrderID);
-          List<List<String>> result = esql.executeQueryAndReturnResult(loginQuery);
-          
-          if (result.isEmpty()) {
-              System.out.println("Order ID not found. Returning to main menu.");
-              return;
-          }
-  
-          String orderLogin = result.get(0).get(0);
-  
-          // If user is not a manager or employee, check if the order belongs to them
-          if (!isEmployeeOrManager && !orderLogin.equals(user_login)) {
-              System.out.println("You do not have permission to view this tracking information.");
+          TrackingEvent tracking = esql.trackingService().tracking(session, trackingID, rentalOrderID);
+          if (tracking == null) {
+              System.out.println("Tracking ID not found for this order. Returning to main menu.");
               return;
           }
   
-          // Query to get the tracking information
-          String query = "SELECT ti.trackingID, ti.rentalOrderID, ti.courierName, ti.currentLocation, " +
-                         "ti.status, ti.lastUpdateDate, ti.additionalComments " +
-                         "FROM TrackingInfo ti " +
-                         "JOIN RentalOrder ro ON ti.rentalOrderID = ro.rentalOrderID " +
-                         "WHERE ti.trackingID = '" + trackingID + "' AND ro.rentalOrderID = '" + rentalOrderID + "'";
-  
           System.out.print("\n");
-          esql.executeQueryAndPrintResult(query);   
+          printRow(new String[] { "trackingid", "rentalorderid", "status", "currentlocation", "couriername",
+                                  "lastupdatedate", "additionalcomments" },
+                   tracking.trackingID, tracking.rentalOrderID, tracking.status, tracking.currentLocation,
+                   tracking.courierName, tracking.lastUpdateDate, tracking.additionalComments);
+
+          System.out.print("\nShow the full tracking history? \n1. Yes \n2. No\n");
+          if (readChoice() == 1) {
+              List<TrackingEvent> history = esql.trackingService().history(session, trackingID, rentalOrderID);
+              Renderer out = console();
+              out.start(new String[] { "updatedate", "status", "currentlocation", "couriername", "additionalcomments" });
+              for (TrackingEvent event : history) {
+                  out.cell(String.valueOf(event.lastUpdateDate));
+                  out.cell(event.status);
+                  out.cell(event.currentLocation);
+                  out.cell(event.courierName);
+                  out.cell(event.additionalComments);
+                  out.endRow();
+              }
+              out.finish();
+          }
   
+      } catch (AccessDeniedException e) {
+          System.out.println(e.getMessage());
       } catch (Exception e) {
           System.err.println(e.getMessage());
       }
   } // end viewTrackingInfo
  
-   public static void updateTrackingInfo(GameRental esql, String user_login) {
+   public static void updateTrackingInfo(GameRental esql, Session session) {
       try {
 
-         if (!isEmployeeOrManager(esql, user_login)) {
+         if (!session.isEmployeeOrManager()) {
             System.out.println("Access Denied: Only employees or managers can update the tracking information.");
             return;
          }
@@ -717,18 +1057,11 @@
          System.out.print("Enter new additional comments: ");
          String newComments = in.readLine(); 
 
-         Timestamp currentTimestamp = getCurrentTimestamp(); 
-
-         String query = "UPDATE TrackingInfo " + 
-           "SET status = '" + newStatus + "', " +
-           "currentLocation = '" + newLocation + "', " +
-          "courierName = '" + newCourierName + "', " +
-          "additionalComments = '" + newComments + "', " +
-           "lastUpdateDate = '" + currentTimestamp + "' " +
-           "WHERE trackingID = '" + trackingID + "'";
-              
-                     esql.executeUpdate(query);
-                  System.out.println("Tracking Information updated successfully.");
+         if (esql.trackingService().updateTracking(session, trackingID, newStatus, newLocation, newCourierName, newComments)) {
+            System.out.println("Tracking Information updated successfully.");
+         } else {
+            System.out.println("Tracking ID not found.");
+         }
       }
       catch (Exception e) {
          System.err.println(e.getMessage());
@@ -736,63 +1069,60 @@
       }
    } // end updateTrackingInfo
 
-    public static void updateCatalog(GameRental esql, String user_login) {
+    public static void updateCatalog(GameRental esql, Session session) {
       try{
-         if (isManager(esql, user_login)) {
+         if (session.isManager()) {
+            // games already shown on this screen are not read again
+            IdentityMap games = new IdentityMap(esql);
             boolean update = true;
 
             while(update == true) {
                System.out.print("\nPlease input the gameID of the game you would like to update: ");
                String game_update = in.readLine();
 
-               String game_name = String.format("SELECT gameName FROM Catalog WHERE gameID = '%s'", game_update);
-               String game_genre = String.format("SELECT genre FROM Catalog WHERE gameID = '%s'", game_update);
-               String game_price = String.format("SELECT price FROM Catalog WHERE gameID = '%s'", game_update);
-               String game_description = String.format("SELECT description FROM Catalog WHERE gameID = '%s'", game_update);
-               String game_imageURL = String.format("SELECT imageURL FROM Catalog WHERE gameID = '%s'", game_update);
-               
-               System.out.print("\n");
-               esql.executeQueryAndPrintResult(game_name);
-
-               System.out.print("\n");
-               esql.executeQueryAndPrintResult(game_genre);
-
-               System.out.print("\n");
-               esql.executeQueryAndPrintResult(game_price);
-
-               System.out.print("\n");
-               esql.executeQueryAndPrintResult(game_description);
+               Game game = games.game(game_update);
+               if (game == null) {
+                  System.out.print("\nGame not found. Please try again.\n");
+                  continue;
+               }
 
-               System.out.print("\n");
-               esql.executeQueryAndPrintResult(game_imageURL);
+               printGame(game);
             
                System.out.print("\nWhat would you like to update? \n1. Game Name \n2. Genre \n3. Price \n4. Description \n5. imageURL \n");
 
+               String field = null;
+               Object value = null;
                switch(readChoice()) {
                   case 1: System.out.print("\nGame Name: ");
-                  String gamename_update = in.readLine();
-                  String query1 = String.format("UPDATE Catalog SET gameName = '%s' WHERE gameID = '%s'", gamename_update, game_update);
-                  esql.executeUpdate(query1); break;
+                  field = "gameName"; value = in.readLine(); break;
 
                   case 2: System.out.print("\nGenre: ");
-                  String genre_update = in.readLine();
-                  String query2 = String.format("UPDATE Catalog SET role = '%s' WHERE gameID = '%s'", genre_update, game_update);
-                  esql.executeUpdate(query2); break;
+                  field = "genre"; value = in.readLine(); break;
 
                   case 3: System.out.print("\nPrice: ");
-                  String price_update = in.readLine();
-                  String query3 = String.format("UPDATE Catalog SET price = '%s' WHERE gameID = '%s'", price_update, game_update);
-                  esql.executeUpdate(query3); break;
+                  field = "price"; value = new BigDecimal(in.readLine().trim()); break;
 
                   case 4: System.out.print("\nDescription: ");
-                  String description_update = in.readLine();
-                  String query4 = String.format("UPDATE Catalog SET description = '%s' WHERE gameID = '%s'", description_update, game_update);
-                  esql.executeUpdate(query4); break;
+                  field = "description"; value = in.readLine(); break;
 
                   case 5: System.out.print("\nImage URL: ");
-                  String image_update = in.readLine();
-                  String query5 = String.format("UPDATE Catalog SET imageURL = '%s' WHERE gameID = '%s'", image_update, game_update);
-                  esql.executeUpdate(query5); break;
+                  field = "imageURL"; value = in.readLine(); break;
+               }
+               if (field == null) {
+                  continue;
+               }
+               // written only if no other manager changed the game while this one was typing
+               try {
+                  esql.catalogService().updateGame(session, game_update, game.version, field, value);
+                  games.evictGame(game_update);
+               } catch (ConcurrentUpdateException e) {
+                  // the version held here is stale either way
+                  games.evictGame(game_update);
+                  System.out.print("\n" + e.getMessage() + " Nothing was changed. The game now reads:\n");
+                  if (e.current() != null) {
+                     printGame((Game) e.current());
+                  }
+                  continue;
                }
 
                System.out.print("\nGame updated succesfully. Would you like to update again? \n1. Yes \n2. No\n");
@@ -811,48 +1141,47 @@
       }
     } // end updateCatalog
 
-    public static void updateUser(GameRental esql, String user_login) {
+    public static void updateUser(GameRental esql, Session session) {
       try{ 
-         if (isManager(esql, user_login)) { // choices for a manager
+         if (session.isManager()) { // choices for a manager
+            // users already shown on this screen are not read again
+            IdentityMap users = new IdentityMap(esql);
             boolean update = true;
 
             while(update == true) {
                System.out.print("\nEnter the user's login to update: ");
                String user_update = in.readLine();
 
-               if (isUser(esql,user_update)) { // if valid user found
-                  String userlogin = String.format("SELECT login FROM Users WHERE login = '%s'", user_update);
-                  String user_password = String.format("SELECT password FROM Users WHERE login = '%s'", user_update);
-                  String user_role = String.format("SELECT role FROM Users WHERE login = '%s'", user_update);
-                  String user_games = String.format("SELECT favGames FROM Users WHERE login = '%s'", user_update);
-                  String user_phone = String.format("SELECT phoneNum FROM Users WHERE login = '%s'", user_update);
-                  String user_overdue = String.format("SELECT numOverDueGames FROM Users WHERE login = '%s'", user_update);
-               
-                  System.out.print("\n");
-                  esql.executeQueryAndPrintResult(userlogin);
-                  System.out.print("\n");
-                  esql.executeQueryAndPrintResult(user_password);
-                  System.out.print("\n");
-                  esql.executeQueryAndPrintResult(user_role);
-                  System.out.print("\n");
-                  esql.executeQueryAndPrintResult(user_games);
-                  System.out.print("\n");
-                  esql.executeQueryAndPrintResult(user_phone);
-                  System.out.print("\n");
-                  esql.executeQueryAndPrintResult(user_overdue);
+               User user = users.user(user_update);
+               if (user != null) { // if valid user found
+                  printUser(user);
 
                   System.out.print("\nWhat would you like to update? \n1. User's Role \n2. User's Number of Overdue Games \n");
 
+                  String field = null;
+                  Object value = null;
                   switch(readChoice()) {
                      case 1: System.out.print("\nUser's New Role: ");
-                     String role_update = in.readLine();
-                     String query1 = String.format("UPDATE Users SET role = '%s' WHERE login = '%s'", role_update, user_update);
-                     esql.executeUpdate(query1); break;
+                     field = "role"; value = in.readLine(); break;
 
                      case 2: System.out.print("\nUser's New Number of Overdue Games: ");
-                     String overdue_update = in.readLine();
-                     String query2 = String.format("UPDATE Users SET numOverDueGames = '%s' WHERE login = '%s'", overdue_update, user_update);
-                     esql.executeUpdate(query2); break;
+                     field = "numOverDueGames"; value = Integer.valueOf(in.readLine().trim()); break;
+                  }
+                  if (field == null) {
+                     continue;
+                  }
+                  // written only if nobody changed the user while this manager was typing
+                  try {
+                     esql.userService().updateUser(session, user_update, user.version, field, value);
+                     users.evictUser(user_update);
+                  } catch (ConcurrentUpdateException e) {
+                     // the version held here is stale either way
+                     users.evictUser(user_update);
+                     System.out.print("\n" + e.getMessage() + " Nothing was changed. The user now reads:\n");
+                     if (e.current() != null) {
+                        printUser((User) e.current());
+                     }
+                     continue;
                   }
 
                   System.out.print("\nProfile updated succesfully. Would you like to update again? \n1. Yes \n2. No\n");
@@ -877,30 +1206,78 @@
 
 
 
-    // helper functions
-
-   // check if user is manager
-    public static boolean isManager(GameRental esql, String user_login) {
-      try{
-         String query = String.format("SELECT * FROM Users WHERE login = '%s' AND role = 'manager'", user_login);
-         int user_isManager = esql.executeQuery(query);
-         if (user_isManager > 0) {
-            return true;
+   // manager dashboard, read from the trigger-maintained summary tables
+   public static void viewStatistics(GameRental esql, Session session) {
+      try {
+         StatsService stats = esql.statsService();
+         stats.refresh(session);
+
+         System.out.println("\nMost rented games:");
+         Renderer out = console();
+         out.start(new String[] { "gameid", "gamename", "rentals", "unitsrented", "revenue" });
+         for (StatsService.GameStat game : stats.topGames(session, 10)) {
+            out.cell(game.gameID);
+            out.cell(game.gameName);
+            out.cell(String.valueOf(game.rentals));
+            out.cell(String.valueOf(game.unitsRented));
+            out.cell(String.valueOf(game.revenue));
+            out.endRow();
          }
-         else {
-            return false;
+         out.finish();
+
+         System.out.println("\nRevenue by genre:");
+         out = console();
+         out.start(new String[] { "genre", "unitsrented", "revenue" });
+         for (StatsService.GenreStat genre : stats.genres(session)) {
+            out.cell(genre.genre);
+            out.cell(String.valueOf(genre.unitsRented));
+            out.cell(String.valueOf(genre.revenue));
+            out.endRow();
          }
+         out.finish();
+
+         System.out.println("\nTop spenders:");
+         printUserStats(stats.topSpenders(session, 10));
+
+         System.out.println("\nMost overdue users:");
+         printUserStats(stats.mostOverdue(session, 10));
+
+         System.out.println("\nLowest stock:");
+         out = console();
+         out.start(new String[] { "gameid", "gamename", "available", "reserved", "rented" });
+         for (StatsService.StockStat stock : stats.lowStock(session, 10)) {
+            out.cell(stock.gameID);
+            out.cell(stock.gameName);
+            out.cell(String.valueOf(stock.available));
+            out.cell(String.valueOf(stock.reserved));
+            out.cell(String.valueOf(stock.rented));
+            out.endRow();
+         }
+         out.finish();
 
-      } catch(Exception e){
-         System.err.println (e.getMessage ());
-         return false;
+      } catch (AccessDeniedException e) {
+         System.out.println("\n" + e.getMessage());
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      }
+   } // end viewStatistics
+
+   // games other users rented along with this user's rentals and favorites
+   public static void viewRecommendations(GameRental esql, String user_login) {
+      try {
+         System.out.println("\nRecommended for you:");
+         printGames(esql.recommendationService().recommendedFor(user_login, 10), true);
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
       }
-   } // end isManager
+   } // end viewRecommendations
+
+    // helper functions
 
    public static boolean isUser(GameRental esql, String user_login) {
       try{
-         String query = String.format("SELECT * FROM Users WHERE login = '%s'", user_login);
-         int is_user = esql.executeQuery(query);
+         String query = "SELECT COUNT(*) FROM Users WHERE login = ?";
+         int is_user = esql.executeQueryForInt(query, user_login);
          if (is_user > 0) {
             return true;
          }
@@ -913,29 +1290,12 @@
       }
    } // end isUser
 
-   public static boolean isEmployee(GameRental esql, String user_login) {
-      try {
-         String query = String.format("SELECT * FROM Users WHERE login = '%s' AND role = 'employee'", user_login);
-         int user_isEmployee = esql.executeQuery(query);
-         return user_isEmployee > 0;
-      } catch (Exception e) {
-         System.err.println(e.getMessage());
-         return false;
-      }
-   } // end check if the role is employee or not 
-
-   public static boolean isEmployeeOrManager(GameRental esql, String user_login) {
-      return isManager(esql, user_login) || isEmployee(esql, user_login);
-   }
-   // a helpler combining both isEmployee or manager. 
-
    // filter by maximum price
    private static void filterByPrice (GameRental esql) {
       try {
          System.out.print("Enter Maximum Price: ");
          String price = in.readLine(); 
-         String query = String.format ("SELECT gameID, gameName,genre, price, description, imageURL FROM CATALOG WHERE price <= %s", price);
-         esql.executeQueryAndPrintResult(query);
+         printGames(esql.catalogService().priceRange(null, new BigDecimal(price.trim())), true);
 
       }
       catch (Exception e){
@@ -943,14 +1303,16 @@
       }
    } // end filterByPrice
 
-   // filter games either by ascending or descending 
+   // filter games either by ascending or descending, one page at a time
    private static void sortByPrice(GameRental esql, boolean ascending) {
       try {
-            String query = "SELECT gameID, gameName, genre, price, description, imageURL FROM Catalog ORDER BY price";
-            if (!ascending) {
-                 query += " DESC";
+             CatalogCache.Rows page = esql.catalogService().pricePage(ascending, null, null, PAGE_SIZE);
+             printGames(page, true);
+             while (page.size() == PAGE_SIZE && morePages()) {
+                int last = page.size() - 1;
+                page = esql.catalogService().pricePage(ascending, page.price(last), page.gameID(last), PAGE_SIZE);
+                printGames(page, true);
              }
-             esql.executeQueryAndPrintResult(query);
          } catch (Exception e) {
              System.err.println(e.getMessage());
          }
@@ -959,8 +1321,7 @@
    // displays all games in catalog 
    private static void viewAllGames (GameRental esql){
       try{
-         String query = "SELECT gameID, gameName, genre, price, description, imageURL FROM Catalog";
-         esql.executeQueryAndPrintResult(query);
+         printGames(esql.catalogService().allGames(), true);
       }
       catch (Exception e) {
          System.err.println (e.getMessage ());
@@ -972,8 +1333,7 @@
       try {
          System.out.print("Enter the genre you are looking: ");
          String genre = in.readLine();
-         String query = String.format("SELECT gameID, gameName, genre, description, imageURL FROM Catalog WHERE genre = '%s'", genre);
-         esql.executeQueryAndPrintResult(query);
+         printGames(esql.catalogService().byGenre(genre), false);
          
       }
       catch (Exception e) {
@@ -981,64 +1341,132 @@
       }
    } // end filterbygenre
 
-   // timestamp fxn
-   private static Timestamp getCurrentTimestamp() {
-      LocalDateTime now = LocalDateTime.now();
-      return Timestamp.valueOf(now);
-  } // end timestamp
-
-   private static String generateUniqueRental (GameRental esql) {
-      Random random = new Random(); 
-      String rentalOrderID;  
-      boolean isUnique = false;
-   
-      do {
-         int randomDigits = 1000 + random.nextInt(9000); //used stack overflow
-         rentalOrderID = "gamerentalorder" + randomDigits; 
-   
-         String query = String.format("SELECT COUNT(*) FROM RentalOrder WHERE rentalOrderID = '%s'", rentalOrderID);
-    
-         try {
-            List<List<String>> result = esql.executeQueryAndReturnResult(query);
-            isUnique = result.get(0).get(0).equals("0"); //stack overflow
-         
+   // ranked search over game names and descriptions; any word may be cut short
+   private static void searchCatalog (GameRental esql) {
+      try {
+         System.out.print("Search for: ");
+         String query = in.readLine();
+         if (printGames(esql.catalogService().search(query, PAGE_SIZE), true) == 0) {
+            System.out.println("No games match \"" + query.trim() + "\"");
          }
-         catch (Exception e) {
-            System.err.println(e.getMessage()); 
-      
+      }
+      catch (Exception e) {
+         System.err.println (e.getMessage());
+      }
+   } // end searchCatalog
+
+   // a renderer for one result printed to the console, in OUTPUT_FORMAT
+   static Renderer console () {
+      return Renderer.create(OUTPUT_FORMAT, CONSOLE);
+   } // end console
+
+   // prints cached catalog rows like executeQueryAndPrintResult would
+   private static int printGames (CatalogCache.Rows games, boolean withPrice) throws IOException {
+      Renderer out = console();
+      if (games.size() > 0) {
+         out.start(withPrice ? new String[] { "gameid", "gamename", "genre", "price", "description", "imageurl" }
+                             : new String[] { "gameid", "gamename", "genre", "description", "imageurl" });
+      }
+      for (int i = 0; i < games.size(); ++i) {
+         out.cell(games.gameID(i));
+         out.cell(games.gameName(i));
+         out.cell(games.genre(i));
+         if (withPrice) {
+            out.cell(games.price(i).toString());
          }
-    
+         out.cell(games.description(i));
+         out.cell(games.imageURL(i));
+         out.endRow();
       }
-      while (!isUnique) ; 
-      return rentalOrderID;   
-   } //generate uniqueRental
-
-   //generate unique tracking id 
-   private static String generateUniquetrackingID (GameRental esql) {
-      Random random = new Random(); 
-      String trackingID; 
-      boolean isUnique = false; 
-      do { 
-         int randomDigits = 1000 + random.nextInt(9000); 
-         trackingID = "trackingid" + randomDigits; 
+      return out.finish();
+   } // end printGames
+
+   // prints order lines like executeQueryAndPrintResult would
+   private static void printOrderLines (List<OrderLine> lines) throws IOException {
+      Renderer out = console();
+      if (!lines.isEmpty()) {
+         out.start(new String[] { "rentalorderid", "gamename", "ordertimestamp", "duedate" });
+      }
+      for (OrderLine line : lines) {
+         out.cell(line.rentalOrderID);
+         out.cell(line.gameName);
+         out.cell(String.valueOf(line.orderTimestamp));
+         out.cell(String.valueOf(line.dueDate));
+         out.endRow();
+      }
+      out.finish();
+   } // end printOrderLines
+
+   private static void printUserStats (List<StatsService.UserStat> users) throws IOException {
+      Renderer out = console();
+      out.start(new String[] { "login", "orders", "gamesrented", "totalspent", "numoverduegames" });
+      for (StatsService.UserStat user : users) {
+         out.cell(user.login);
+         out.cell(String.valueOf(user.orders));
+         out.cell(String.valueOf(user.gamesRented));
+         out.cell(String.valueOf(user.totalSpent));
+         out.cell(String.valueOf(user.numOverDueGames));
+         out.endRow();
+      }
+      out.finish();
+   } // end printUserStats
+
+   // prints the editable view of a game, a field at a time
+   private static void printGame (Game game) throws IOException {
+      System.out.print("\n");
+      printRow(new String[] { "gamename" }, game.gameName);
+      System.out.print("\n");
+      printRow(new String[] { "genre" }, game.genre);
+      System.out.print("\n");
+      printRow(new String[] { "price" }, game.price);
+      System.out.print("\n");
+      printRow(new String[] { "description" }, game.description);
+      System.out.print("\n");
+      printRow(new String[] { "imageurl" }, game.imageURL);
+   } // end printGame
+
+   // prints the editable view of a user, a field at a time
+   private static void printUser (User user) throws IOException {
+      System.out.print("\n");
+      printRow(new String[] { "login" }, user.login);
+      System.out.print("\n");
+      printRow(new String[] { "password" }, user.password);
+      System.out.print("\n");
+      printRow(new String[] { "role" }, user.role);
+      System.out.print("\n");
+      printRow(new String[] { "favgames" }, user.favGames);
+      System.out.print("\n");
+      printRow(new String[] { "phonenum" }, user.phoneNum);
+      System.out.print("\n");
+      printRow(new String[] { "numoverduegames" }, user.numOverDueGames);
+   } // end printUser
+
+   // prints a single row with the given column names
+   private static void printRow (String[] columns, Object... values) throws IOException {
+      Renderer out = console();
+      out.start(columns);
+      for (Object value : values) {
+         out.cell(value == null ? null : value.toString());
+      }
+      out.endRow();
+      out.finish();
+   } // end printRow
 
-         String query = String.format("SELECT COUNT(*) FROM TrackingInfo WHERE trackingID = '%s'", trackingID); 
+   // asks whether to show the next page of a paged view
+   private static boolean morePages() throws IOException {
+      System.out.print("-- Press Enter for the next page, or q to stop: ");
+      String answer = in.readLine();
+      return answer != null && !answer.trim().equalsIgnoreCase("q");
+   } // end morePages
 
-         try { 
-                  List<List<String>> result = esql.executeQueryAndReturnResult(query); 
-                  isUnique = result.get(0).get(0).equals("0"); 
-         }
-         catch (Exception e) {
-            System.err.println(e.getMessage()); 
-
-         }
-      }
-      while (!isUnique); 
-      return trackingID;  
-   } // end generateUniquetrackingID
+   // timestamp fxn
+   static Timestamp getCurrentTimestamp() {
+      LocalDateTime now = LocalDateTime.now();
+      return Timestamp.valueOf(now);
+  } // end timestamp
 
    // generate random due date
-   private static Timestamp generateRandomDueDate() {
+   static Timestamp generateRandomDueDate() {
       
       Random random = new Random(); 
          
@@ -0,0 +1,958 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Micro benchmarks for the GameRental data access paths.
+ *
+ *    java -cp classes:lib/pg73jdbc3.jar GameRentalBench <benchmark> [arguments]
+ *
+ * Benchmarks that need a loaded database:
+ *    roundtrip <dbname> <port> <user> [iterations]
+ *               latency of one login lookup through a fresh Statement with
+ *               string-built SQL versus a cached PreparedStatement from the
+ *               connection pool
+ *    orders <dbname> <port> <user> [ordersPerCartSize]
+ *               orders per second placed through OrderBuilder with 1, 10
+ *               and 100 games per cart; the games are given enough extra
+ *               copies first, and the orders are left in the database
+ *    rowalloc <dbname> <port> <user> [iterations]
+ *               bytes allocated per RentalOrder row by the List<List<String>>
+ *               result path versus the typed RowMapper path
+ *    mix <dbname> <port> <user> [operations] [threads]
+ *               the GameRental read mix, called through the services (login,
+ *               recent orders, order history, order info, tracking info,
+ *               genre filter), against
+ *               whatever data is loaded, e.g. a DataGenerator data set;
+ *               reports p50/p99 per operation.  Run with -Dpool.size equal
+ *               to the thread count; -Dbench.metrics=true also prints the
+ *               round trips and SQL timings from Metrics.
+ *    catalog <dbname> <port> <user> [iterations]
+ *               latency of the catalog views (lookup by gameID, genre, price
+ *               range, sorted listing) through SQL versus CatalogCache
+ *    contention <dbname> <port> <user> [editors] [editsPerEditor] [hotGames]
+ *               many managers editing a few hot games at once through the
+ *               compare-and-set CatalogService.updateGame: each editor
+ *               reads a game, thinks for up to -Dbench.think.ms (default
+ *               2) and writes it back, starting over on a conflict.  Reports
+ *               edits/s, conflicts per edit and write latency, and checks
+ *               that no edit was lost.  Run with -Dpool.size at least the
+ *               editor count; the games keep their values
+ *    checkout <dbname> <port> <user> [threads] [copies] [stripes]
+ *               many customers ordering one copy each of the same hot
+ *               game, stocked with copies (default 5000) on one Inventory
+ *               stripe and then on stripes (default 8): 10% more orders
+ *               than copies are placed, so the game sells out.  Reports
+ *               orders/s and order latency, and checks that exactly copies
+ *               were sold.  Run with -Dpool.size at least the thread count;
+ *               the orders are left in the database and the game keeps
+ *               the stock of the last run
+ *    replicas <dbname> <port> <user> [orders] [threads]
+ *               read-your-writes through ReplicaRouter: each thread, as its
+ *               own user, places a one-game order and at once reads its
+ *               recent orders and first history page, which must show the
+ *               new order.  Reports orders/s, read latency, how many reads
+ *               missed the order and where the reads went.  Run with
+ *               -Dreplicas naming a standby of the database and
+ *               -Dpool.size at least the thread count; the orders are left
+ *               in the database
+ *    tracking <dbname> <port> <user> [events] [batch]
+ *               courier scan events per second appended to the tracking
+ *               log one at a time and in batches, in bursts on 100 tracking
+ *               IDs; the events are left in the database
+ *
+ * Benchmarks that run in memory:
+ *    ids [threads] [idsPerThread]
+ *               IdAllocator throughput from many threads, checking that no
+ *               ID is handed out twice
+ *    render [rows]
+ *               rows per second rendered as table, tsv and json to a null
+ *               sink and to a file, next to the old print-per-cell loop
+ *    search [queries] [sizes]
+ *               SearchIndex build time and queries per second on generated
+ *               catalogs of each size (default 500,50000,5000000), next to
+ *               a case-insensitive substring scan like LIKE '%...%'.  The
+ *               5M catalog needs about -Xmx4g.
+ *    recommend [users] [games] [gamesPerUser]
+ *               Recommender build time, then the latency of recording an
+ *               order and of a top 10 recommendation, on generated rental
+ *               histories (default 100000 users, 500 games, 8 each)
+ *
+ */
+public class GameRentalBench {
+
+   // iterations run before measuring, so the JIT and server caches are warm
+   private static final int WARMUP = 1000;
+
+   public static void main (String[] args) {
+      if (args.length < 1) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            GameRentalBench.class.getName () +
+            " <benchmark> [arguments]");
+         return;
+      }//end if
+
+      try {
+         String benchmark = args[0];
+         if (benchmark.equals("roundtrip")) {
+            GameRental esql = connect(args);
+            try {
+               roundTrip(esql, "jdbc:postgresql://localhost:" + args[2] + "/" + args[1], args[3],
+                  intArg(args, 4, 10000));
+            } finally {
+               esql.cleanup ();
+            }
+         }
+         else if (benchmark.equals("orders")) {
+            GameRental esql = connect(args);
+            try {
+               orders(esql, intArg(args, 4, 200));
+            } finally {
+               esql.cleanup ();
+            }
+         }
+         else if (benchmark.equals("rowalloc")) {
+            GameRental esql = connect(args);
+            try {
+               rowAlloc(esql, intArg(args, 4, 50));
+            } finally {
+               esql.cleanup ();
+            }
+         }
+         else if (benchmark.equals("mix")) {
+            GameRental esql = connect(args);
+            try {
+               mix(esql, intArg(args, 4, 20000), intArg(args, 5, GameRental.POOL_SIZE));
+            } finally {
+               esql.cleanup ();
+            }
+         }
+         else if (benchmark.equals("catalog")) {
+            GameRental esql = connect(args);
+            try {
+               catalog(esql, intArg(args, 4, 2000));
+            } finally {
+               esql.cleanup ();
+            }
+         }
+         else if (benchmark.equals("contention")) {
+            GameRental esql = connect(args);
+            try {
+               contention(esql, intArg(args, 4, GameRental.POOL_SIZE), intArg(args, 5, 200), intArg(args, 6, 4));
+            } finally {
+               esql.cleanup ();
+            }
+         }
+         else if (benchmark.equals("checkout")) {
+            GameRental esql = connect(args);
+            try {
+               int copies = intArg(args, 5, 5000);
+               checkout(esql, intArg(args, 4, GameRental.POOL_SIZE), copies, 1);
+               checkout(esql, intArg(args, 4, GameRental.POOL_SIZE), copies, intArg(args, 6, 8));
+            } finally {
+               esql.cleanup ();
+            }
+         }
+         else if (benchmark.equals("replicas")) {
+            GameRental esql = connect(args);
+            try {
+               replicas(esql, intArg(args, 4, 2000), intArg(args, 5, GameRental.POOL_SIZE));
+            } finally {
+               esql.cleanup ();
+            }
+         }
+         else if (benchmark.equals("tracking")) {
+            GameRental esql = connect(args);
+            try {
+               tracking(esql, intArg(args, 4, 20000), intArg(args, 5, 500));
+            } finally {
+               esql.cleanup ();
+            }
+         }
+         else if (benchmark.equals("ids")) {
+            ids(intArg(args, 1, 8), intArg(args, 2, 500000));
+         }
+         else if (benchmark.equals("render")) {
+            render(intArg(args, 1, 1000000));
+         }
+         else if (benchmark.equals("recommend")) {
+            recommend(intArg(args, 1, 100000), intArg(args, 2, 500), intArg(args, 3, 8));
+         }
+         else if (benchmark.equals("search")) {
+            String sizes = args.length > 2 ? args[2] : "500,50000,5000000";
+            for (String size : sizes.split(",")) {
+               search(Integer.parseInt(size.trim()), intArg(args, 1, 20000));
+            }
+         }
+         else {
+            System.err.println("Unknown benchmark: " + benchmark);
+         }
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+
+   // opens the database named by args[1..3]: <dbname> <port> <user>
+   private static GameRental connect(String[] args) throws Exception {
+      if (args.length < 4) {
+         throw new IllegalArgumentException(args[0] + " needs <dbname> <port> <user>");
+      }
+      Class.forName ("org.postgresql.Driver").newInstance ();
+      return new GameRental (args[1], args[2], args[3], "");
+   }//end connect
+
+   private static int intArg(String[] args, int index, int defaultValue) {
+      return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+   }
+
+   // compares the old Statement-per-call path with the pooled prepared path
+   private static void roundTrip(GameRental esql, String url, String user, int iterations) throws SQLException {
+      String login = firstLogin(esql);
+      Connection conn = DriverManager.getConnection(url, user, "");
+      try {
+         long[] legacy = new long[iterations];
+         for (int i = -WARMUP; i < iterations; ++i) {
+            long start = System.nanoTime();
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery(String.format("SELECT * FROM Users WHERE login = '%s';", login));
+            while (rs.next()) { }
+            stmt.close();
+            if (i >= 0) legacy[i] = System.nanoTime() - start;
+         }
+         report("statement per call", legacy);
+      } finally {
+         conn.close();
+      }
+
+      long[] pooled = new long[iterations];
+      for (int i = -WARMUP; i < iterations; ++i) {
+         long start = System.nanoTime();
+         esql.executeQuery("SELECT * FROM Users WHERE login = ?", login);
+         if (i >= 0) pooled[i] = System.nanoTime() - start;
+      }
+      report("pooled prepared", pooled);
+   }//end roundTrip
+
+   private static String firstLogin(GameRental esql) throws SQLException {
+      return esql.executeQueryForObject("SELECT login FROM Users ORDER BY login LIMIT 1", RowMapper.STRING);
+   }
+
+   // places the same number of orders at each cart size
+   private static void orders(GameRental esql, int count) throws SQLException {
+      String login = firstLogin(esql);
+      List<String> games = esql.executeQueryForList("SELECT gameID FROM Catalog ORDER BY gameID LIMIT 100", RowMapper.STRING);
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      Timestamp due = new Timestamp(now.getTime() + 14L * 24 * 3600 * 1000);
+      int[] cartSizes = { 1, 10, 100 };
+      // every stripe gets the most copies one game can be ordered, so no order runs short
+      esql.executeUpdate("UPDATE Inventory SET available = available + ? " +
+         "WHERE gameID IN (SELECT gameID FROM Catalog ORDER BY gameID LIMIT 100)", (count + count / 10) * cartSizes.length);
+      for (int size : cartSizes) {
+         if (size > games.size()) {
+            System.out.println("orders cart=" + size + " skipped, catalog has " + games.size() + " games");
+            continue;
+         }
+         long start = 0;
+         for (int i = -count / 10; i < count; ++i) {
+            if (i == 0) start = System.nanoTime();
+            OrderBuilder order = new OrderBuilder();
+            for (int g = 0; g < size; ++g) {
+               order.add(games.get(g), 1);
+            }
+            order.place(esql, login, now, due);
+         }
+         long elapsed = System.nanoTime() - start;
+         System.out.printf("orders cart=%-3d n=%d %.1f orders/s %.0f lines/s%n",
+            size, count, count / (elapsed / 1e9), (double) count * size / (elapsed / 1e9));
+      }
+   }//end orders
+
+   private static void contention(final GameRental esql, int editors, final int edits, int hotGames) throws Exception {
+      String manager = esql.executeQueryForObject(
+         "SELECT login FROM Users WHERE role = 'manager' ORDER BY login LIMIT 1", RowMapper.STRING);
+      if (manager == null) {
+         System.out.println("contention skipped, no manager in Users");
+         return;
+      }
+      final Session session = new Session(manager, esql.roles());
+      final List<String> games = esql.executeQueryForList(
+         "SELECT gameID FROM Catalog ORDER BY gameID LIMIT ?", RowMapper.STRING, hotGames);
+      final int thinkMs = Integer.getInteger("bench.think.ms", 2);
+      long versionsBefore = esql.executeQueryForLong(
+         "SELECT SUM(version) FROM Catalog WHERE gameID IN (SELECT gameID FROM Catalog ORDER BY gameID LIMIT ?)", hotGames);
+
+      final LatencyHistogram writes = new LatencyHistogram();
+      final AtomicLong conflicts = new AtomicLong();
+      final Exception[] failure = new Exception[1];
+      Thread[] workers = new Thread[editors];
+      for (int t = 0; t < editors; ++t) {
+         final Random random = new Random(t);
+         workers[t] = new Thread() {
+            public void run() {
+               try {
+                  for (int i = 0; i < edits; ++i) {
+                     String gameID = games.get(random.nextInt(games.size()));
+                     while (true) {
+                        // a new screen: read, think, write back the genre it shows
+                        Game game = new IdentityMap(esql).game(gameID);
+                        if (thinkMs > 0) Thread.sleep(random.nextInt(thinkMs + 1));
+                        long start = System.nanoTime();
+                        try {
+                           esql.catalogService().updateGame(session, gameID, game.version, "genre", game.genre);
+                           writes.record(System.nanoTime() - start);
+                           break;
+                        } catch (ConcurrentUpdateException e) {
+                           writes.record(System.nanoTime() - start);
+                           conflicts.incrementAndGet();
+                        }
+                     }
+                  }
+               } catch (Exception e) {
+                  synchronized (failure) {
+                     if (failure[0] == null) failure[0] = e;
+                  }
+               }
+            }
+         };
+      }
+      long start = System.nanoTime();
+      for (Thread w : workers) w.start();
+      for (Thread w : workers) w.join();
+      long elapsed = System.nanoTime() - start;
+      if (failure[0] != null) {
+         throw failure[0];
+      }
+
+      long committed = (long) editors * edits;
+      long versionsAfter = esql.executeQueryForLong(
+         "SELECT SUM(version) FROM Catalog WHERE gameID IN (SELECT gameID FROM Catalog ORDER BY gameID LIMIT ?)", hotGames);
+      System.out.printf("contention editors=%d games=%d %.0f edits/s, %.2f conflicts per edit, write %s%n",
+         editors, games.size(), committed / (elapsed / 1e9), (double) conflicts.get() / committed, writes.summary());
+      System.out.printf("edits committed %d, versions added %d: %s%n", committed, versionsAfter - versionsBefore,
+         committed == versionsAfter - versionsBefore ? "no edit lost" : "EDITS LOST");
+   }//end contention
+
+   // orders one copy at a time of a game with copies on stripes, from many threads, until it sells out
+   private static void checkout(final GameRental esql, int threads, int copies, int stripes) throws Exception {
+      final String login = firstLogin(esql);
+      String gameID = esql.executeQueryForObject("SELECT gameID FROM Catalog ORDER BY gameID LIMIT 1", RowMapper.STRING);
+      if (login == null || gameID == null) {
+         System.out.println("checkout skipped, no users or games");
+         return;
+      }
+      esql.executeQuery("SELECT set_inventory(?, ?, ?)", gameID, copies, stripes);
+      final String hot = gameID;
+      final Timestamp now = new Timestamp(System.currentTimeMillis());
+      final Timestamp due = new Timestamp(now.getTime() + 14L * 24 * 3600 * 1000);
+      final AtomicLong remaining = new AtomicLong(copies + copies / 10);
+      final AtomicLong sold = new AtomicLong();
+      final AtomicLong outOfStock = new AtomicLong();
+      final LatencyHistogram latency = new LatencyHistogram();
+      final Exception[] failure = new Exception[1];
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; ++t) {
+         workers[t] = new Thread() {
+            public void run() {
+               try {
+                  while (remaining.getAndDecrement() > 0) {
+                     long start = System.nanoTime();
+                     try {
+                        new OrderBuilder().add(hot, 1).place(esql, login, now, due);
+                        sold.incrementAndGet();
+                     } catch (OutOfStockException e) {
+                        outOfStock.incrementAndGet();
+                     }
+                     latency.record(System.nanoTime() - start);
+                  }
+               } catch (Exception e) {
+                  synchronized (failure) {
+                     if (failure[0] == null) failure[0] = e;
+                  }
+               }
+            }
+         };
+      }
+      long start = System.nanoTime();
+      for (Thread w : workers) w.start();
+      for (Thread w : workers) w.join();
+      long elapsed = System.nanoTime() - start;
+      if (failure[0] != null) {
+         throw failure[0];
+      }
+
+      long available = esql.executeQueryForLong("SELECT available FROM InventoryTotals WHERE gameID = ?", hot);
+      long reserved = esql.executeQueryForLong("SELECT reserved FROM InventoryTotals WHERE gameID = ?", hot);
+      long orders = sold.get() + outOfStock.get();
+      System.out.printf("checkout threads=%d stripes=%d %.0f orders/s, order %s%n",
+         threads, stripes, orders / (elapsed / 1e9), latency.summary());
+      System.out.printf("copies %d, sold %d, out of stock %d, left %d, reserved %d: %s%n",
+         copies, sold.get(), outOfStock.get(), available, reserved,
+         sold.get() == copies && available == 0 && reserved == copies ? "stock consistent" : "STOCK INCONSISTENT");
+   }//end checkout
+
+   // orders from several users, each read back at once through the replica routes
+   private static void replicas(final GameRental esql, int count, int threads) throws Exception {
+      if (!esql.router().hasReplicas()) {
+         System.out.println("replicas skipped, -Dreplicas names no replica");
+         return;
+      }
+      final List<String> logins = esql.executeQueryForList(
+         "SELECT login FROM Users ORDER BY login LIMIT ?", RowMapper.STRING, threads);
+      final String gameID = esql.executeQueryForObject("SELECT gameID FROM Catalog ORDER BY gameID LIMIT 1", RowMapper.STRING);
+      if (logins.size() < threads || gameID == null) {
+         System.out.println("replicas skipped, needs " + threads + " users and a game");
+         return;
+      }
+      esql.executeUpdate("UPDATE Inventory SET available = available + ? WHERE gameID = ?", count, gameID);
+      final OrderService orders = esql.orderService();
+      final int perThread = count / threads;
+      final LatencyHistogram reads = new LatencyHistogram();
+      final AtomicLong missed = new AtomicLong();
+      final Exception[] failure = new Exception[1];
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; ++t) {
+         final String login = logins.get(t);
+         workers[t] = new Thread() {
+            public void run() {
+               try {
+                  for (int i = 0; i < perThread; ++i) {
+                     String orderID = orders.placeOrder(login, new OrderBuilder().add(gameID, 1)).rentalOrderID;
+                     long start = System.nanoTime();
+                     if (!contains(orders.recentOrders(login), orderID)) missed.incrementAndGet();
+                     if (!contains(orders.historyPage(login, null, null, 5).lines, orderID)) missed.incrementAndGet();
+                     reads.record((System.nanoTime() - start) / 2);
+                  }
+               } catch (Exception e) {
+                  synchronized (failure) {
+                     if (failure[0] == null) failure[0] = e;
+                  }
+               }
+            }
+         };
+      }
+      long start = System.nanoTime();
+      for (Thread w : workers) w.start();
+      for (Thread w : workers) w.join();
+      long elapsed = System.nanoTime() - start;
+      if (failure[0] != null) {
+         throw failure[0];
+      }
+      long placed = (long) perThread * threads;
+      System.out.printf("replicas threads=%d %.0f orders/s, read %s%n", threads, placed / (elapsed / 1e9), reads.summary());
+      System.out.printf("reads %d, missing the user's new order %d: %s%n", 2 * placed, missed.get(),
+         missed.get() == 0 ? "read-your-writes held" : "STALE READS");
+      System.out.println(esql.router());
+   }//end replicas
+
+   private static boolean contains(List<OrderLine> lines, String rentalOrderID) {
+      for (OrderLine line : lines) {
+         if (line.rentalOrderID.equals(rentalOrderID)) return true;
+      }
+      return false;
+   }
+
+   private static void tracking(GameRental esql, int count, int batch) throws SQLException {
+      List<String> trackingIDs = esql.executeQueryForList(
+         "SELECT trackingID FROM TrackingInfo ORDER BY trackingID LIMIT 100", RowMapper.STRING);
+      if (trackingIDs.isEmpty()) {
+         System.out.println("tracking skipped, no TrackingInfo rows");
+         return;
+      }
+      TrackingLog log = esql.trackingLog();
+      String[] statuses = { "In Transit", "Out for Delivery", "Arrived at Facility", "Delivered" };
+      Random random = new Random(42);
+      long time = System.currentTimeMillis();
+      for (int mode = 0; mode < 2; ++mode) {
+         int size = mode == 0 ? 1 : batch;
+         List<TrackingEvent> events = new ArrayList<TrackingEvent>(size);
+         TrackingLog.Result last = null;
+         long start = 0;
+         for (int i = -count / 10; i < count; ++i) {
+            if (i == 0) start = System.nanoTime();
+            // bursts: runs of scans of the same parcel, some out of order
+            String trackingID = trackingIDs.get((i / 8 & Integer.MAX_VALUE) % trackingIDs.size());
+            time += random.nextInt(1000) - 100;
+            events.add(new TrackingEvent(trackingID, null, statuses[random.nextInt(statuses.length)],
+               "Hub " + random.nextInt(50), "BenchCourier", new Timestamp(time), ""));
+            if (events.size() == size) {
+               if (size == 1) {
+                  log.append(events.get(0), "bench");
+               } else {
+                  last = log.appendAll(events, "bench");
+               }
+               events.clear();
+            }
+         }
+         if (!events.isEmpty()) {
+            last = log.appendAll(events, "bench");
+         }
+         long elapsed = System.nanoTime() - start;
+         System.out.printf("tracking batch=%-5d n=%d %.0f events/s%s%n", size, count, count / (elapsed / 1e9),
+            last == null ? "" : " (last batch: " + last + ")");
+      }
+   }//end tracking
+
+   // measures heap allocated by this thread per row for both result paths
+   private static void rowAlloc(GameRental esql, int iterations) throws SQLException {
+      com.sun.management.ThreadMXBean threads =
+         (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+      long thread = Thread.currentThread().getId();
+      String query = "SELECT " + RentalOrder.COLUMNS + " FROM RentalOrder";
+      String[] names = { "List<List<String>>", "RowMapper<RentalOrder>" };
+      for (int path = 0; path < names.length; ++path) {
+         long rows = 0;
+         long bytes = 0;
+         for (int i = -iterations / 5; i < iterations; ++i) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            int n;
+            if (path == 0) {
+               List<List<String>> result = esql.executeQueryAndReturnResult(query);
+               long noOfGames = 0;
+               for (List<String> r : result) noOfGames += Integer.parseInt(r.get(2));
+               consume(noOfGames);
+               n = result.size();
+            } else {
+               List<RentalOrder> result = esql.executeQueryForList(query, RentalOrder.MAPPER);
+               long noOfGames = 0;
+               for (RentalOrder r : result) noOfGames += r.noOfGames;
+               consume(noOfGames);
+               n = result.size();
+            }
+            if (i >= 0) {
+               bytes += threads.getThreadAllocatedBytes(thread) - before;
+               rows += n;
+            }
+         }
+         System.out.printf("%-24s rows=%d %.0f bytes/row%n", names[path], rows, (double) bytes / Math.max(1, rows));
+      }
+      long before = threads.getThreadAllocatedBytes(thread);
+      for (int i = 0; i < iterations; ++i) {
+         consume(esql.executeQueryForLong("SELECT COUNT(*) FROM RentalOrder"));
+      }
+      System.out.printf("%-24s %.0f bytes/query%n", "executeQueryForLong",
+         (double) (threads.getThreadAllocatedBytes(thread) - before) / iterations);
+   }//end rowAlloc
+
+   // operations of the query mix and how many in 100 picks run each
+   private static final String[] MIX_NAMES = {
+      "login", "recent orders", "history page", "history all", "order info", "tracking info", "genre filter" };
+   private static final int[] MIX_WEIGHTS = { 20, 25, 10, 5, 15, 15, 10 };
+
+   // runs the read mix from several threads against sampled orders
+   private static void mix(final GameRental esql, int operations, int threads) throws Exception {
+      final List<String[]> sample = esql.executeQueryForList(
+         "SELECT ro.rentalOrderID, ro.login, ti.trackingID, u.password " +
+         "FROM RentalOrder ro JOIN TrackingInfo ti ON ti.rentalOrderID = ro.rentalOrderID " +
+         "JOIN Users u ON u.login = ro.login ORDER BY random() LIMIT 5000",
+         new RowMapper<String[]>() {
+            public String[] map(ResultSet rs) throws SQLException {
+               return new String[] { rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4) };
+            }
+         });
+      final List<String> genres = esql.executeQueryForList("SELECT DISTINCT genre FROM Catalog", RowMapper.STRING);
+      if (sample.isEmpty()) {
+         throw new SQLException("mix needs orders in the database");
+      }
+      final LatencyHistogram[] latency = new LatencyHistogram[MIX_NAMES.length];
+      for (int i = 0; i < latency.length; ++i) latency[i] = new LatencyHistogram();
+      final UserService users = esql.userService();
+      final OrderService orders = esql.orderService();
+      final TrackingService tracking = esql.trackingService();
+      final CatalogService catalog = esql.catalogService();
+      final Exception[] failure = new Exception[1];
+      final int perThread = operations / threads;
+
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; ++t) {
+         final Random random = new Random(t);
+         workers[t] = new Thread() {
+            public void run() {
+               try {
+                  for (int i = 0; i < perThread; ++i) {
+                     String[] order = sample.get(random.nextInt(sample.size()));
+                     int op = pick(random.nextInt(100));
+                     long start = System.nanoTime();
+                     switch (op) {
+                        case 0: users.logIn(order[1], order[3]); break;
+                        case 1: orders.recentOrders(order[1]); break;
+                        case 2: orders.historyPage(order[1], null, null, GameRental.PAGE_SIZE); break;
+                        case 3:
+                           OrderPage page = orders.historyPage(order[1], null, null, GameRental.PAGE_SIZE);
+                           while (page.hasMore) {
+                              page = orders.historyPage(order[1], page.lastTimestamp, page.lastOrderID, GameRental.PAGE_SIZE);
+                           }
+                           break;
+                        case 4: orders.orderInfo(new Session(order[1], esql.roles()), order[0]); break;
+                        case 5: tracking.tracking(new Session(order[1], esql.roles()), order[2], order[0]); break;
+                        default: catalog.byGenre(genres.get(random.nextInt(genres.size()))); break;
+                     }
+                     latency[op].record(System.nanoTime() - start);
+                  }
+               } catch (Exception e) {
+                  synchronized (failure) {
+                     if (failure[0] == null) failure[0] = e;
+                  }
+               }
+            }
+         };
+      }
+      long start = System.nanoTime();
+      for (Thread w : workers) w.start();
+      for (Thread w : workers) w.join();
+      long elapsed = System.nanoTime() - start;
+      if (failure[0] != null) {
+         throw failure[0];
+      }
+      LatencyHistogram all = new LatencyHistogram();
+      for (int i = 0; i < latency.length; ++i) {
+         System.out.printf("%-16s %s%n", MIX_NAMES[i], latency[i].summary());
+         all.add(latency[i]);
+      }
+      System.out.printf("%-16s %s%n", "all", all.summary());
+      System.out.printf("threads=%d %.0f ops/s%n", threads, all.count() / (elapsed / 1e9));
+      if (Boolean.getBoolean("bench.metrics")) {
+         esql.metrics().report(new PrintWriter(System.out), esql.pool());
+      }
+   }//end mix
+
+   // maps a number in 0..99 to an operation according to MIX_WEIGHTS
+   private static int pick(int roll) {
+      for (int i = 0; i < MIX_WEIGHTS.length; ++i) {
+         roll -= MIX_WEIGHTS[i];
+         if (roll < 0) return i;
+      }
+      return MIX_WEIGHTS.length - 1;
+   }//end pick
+
+   // runs each catalog view through SQL and through the cache, reading every field
+   private static void catalog(GameRental esql, int iterations) throws SQLException {
+      CatalogCache cache = esql.catalog();
+      String gameID = cache.all().gameID(0);
+      String genre = cache.all().genre(0);
+      BigDecimal low = new BigDecimal("20.00");
+      BigDecimal high = new BigDecimal("30.00");
+      String select = CatalogCache.SELECT_GAMES;
+
+      long[] sql = new long[iterations];
+      long[] cached = new long[iterations];
+      String[] names = { "by gameID", "by genre", "price range", "sorted by price" };
+      for (int view = 0; view < names.length; ++view) {
+         for (int i = -WARMUP; i < iterations; ++i) {
+            long start = System.nanoTime();
+            List<List<String>> rows;
+            switch (view) {
+               case 0: rows = esql.executeQueryAndReturnResult(select + " WHERE gameID = ?", gameID); break;
+               case 1: rows = esql.executeQueryAndReturnResult(select + " WHERE genre = ?", genre); break;
+               case 2: rows = esql.executeQueryAndReturnResult(select + " WHERE price >= ? AND price <= ? ORDER BY price", low, high); break;
+               default: rows = esql.executeQueryAndReturnResult(select + " ORDER BY price"); break;
+            }
+            consume(rows.size());
+            if (i >= 0) sql[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            CatalogCache.Rows games;
+            switch (view) {
+               case 0: games = cache.byId(gameID); break;
+               case 1: games = cache.byGenre(genre); break;
+               case 2: games = cache.priceRange(low, high); break;
+               default: games = cache.sortedByPrice(true); break;
+            }
+            for (int g = 0; g < games.size(); ++g) {
+               consume(games.gameID(g).length() + games.gameName(g).length() + games.price(g).scale());
+            }
+            if (i >= 0) cached[i] = System.nanoTime() - start;
+         }
+         report(names[view] + " sql", sql);
+         report(names[view] + " cache", cached);
+      }
+   }//end catalog
+
+   // keeps the JIT from discarding the work being measured
+   private static long sink;
+
+   private static void consume(long value) {
+      sink += value;
+   }
+
+   // allocates threads * perThread IDs concurrently and checks for duplicates
+   private static void ids(int threads, final int perThread) throws Exception {
+      final AtomicLong sequence = new AtomicLong(10000);
+      final IdAllocator allocator = new IdAllocator("gamerentalorder", IdAllocator.BLOCK_SIZE,
+         new IdAllocator.BlockSource() {
+            public long nextBlock() {
+               return sequence.getAndAdd(IdAllocator.BLOCK_SIZE);
+            }
+         });
+      final long[][] issued = new long[threads][perThread];
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; ++t) {
+         final long[] mine = issued[t];
+         workers[t] = new Thread() {
+            public void run() {
+               try {
+                  for (int i = 0; i < perThread; ++i) {
+                     mine[i] = allocator.nextValue();
+                  }
+               } catch (SQLException e) {
+                  throw new IllegalStateException(e);
+               }
+            }
+         };
+      }
+      long start = System.nanoTime();
+      for (Thread w : workers) w.start();
+      for (Thread w : workers) w.join();
+      long elapsed = System.nanoTime() - start;
+
+      long[] all = new long[threads * perThread];
+      for (int t = 0; t < threads; ++t) {
+         System.arraycopy(issued[t], 0, all, t * perThread, perThread);
+      }
+      Arrays.sort(all);
+      int duplicates = 0;
+      for (int i = 1; i < all.length; ++i) {
+         if (all[i] == all[i - 1]) ++duplicates;
+      }
+      System.out.printf("ids threads=%d total=%d %.0f ids/s blocks=%d duplicates=%d%n",
+         threads, all.length, all.length / (elapsed / 1e9),
+         (sequence.get() - 10000) / IdAllocator.BLOCK_SIZE, duplicates);
+      if (duplicates > 0) {
+         throw new IllegalStateException("IdAllocator handed out " + duplicates + " duplicate IDs");
+      }
+   }//end ids
+
+   // renders catalog-like rows in every format to a null sink and a file
+   private static void render(int rows) throws IOException {
+      String[] columns = { "gameid", "gamename", "genre", "price", "description", "imageurl" };
+      String[][] data = new String[1000][];
+      for (int i = 0; i < data.length; ++i) {
+         data[i] = new String[] { String.format("game%04d", i), "Game number " + i, "Genre " + (i % 12),
+            String.valueOf(10 + i % 50) + ".99", "A description of game " + i + " that runs to a few dozen characters",
+            "game" + i + ".jpg" };
+      }
+      File file = File.createTempFile("render", ".out");
+      file.deleteOnExit();
+      Writer nullWriter = new Writer() {
+         public void write(char[] buf, int off, int len) { }
+         public void flush() { }
+         public void close() { }
+      };
+      OutputStream nullStream = new OutputStream() {
+         public void write(int b) { }
+         public void write(byte[] buf, int off, int len) { }
+      };
+
+      for (String sink : new String[] { "null", "file" }) {
+         for (String format : new String[] { "tsv", "table", "json" }) {
+            long start = 0;
+            for (int pass = 0; pass < 2; ++pass) {
+               Writer out = sink.equals("null") ? nullWriter
+                  : new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+               int n = pass == 0 ? rows / 10 : rows;
+               start = System.nanoTime();
+               Renderer renderer = Renderer.create(format, out);
+               renderer.start(columns);
+               for (int i = 0; i < n; ++i) {
+                  String[] row = data[i % data.length];
+                  for (String cell : row) renderer.cell(cell);
+                  renderer.endRow();
+               }
+               renderer.finish();
+               out.close();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("render %-6s sink=%-4s %12.0f rows/s%n", format, sink, rows / seconds);
+         }
+
+         // the loop executeQueryAndPrintResult used: a print per cell on an autoflushing PrintStream
+         long start = 0;
+         for (int pass = 0; pass < 2; ++pass) {
+            PrintStream out = new PrintStream(sink.equals("null") ? nullStream : new FileOutputStream(file), true);
+            int n = pass == 0 ? rows / 10 : rows;
+            start = System.nanoTime();
+            for (int i = 0; i < n; ++i) {
+               String[] row = data[i % data.length];
+               for (String cell : row) out.print(cell + "\t");
+               out.println();
+            }
+            out.close();
+         }
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.printf("render %-6s sink=%-4s %12.0f rows/s%n", "legacy", sink, rows / seconds);
+      }
+   }//end render
+
+   // builds a SearchIndex over a generated catalog and times whole word,
+   // type-ahead prefix and two word queries against a substring scan
+   private static void search(int size, int queries) {
+      Random random = new Random(size);
+      String[] vocabulary = new String[5000];
+      String[] syllables = { "ka", "ri", "zel", "da", "mar", "io", "po", "ke", "mon", "so", "nic", "hal",
+                             "o", "me", "tro", "id", "fi", "na", "lo", "st", "ar", "cr", "aft", "ve" };
+      for (int i = 0; i < vocabulary.length; ++i) {
+         StringBuilder word = new StringBuilder();
+         for (int j = 2 + random.nextInt(3); j > 0; --j) {
+            word.append(syllables[random.nextInt(syllables.length)]);
+         }
+         vocabulary[i] = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+      }
+      String[] descriptions = new String[60];
+      String[] platforms = { "Wii", "DS", "PS2", "PS3", "PS4", "X360", "XOne", "GBA", "PC", "3DS" };
+      String[] publishers = { "Nintendo", "Activision", "Electronic Arts", "Sony", "Ubisoft", "THQ" };
+      for (int i = 0; i < descriptions.length; ++i) {
+         descriptions[i] = "Platform: " + platforms[i % platforms.length] + ";  Publisher: " + publishers[i / platforms.length];
+      }
+
+      // common words are used far more often than rare ones, as in real titles
+      String[] names = new String[size];
+      String[] descs = new String[size];
+      for (int i = 0; i < size; ++i) {
+         StringBuilder name = new StringBuilder();
+         for (int j = 1 + random.nextInt(4); j > 0; --j) {
+            double r = random.nextDouble();
+            if (name.length() > 0) name.append(' ');
+            name.append(vocabulary[(int) (vocabulary.length * r * r)]);
+         }
+         names[i] = name.toString();
+         descs[i] = descriptions[random.nextInt(descriptions.length)];
+      }
+
+      long start = System.nanoTime();
+      SearchIndex index = new SearchIndex(names, descs);
+      System.out.printf("search size=%d indexed %d words in %.0f ms%n",
+         size, index.terms(), (System.nanoTime() - start) / 1e6);
+
+      String[][] kinds = new String[3][queries];
+      for (int q = 0; q < queries; ++q) {
+         String[] words = SearchIndex.words(names[random.nextInt(size)]);
+         String word = words[random.nextInt(words.length)];
+         kinds[0][q] = word;
+         kinds[1][q] = word.substring(0, Math.min(3, word.length()));
+         kinds[2][q] = words.length > 1 ? words[0] + " " + words[1].substring(0, Math.min(3, words[1].length())) : word;
+      }
+      String[] kindNames = { "word", "prefix", "two words" };
+      long found = 0;
+      for (int k = 0; k < kinds.length; ++k) {
+         for (int q = 0; q < Math.min(WARMUP, queries); ++q) {
+            found += index.search(kinds[k][q], GameRental.PAGE_SIZE).length;
+         }
+         start = System.nanoTime();
+         for (int q = 0; q < queries; ++q) {
+            found += index.search(kinds[k][q], GameRental.PAGE_SIZE).length;
+         }
+         double indexed = queries / ((System.nanoTime() - start) / 1e9);
+
+         // the scan reads every row per query, so it runs fewer of them on big catalogs
+         int scans = Math.max(10, Math.min(queries, (int) (5000000L / size)));
+         start = System.nanoTime();
+         for (int q = 0; q < scans; ++q) {
+            found += scan(names, descs, SearchIndex.words(kinds[k][q]), GameRental.PAGE_SIZE);
+         }
+         double scanned = scans / ((System.nanoTime() - start) / 1e9);
+         System.out.printf("search size=%-8d %-10s index %10.0f q/s   scan %10.1f q/s%n",
+            size, kindNames[k], indexed, scanned);
+      }
+      consume(found);
+   }//end search
+
+   // rows whose name or description contains every word, ignoring case, up to limit
+   private static int scan(String[] names, String[] descs, String[] words, int limit) {
+      int found = 0;
+      for (int i = 0; i < names.length && found < limit; ++i) {
+         boolean all = true;
+         for (String word : words) {
+            if (!containsIgnoreCase(names[i], word) && !containsIgnoreCase(descs[i], word)) {
+               all = false;
+               break;
+            }
+         }
+         if (all) ++found;
+      }
+      return found;
+   }//end scan
+
+   private static boolean containsIgnoreCase(String text, String word) {
+      for (int i = 0; i + word.length() <= text.length(); ++i) {
+         if (text.regionMatches(true, i, word, 0, word.length())) return true;
+      }
+      return false;
+   }
+
+   // users mostly rent within one of a few dozen groups of related games
+   private static void recommend(int users, int games, int perUser) {
+      Random random = new Random(users);
+      int groups = Math.max(1, games / 20);
+      Recommender recommender = new Recommender();
+      long start = System.nanoTime();
+      for (int u = 0; u < users; ++u) {
+         int group = random.nextInt(groups);
+         List<String> rented = new ArrayList<String>();
+         for (int i = random.nextInt(perUser * 2) + 1; i > 0; --i) {
+            int game = random.nextInt(4) == 0 ? random.nextInt(games) : (group * 20 + random.nextInt(20)) % games;
+            rented.add(String.format("game%04d", game));
+         }
+         recommender.rented("user" + u, rented);
+         if (random.nextInt(2) == 0) {
+            recommender.favorites("user" + u, Arrays.asList(String.format("game%04d", random.nextInt(games))));
+         }
+      }
+      System.out.printf("recommend built %s in %.0f ms%n", recommender, (System.nanoTime() - start) / 1e6);
+
+      int iterations = 100000;
+      long[] nanos = new long[iterations];
+      long found = 0;
+      for (int i = 0; i < WARMUP; ++i) {
+         found += recommender.recommend("user" + random.nextInt(users), 10).size();
+      }
+      for (int i = 0; i < iterations; ++i) {
+         String login = "user" + random.nextInt(users);
+         long t = System.nanoTime();
+         recommender.rented(login, Arrays.asList(String.format("game%04d", random.nextInt(games))));
+         nanos[i] = System.nanoTime() - t;
+      }
+      report("recommend record order", nanos);
+      for (int i = 0; i < iterations; ++i) {
+         String login = "user" + random.nextInt(users);
+         long t = System.nanoTime();
+         found += recommender.recommend(login, 10).size();
+         nanos[i] = System.nanoTime() - t;
+      }
+      report("recommend top 10", nanos);
+      consume(found);
+   }//end recommend
+
+   // prints mean and percentiles of the samples in microseconds
+   static void report(String name, long[] nanos) {
+      long[] sorted = nanos.clone();
+      Arrays.sort(sorted);
+      long total = 0;
+      for (long n : sorted) total += n;
+      System.out.printf("%-24s n=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus%n",
+         name, sorted.length,
+         total / 1000.0 / sorted.length,
+         sorted[(int) (sorted.length * 0.50)] / 1000.0,
+         sorted[(int) Math.min(sorted.length - 1, sorted.length * 0.99)] / 1000.0,
+         sorted[sorted.length - 1] / 1000.0);
+   }//end report
+
+}//end GameRentalBench
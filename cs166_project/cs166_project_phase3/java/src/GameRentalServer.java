@@ -0,0 +1,532 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless mode of GameRental: the customer and employee operations as a
+ * small HTTP API returning JSON, so one process serves many users at once.
+ *
+ *    java -cp classes:lib/pg73jdbc3.jar GameRentalServer <dbname> <port> <user> [httpPort]
+ *
+ * Every request runs on its own virtual thread when the JVM has them (Java
+ * 21 and later) and on a cached thread pool otherwise.  Requests share the
+ * one ConnectionPool of -Dpool.size connections, so the number of
+ * concurrent queries stays bounded however many sessions are open.
+ *
+ * Parameters are read from the query string and from a form encoded POST
+ * body.  POST /login returns a token; the other endpoints take it as the
+ * X-Session-Token header or a token parameter.
+ *
+ *    POST /login            login, password
+ *    POST /logout
+ *    GET  /games            genre | minPrice, maxPrice | sort=asc|desc, afterPrice, afterGameID, limit | q, limit
+ *    GET  /recommendations  limit
+ *    GET  /orders/recent
+ *    GET  /orders/history   afterTimestamp, afterOrderID
+ *    GET  /orders/info      rentalOrderID
+ *    POST /orders/place     games=gameID:units,gameID:units,...; 409 with the
+ *                           gameIDs that are short when out of stock
+ *    GET  /tracking         trackingID, rentalOrderID
+ *    GET  /tracking/history trackingID, rentalOrderID
+ *    POST /tracking/update  trackingID, status, currentLocation, courierName, additionalComments
+ *    GET  /metrics          Metrics.report() as plain text, to local clients only
+ *
+ * A token expires after -Dsession.idle.minutes (default 30) without a
+ * request, and at most -Dsession.max (default 100000) tokens are open at
+ * once.  limit is 1 to -Dserver.max.limit (default 100); larger values are
+ * cut to it.  A request body over -Dserver.max.body bytes (default 64KB) is
+ * refused with 413.
+ *
+ * With -Doverdue.interval.minutes the server also runs OverdueJob in the
+ * background at that interval.  Every -Dstats.fold.seconds (default 60; 0
+ * turns it off) it folds the orders placed since into the dashboard's
+ * summary tables.
+ *
+ */
+public class GameRentalServer {
+
+   static final String TOKEN_HEADER = "X-Session-Token";
+
+   static final long SESSION_IDLE_MS = Long.getLong("session.idle.minutes", 30) * 60 * 1000;
+   static final int MAX_SESSIONS = Integer.getInteger("session.max", 100000);
+   static final int MAX_LIMIT = Integer.getInteger("server.max.limit", 100);
+   static final int MAX_BODY = Integer.getInteger("server.max.body", 64 * 1024);
+
+   // expired tokens are swept out at most this often, by a login
+   private static final long SWEEP_MS = 60 * 1000;
+
+   private final GameRental _esql;
+   private final HttpServer _http;
+   private final ExecutorService _executor;
+
+   // token -> logged in user
+   private final Map<String, Token> _sessions = new ConcurrentHashMap<String, Token>();
+   private final AtomicLong _lastSweep = new AtomicLong(System.currentTimeMillis());
+   private final SecureRandom _random = new SecureRandom();
+
+   /**
+    * A logged in user and when the token was last used.
+    */
+   static final class Token {
+      final Session session;
+      volatile long lastUsed = System.currentTimeMillis();
+
+      Token(Session session) {
+         this.session = session;
+      }
+
+      boolean expired(long now) {
+         return now - lastUsed > SESSION_IDLE_MS;
+      }
+   }//end Token
+
+   /**
+    * An error reported to the client with an HTTP status.
+    */
+   static class HttpError extends Exception {
+      private static final long serialVersionUID = 1L;
+      final int status;
+
+      HttpError(int status, String message) {
+         super(message);
+         this.status = status;
+      }
+   }//end HttpError
+
+   /**
+    * One endpoint.  handle() returns the JSON response body.
+    */
+   abstract class Endpoint implements HttpHandler {
+      private final String _method;
+      private final boolean _needsSession;
+
+      Endpoint(String method, boolean needsSession) {
+         this._method = method;
+         this._needsSession = needsSession;
+      }
+
+      abstract Object handle(Map<String, String> params, Session session) throws Exception;
+
+      public void handle(HttpExchange exchange) throws IOException {
+         int status = 200;
+         Object body;
+         Metrics.Operation op = _esql.metrics().start(_method + " " + exchange.getHttpContext().getPath());
+         try {
+            if (!exchange.getRequestMethod().equalsIgnoreCase(_method)) {
+               throw new HttpError(405, "Use " + _method);
+            }
+            Map<String, String> params = params(exchange);
+            Session session = null;
+            if (_needsSession) {
+               String token = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+               if (token == null) {
+                  token = String.valueOf(params.get("token"));
+               }
+               session = session(token);
+               if (session == null) {
+                  throw new HttpError(401, "Not logged in");
+               }
+               // the token the session was found by, for /logout
+               params.put("token", token);
+            }
+            body = handle(params, session);
+         } catch (HttpError e) {
+            status = e.status;
+            body = Json.object("error", e.getMessage());
+         } catch (AccessDeniedException e) {
+            status = 403;
+            body = Json.object("error", e.getMessage());
+         } catch (OutOfStockException e) {
+            // a sold out game is the client's to resolve, not a server error
+            status = 409;
+            body = Json.object("error", e.getMessage(), "gameIDs", e.gameIDs().toArray());
+         } catch (IllegalArgumentException e) {
+            status = 400;
+            body = Json.object("error", e.getMessage());
+         } catch (Exception e) {
+            status = 500;
+            body = Json.object("error", e.getMessage());
+         } finally {
+            // only server errors count as errors of the endpoint
+            if (status < 500) op.succeeded();
+            _esql.metrics().end(op);
+         }
+         send(exchange, status, body);
+      }//end handle
+   }//end Endpoint
+
+   public GameRentalServer(GameRental esql, int httpPort) throws IOException {
+      this._esql = esql;
+      this._http = HttpServer.create(new InetSocketAddress(httpPort), Integer.getInteger("server.backlog", 1024));
+      this._executor = requestExecutor();
+      this._http.setExecutor(_executor);
+      register();
+   }
+
+   public void start() {
+      _http.start();
+   }
+
+   /**
+    * Stops accepting requests, waits up to delaySeconds for the running ones
+    * and stops the request threads.
+    */
+   public void stop(int delaySeconds) {
+      _http.stop(delaySeconds);
+      _executor.shutdown();
+      try {
+         _executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }//end stop
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            GameRentalServer.class.getName () +
+            " <dbname> <port> <user> [httpPort]");
+         return;
+      }//end if
+
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         final GameRental esql = new GameRental (args[0], args[1], args[2], "");
+         int httpPort = args.length > 3 ? Integer.parseInt(args[3]) : 8080;
+         final GameRentalServer server = new GameRentalServer(esql, httpPort);
+         long overdueMinutes = Long.getLong("overdue.interval.minutes", 0);
+         final ScheduledExecutorService overdue = overdueMinutes > 0 ? OverdueJob.schedule(esql, overdueMinutes) : null;
+         long foldSeconds = Long.getLong("stats.fold.seconds", 60);
+         final ScheduledExecutorService fold = foldSeconds > 0 ? JdbcStatsService.schedule(esql, foldSeconds) : null;
+         Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+               if (overdue != null) overdue.shutdownNow();
+               if (fold != null) fold.shutdownNow();
+               server.stop(5);
+               esql.cleanup ();
+            }
+         });
+         server.start();
+         System.out.println("Serving on port " + httpPort + " with " + GameRental.POOL_SIZE + " database connections");
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+
+   // a virtual thread per task where available, found by reflection so this compiles on older JDKs
+   static ExecutorService requestExecutor() {
+      try {
+         Method perTask = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+         return (ExecutorService) perTask.invoke(null);
+      } catch (Exception e) {
+         return Executors.newCachedThreadPool();
+      }
+   }//end requestExecutor
+
+   private void register() {
+      _http.createContext("/metrics", new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException {
+            if (!exchange.getRemoteAddress().getAddress().isLoopbackAddress()) {
+               send(exchange, 403, Json.object("error", "Metrics are only served to local clients"));
+               return;
+            }
+            StringWriter text = new StringWriter();
+            _esql.metrics().report(new PrintWriter(text), _esql.pool());
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            try {
+               out.write(bytes);
+            } finally {
+               out.close();
+            }
+         }
+      });
+      _http.createContext("/login", new Endpoint("POST", false) {
+         Object handle(Map<String, String> params, Session none) throws Exception {
+            Session session = _esql.userService().logIn(required(params, "login"), required(params, "password"));
+            if (session == null) {
+               throw new HttpError(401, "Wrong login or password");
+            }
+            sweep();
+            if (_sessions.size() >= MAX_SESSIONS) {
+               throw new HttpError(503, "Too many open sessions, try again later");
+            }
+            String token = newToken();
+            _sessions.put(token, new Token(session));
+            return Json.object("token", token, "login", session.login(), "role", session.role().name());
+         }
+      });
+      _http.createContext("/logout", new Endpoint("POST", true) {
+         Object handle(Map<String, String> params, Session session) {
+            _sessions.remove(params.get("token"));
+            return Json.object("login", session.login());
+         }
+      });
+      _http.createContext("/games", new Endpoint("GET", true) {
+         Object handle(Map<String, String> params, Session session) throws Exception {
+            return games(params);
+         }
+      });
+      _http.createContext("/recommendations", new Endpoint("GET", true) {
+         Object handle(Map<String, String> params, Session session) throws Exception {
+            return games(_esql.recommendationService().recommendedFor(session.login(), limit(params)));
+         }
+      });
+      _http.createContext("/orders/recent", new Endpoint("GET", true) {
+         Object handle(Map<String, String> params, Session session) throws Exception {
+            return orderLines(_esql.orderService().recentOrders(session.login()));
+         }
+      });
+      _http.createContext("/orders/history", new Endpoint("GET", true) {
+         Object handle(Map<String, String> params, Session session) throws Exception {
+            String after = params.get("afterTimestamp");
+            OrderPage page = _esql.orderService().historyPage(session.login(),
+               after == null ? null : Timestamp.valueOf(after),
+               after == null ? null : required(params, "afterOrderID"), GameRental.PAGE_SIZE);
+            Object next = page.hasMore
+               ? Json.object("afterTimestamp", page.lastTimestamp, "afterOrderID", page.lastOrderID)
+               : null;
+            return Json.object("lines", orderLines(page.lines), "next", next);
+         }
+      });
+      _http.createContext("/orders/info", new Endpoint("GET", true) {
+         Object handle(Map<String, String> params, Session session) throws Exception {
+            OrderInfo info = _esql.orderService().orderInfo(session, required(params, "rentalOrderID"));
+            if (info == null) {
+               throw new HttpError(404, "Order ID not found");
+            }
+            RentalOrder order = info.order;
+            return Json.object("rentalOrderID", order.rentalOrderID, "login", order.login,
+               "noOfGames", order.noOfGames, "totalPrice", order.totalPrice,
+               "orderTimestamp", order.orderTimestamp, "dueDate", order.dueDate,
+               "tracking", info.tracking == null ? null : tracking(info.tracking));
+         }
+      });
+      _http.createContext("/orders/place", new Endpoint("POST", true) {
+         Object handle(Map<String, String> params, Session session) throws Exception {
+            OrderBuilder cart = new OrderBuilder();
+            for (String line : required(params, "games").split(",")) {
+               String[] parts = line.trim().split(":");
+               cart.add(parts[0], parts.length > 1 ? Integer.parseInt(parts[1]) : 1);
+            }
+            OrderBuilder.Result placed = _esql.orderService().placeOrder(session.login(), cart);
+            return Json.object("rentalOrderID", placed.rentalOrderID, "trackingID", placed.trackingID,
+                               "noOfGames", placed.noOfGames, "totalPrice", placed.totalPrice);
+         }
+      });
+      _http.createContext("/tracking", new Endpoint("GET", true) {
+         Object handle(Map<String, String> params, Session session) throws Exception {
+            TrackingEvent event = _esql.trackingService().tracking(session,
+               required(params, "trackingID"), required(params, "rentalOrderID"));
+            if (event == null) {
+               throw new HttpError(404, "Tracking ID not found for this order");
+            }
+            return tracking(event);
+         }
+      });
+      _http.createContext("/tracking/history", new Endpoint("GET", true) {
+         Object handle(Map<String, String> params, Session session) throws Exception {
+            List<TrackingEvent> history = _esql.trackingService().history(session,
+               required(params, "trackingID"), required(params, "rentalOrderID"));
+            if (history.isEmpty()) {
+               throw new HttpError(404, "Tracking ID not found for this order");
+            }
+            Object[] events = new Object[history.size()];
+            for (int i = 0; i < events.length; ++i) {
+               events[i] = tracking(history.get(i));
+            }
+            return Json.object("events", events);
+         }
+      });
+      _http.createContext("/tracking/update", new Endpoint("POST", true) {
+         Object handle(Map<String, String> params, Session session) throws Exception {
+            String trackingID = required(params, "trackingID");
+            boolean updated = _esql.trackingService().updateTracking(session, trackingID,
+               required(params, "status"), required(params, "currentLocation"), required(params, "courierName"),
+               params.get("additionalComments"));
+            if (!updated) {
+               throw new HttpError(404, "Tracking ID not found");
+            }
+            return Json.object("trackingID", trackingID);
+         }
+      });
+   }//end register
+
+   // the catalog views
+   private Object games(Map<String, String> params) throws SQLException, HttpError {
+      CatalogService catalog = _esql.catalogService();
+      CatalogCache.Rows rows;
+      if (params.containsKey("genre")) {
+         rows = catalog.byGenre(params.get("genre"));
+      } else if (params.containsKey("minPrice") || params.containsKey("maxPrice")) {
+         rows = catalog.priceRange(decimal(params.get("minPrice")), decimal(params.get("maxPrice")));
+      } else if (params.containsKey("q")) {
+         rows = catalog.search(params.get("q"), limit(params));
+      } else if (params.containsKey("sort")) {
+         rows = catalog.pricePage(!params.get("sort").equalsIgnoreCase("desc"),
+            decimal(params.get("afterPrice")), params.get("afterGameID"), limit(params));
+      } else {
+         rows = catalog.allGames();
+      }
+      return games(rows);
+   }//end games
+
+   private static Object games(CatalogCache.Rows rows) {
+      Object[] games = new Object[rows.size()];
+      for (int i = 0; i < games.length; ++i) {
+         games[i] = Json.object("gameID", rows.gameID(i), "gameName", rows.gameName(i), "genre", rows.genre(i),
+            "price", rows.price(i), "description", rows.description(i), "imageURL", rows.imageURL(i));
+      }
+      return games;
+   }//end games
+
+   private static int limit(Map<String, String> params) throws HttpError {
+      if (!params.containsKey("limit")) {
+         return Math.min(GameRental.PAGE_SIZE, MAX_LIMIT);
+      }
+      int limit = Integer.parseInt(params.get("limit").trim());
+      if (limit < 1) {
+         throw new HttpError(400, "limit must be at least 1");
+      }
+      return Math.min(limit, MAX_LIMIT);
+   }
+
+   private static Object orderLines(List<OrderLine> lines) {
+      Object[] json = new Object[lines.size()];
+      for (int i = 0; i < json.length; ++i) {
+         OrderLine line = lines.get(i);
+         json[i] = Json.object("rentalOrderID", line.rentalOrderID, "gameName", line.gameName,
+            "orderTimestamp", line.orderTimestamp, "dueDate", line.dueDate);
+      }
+      return json;
+   }//end orderLines
+
+   private static Object tracking(TrackingEvent event) {
+      return Json.object("trackingID", event.trackingID, "rentalOrderID", event.rentalOrderID,
+         "status", event.status, "currentLocation", event.currentLocation, "courierName", event.courierName,
+         "lastUpdateDate", event.lastUpdateDate, "additionalComments", event.additionalComments);
+   }//end tracking
+
+   // the user of a token that has not expired, and marks it used
+   private Session session(String token) {
+      Token t = _sessions.get(token);
+      if (t == null) {
+         return null;
+      }
+      long now = System.currentTimeMillis();
+      if (t.expired(now)) {
+         _sessions.remove(token, t);
+         return null;
+      }
+      t.lastUsed = now;
+      return t.session;
+   }//end session
+
+   // drops the expired tokens, at most once per SWEEP_MS
+   private void sweep() {
+      long now = System.currentTimeMillis();
+      long last = _lastSweep.get();
+      if (now - last < SWEEP_MS || !_lastSweep.compareAndSet(last, now)) {
+         return;
+      }
+      for (Map.Entry<String, Token> e : _sessions.entrySet()) {
+         if (e.getValue().expired(now)) {
+            _sessions.remove(e.getKey(), e.getValue());
+         }
+      }
+   }//end sweep
+
+   private String newToken() {
+      byte[] bytes = new byte[16];
+      _random.nextBytes(bytes);
+      StringBuilder token = new StringBuilder(32);
+      for (byte b : bytes) {
+         token.append(String.format("%02x", b & 0xff));
+      }
+      return token.toString();
+   }//end newToken
+
+   private static String required(Map<String, String> params, String name) {
+      String value = params.get(name);
+      if (value == null || value.isEmpty()) {
+         throw new IllegalArgumentException("Missing parameter: " + name);
+      }
+      return value;
+   }
+
+   private static BigDecimal decimal(String value) {
+      return value == null || value.isEmpty() ? null : new BigDecimal(value.trim());
+   }
+
+   // query string and form body parameters; the body wins on a clash
+   // the query string and the form body, which may be at most MAX_BODY bytes
+   private static Map<String, String> params(HttpExchange exchange) throws IOException, HttpError {
+      Map<String, String> params = new HashMap<String, String>();
+      decode(exchange.getRequestURI().getRawQuery(), params);
+      InputStream body = exchange.getRequestBody();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int n; (n = body.read(buffer)) > 0; ) {
+         if (bytes.size() + n > MAX_BODY) {
+            throw new HttpError(413, "Request body over " + MAX_BODY + " bytes");
+         }
+         bytes.write(buffer, 0, n);
+      }
+      decode(new String(bytes.toByteArray(), StandardCharsets.UTF_8), params);
+      return params;
+   }//end params
+
+   private static void decode(String form, Map<String, String> params) throws IOException {
+      if (form == null || form.isEmpty()) {
+         return;
+      }
+      for (String pair : form.split("&")) {
+         int eq = pair.indexOf('=');
+         String name = eq < 0 ? pair : pair.substring(0, eq);
+         String value = eq < 0 ? "" : pair.substring(eq + 1);
+         params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+      }
+   }//end decode
+
+   private static void send(HttpExchange exchange, int status, Object body) throws IOException {
+      StringBuilder text = new StringBuilder();
+      Json.append(text, body);
+      byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, bytes.length);
+      OutputStream out = exchange.getResponseBody();
+      try {
+         out.write(bytes);
+      } finally {
+         out.close();
+      }
+   }//end send
+
+}//end GameRentalServer
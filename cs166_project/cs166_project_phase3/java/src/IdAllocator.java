@@ -0,0 +1,80 @@
+import java.sql.SQLException;
+
+/**
+ * Hands out unique, readable IDs such as "gamerentalorder10423" without
+ * probing the table first.  Numbers come from a database sequence whose
+ * INCREMENT BY equals the block size: each nextval reserves a whole block,
+ * and the block is then handed out from memory.  Two processes never share
+ * a block, so IDs are unique across sessions; numbers left in a block when
+ * the process exits are simply skipped.
+ *
+ */
+public class IdAllocator {
+
+   // must match INCREMENT BY of the sequences in create_tables.sql
+   public static final int BLOCK_SIZE = 100;
+
+   /**
+    * Reserves the next block of numbers.
+    */
+   public interface BlockSource {
+      /**
+       * @return the first number of a block of BLOCK_SIZE numbers that no
+       *         other caller will receive
+       */
+      long nextBlock() throws SQLException;
+   }//end BlockSource
+
+   private final String _prefix;
+   private final int _blockSize;
+   private final BlockSource _source;
+
+   // next number to hand out and the end (exclusive) of the current block
+   private long _next = 0;
+   private long _limit = 0;
+
+   public IdAllocator(String prefix, int blockSize, BlockSource source) {
+      this._prefix = prefix;
+      this._blockSize = blockSize;
+      this._source = source;
+   }
+
+   /**
+    * @return a new ID made of the prefix followed by a unique number
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public String next() throws SQLException {
+      return _prefix + nextValue();
+   }
+
+   /**
+    * @return a new unique number
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public synchronized long nextValue() throws SQLException {
+      if (_next >= _limit) {
+         long start = _source.nextBlock();
+         _next = start;
+         _limit = start + _blockSize;
+      }
+      return _next++;
+   }//end nextValue
+
+   /**
+    * A block source backed by a database sequence created with
+    * INCREMENT BY BLOCK_SIZE.
+    *
+    * @param esql the database to allocate from
+    * @param sequence name of the DB sequence
+    * @return a source that calls nextval once per block
+    */
+   public static BlockSource sequence(final GameRental esql, final String sequence) {
+      final String query = "SELECT nextval('" + sequence + "')";
+      return new BlockSource() {
+         public long nextBlock() throws SQLException {
+            return esql.executeQueryForLong(query);
+         }
+      };
+   }//end sequence
+
+}//end IdAllocator
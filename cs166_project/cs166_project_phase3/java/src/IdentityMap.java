@@ -0,0 +1,75 @@
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The entities loaded while serving one request or console screen, each
+ * read whole with one single-row query and then kept by key, so reading
+ * the same user or game again in that screen costs nothing.  A row that
+ * does not exist is remembered too.  Entities are read with their row
+ * version, to be passed to the compare-and-set updates of the services.
+ *
+ * Create one per request and drop it afterwards; entries are not shared
+ * or expired, so anything changed through the map's own screen must be
+ * evict()ed before it is read again.  Not thread safe.
+ *
+ */
+public class IdentityMap {
+
+   static final String SELECT_USER = "SELECT " + User.COLUMNS + " FROM Users WHERE login = ?";
+   static final String SELECT_GAME =
+      "SELECT gameID, gameName, genre, price, description, imageURL, version FROM Catalog WHERE gameID = ?";
+
+   // stands for a row found missing
+   private static final Object ABSENT = new Object();
+
+   private final GameRental _esql;
+   private final Map<String, Object> _users = new HashMap<String, Object>();
+   private final Map<String, Object> _games = new HashMap<String, Object>();
+
+   public IdentityMap(GameRental esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * @return the user, or null if there is no such login
+    * @throws java.sql.SQLException when the query fails
+    */
+   public User user(String login) throws SQLException {
+      return (User) load(_users, SELECT_USER, User.MAPPER, login);
+   }
+
+   /**
+    * @return the game, or null if there is no such gameID
+    * @throws java.sql.SQLException when the query fails
+    */
+   public Game game(String gameID) throws SQLException {
+      return (Game) load(_games, SELECT_GAME, Game.VERSIONED_MAPPER, gameID);
+   }
+
+   /**
+    * Forgets a user, so the next user() reads it again.
+    */
+   public void evictUser(String login) {
+      _users.remove(login);
+   }
+
+   /**
+    * Forgets a game, so the next game() reads it again.
+    */
+   public void evictGame(String gameID) {
+      _games.remove(gameID);
+   }
+
+   private Object load(Map<String, Object> loaded, String sql, RowMapper<?> mapper, String key)
+         throws SQLException {
+      Object entity = loaded.get(key);
+      if (entity == null) {
+         entity = _esql.executeQueryForObject(sql, mapper, key);
+         if (entity == null) entity = ABSENT;
+         loaded.put(key, entity);
+      }
+      return entity == ABSENT ? null : entity;
+   }//end load
+
+}//end IdentityMap
@@ -0,0 +1,231 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the indexes in sql/src/create_indexes.sql against the queries they
+ * were made for.  Each query is run under EXPLAIN ANALYZE with the index in
+ * place, then again after a DROP INDEX inside a transaction that is rolled
+ * back, so the database is left as it was.  For every index the report shows
+ * whether the plan used it and the median server execution time with and
+ * without it.
+ *
+ *    java -cp classes:lib/pg73jdbc3.jar IndexReport <dbname> <port> <user> [runs]
+ *
+ * DROP INDEX locks the table until the rollback, so run this against a test
+ * database, ideally one loaded from DataGenerator at a realistic scale: on
+ * the small seed data the planner reads whole tables and no index is used.
+ * Exits with status 1 if any index is missing or not used.
+ *
+ */
+public class IndexReport {
+
+   // one query and the index it should use
+   private static class Check {
+      final String index;
+      final String name;
+      final String sql;
+      final Object[] params;
+
+      Check(String index, String name, String sql, Object... params) {
+         this.index = index;
+         this.name = name;
+         this.sql = sql;
+         this.params = params;
+      }
+   }//end Check
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            IndexReport.class.getName () +
+            " <dbname> <port> <user> [runs]");
+         return;
+      }//end if
+
+      int failed = 0;
+      GameRental esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new GameRental (args[0], args[1], args[2], "");
+         int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+         failed = run(esql, checks(esql), runs);
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+         failed = 1;
+      } finally {
+         if (esql != null) esql.cleanup ();
+      }
+      System.exit(failed == 0 ? 0 : 1);
+   }//end main
+
+   /**
+    * Picks parameters from the loaded data: the user with the most orders,
+    * one of their orders, the most common genre and the median price.
+    *
+    * @throws java.sql.SQLException when the database has no orders
+    */
+   static List<Check> checks(GameRental esql) throws SQLException {
+      List<String[]> user = esql.executeQueryForList(
+         "SELECT u.login, r.rentalOrderID, t.trackingID " +
+         "FROM (SELECT login FROM RentalOrder GROUP BY login ORDER BY COUNT(*) DESC LIMIT 1) top " +
+         "JOIN Users u ON u.login = top.login " +
+         "JOIN RentalOrder r ON r.login = u.login " +
+         "JOIN TrackingInfo t ON t.rentalOrderID = r.rentalOrderID " +
+         "ORDER BY r.orderTimestamp DESC LIMIT 1",
+         new RowMapper<String[]>() {
+            public String[] map(ResultSet rs) throws SQLException {
+               return new String[] { rs.getString(1), rs.getString(2), rs.getString(3) };
+            }
+         });
+      if (user.isEmpty()) {
+         throw new SQLException("IndexReport needs orders in the database");
+      }
+      String login = user.get(0)[0];
+      String rentalOrderID = user.get(0)[1];
+      String trackingID = user.get(0)[2];
+      String genre = esql.executeQueryForObject(
+         "SELECT genre FROM Catalog GROUP BY genre ORDER BY COUNT(*) DESC LIMIT 1", RowMapper.STRING);
+      String price = esql.executeQueryForObject(
+         "SELECT price FROM Catalog ORDER BY price OFFSET (SELECT COUNT(*) / 2 FROM Catalog) LIMIT 1", RowMapper.STRING);
+      String gameID = esql.executeQueryForObject(
+         "SELECT gameID FROM GamesInOrder WHERE rentalOrderID = ? LIMIT 1", RowMapper.STRING, rentalOrderID);
+
+      List<Check> checks = new ArrayList<Check>();
+      checks.add(new Check("index_rentalOrder_login_orderTimestamp", "recent orders",
+         JdbcOrderService.RECENT_ORDERS_QUERY, login));
+      checks.add(new Check("index_rentalOrder_login_orderTimestamp", "order history page",
+         OrderHistoryPager.FIRST_PAGE, login, GameRental.PAGE_SIZE));
+      checks.add(new Check("index_trackingInfo_rentalOrderID", "order info",
+         JdbcOrderService.ORDER_INFO_QUERY, rentalOrderID));
+      checks.add(new Check("index_trackingInfo_rentalOrderID", "tracking info",
+         JdbcTrackingService.TRACKING_INFO_QUERY, trackingID, rentalOrderID));
+      checks.add(new Check("index_gamesInOrder_gameID", "rentals of a game",
+         "SELECT COUNT(*) FROM GamesInOrder WHERE gameID = ?", gameID));
+      checks.add(new Check("index_catalog_genre", "filter by genre",
+         CatalogCache.SELECT_GAMES + " WHERE genre = ? ORDER BY gameID", genre));
+      checks.add(new Check("index_catalog_price", "price range page",
+         CatalogCache.SELECT_GAMES + " WHERE price <= CAST(? AS numeric) ORDER BY price, gameID LIMIT ?",
+         price, GameRental.PAGE_SIZE));
+      return checks;
+   }//end checks
+
+   /**
+    * Runs every check and prints one line per check.
+    *
+    * @return the number of checks whose index is missing or not used
+    * @throws java.sql.SQLException when a query fails
+    */
+   static int run(GameRental esql, List<Check> checks, int runs) throws SQLException {
+      System.out.println(String.format("%-40s %-20s %-6s %12s %12s %8s",
+         "index", "query", "used", "with ms", "without ms", "speedup"));
+      int failed = 0;
+      PooledConnection pc = esql.pool().acquire();
+      try {
+         Connection conn = pc.connection();
+         conn.setAutoCommit(false);
+         for (Check check : checks) {
+            if (!exists(conn, check.index)) {
+               System.out.println(String.format("%-40s %-20s %-6s", check.index, check.name, "MISSING"));
+               ++failed;
+               continue;
+            }
+            List<String> plan = explain(conn, check.sql, check.params);
+            boolean used = uses(plan, check.index);
+            double with = medianTime(conn, check, runs);
+
+            Statement stmt = conn.createStatement();
+            try {
+               stmt.execute("DROP INDEX " + check.index);
+            } finally {
+               stmt.close();
+            }
+            double without = medianTime(conn, check, runs);
+            conn.rollback();
+
+            System.out.println(String.format("%-40s %-20s %-6s %12.3f %12.3f %7.1fx",
+               check.index, check.name, used ? "yes" : "NO", with, without, without / Math.max(with, 0.001)));
+            if (!used) {
+               ++failed;
+               if (Boolean.getBoolean("index.report.plans")) {
+                  for (String line : plan) System.out.println("      " + line);
+               }
+            }
+         }
+      } finally {
+         esql.pool().release(pc);
+      }
+      System.out.println((checks.size() - failed) + " of " + checks.size() + " queries use their index");
+      return failed;
+   }//end run
+
+   private static boolean exists(Connection conn, String index) throws SQLException {
+      PreparedStatement stmt = conn.prepareStatement(
+         "SELECT 1 FROM pg_class WHERE relkind = 'i' AND relname = lower(?)");
+      try {
+         GameRental.bind(stmt, index);
+         ResultSet rs = stmt.executeQuery();
+         return rs.next();
+      } finally {
+         stmt.close();
+      }
+   }//end exists
+
+   // the lines of the EXPLAIN ANALYZE output
+   private static List<String> explain(Connection conn, String sql, Object[] params) throws SQLException {
+      PreparedStatement stmt = conn.prepareStatement("EXPLAIN ANALYZE " + sql);
+      try {
+         GameRental.bind(stmt, params);
+         ResultSet rs = stmt.executeQuery();
+         List<String> lines = new ArrayList<String>();
+         while (rs.next()) {
+            lines.add(rs.getString(1));
+         }
+         return lines;
+      } finally {
+         stmt.close();
+      }
+   }//end explain
+
+   private static boolean uses(List<String> plan, String index) {
+      String name = index.toLowerCase();
+      for (String line : plan) {
+         if (line.toLowerCase().contains(" using " + name + " ")
+             || line.toLowerCase().contains(" on " + name + " ")) {
+            return true;
+         }
+      }
+      return false;
+   }//end uses
+
+   // median of the server's own execution time, so network time is left out
+   private static double medianTime(Connection conn, Check check, int runs) throws SQLException {
+      explain(conn, check.sql, check.params);
+      double[] times = new double[runs];
+      for (int i = 0; i < runs; ++i) {
+         times[i] = executionTime(explain(conn, check.sql, check.params));
+      }
+      Arrays.sort(times);
+      return times[runs / 2];
+   }//end medianTime
+
+   // "Execution Time: 0.123 ms", or "Total runtime: 0.123 ms" on older servers
+   static double executionTime(List<String> plan) {
+      for (int i = plan.size() - 1; i >= 0; --i) {
+         String line = plan.get(i).trim();
+         if (line.startsWith("Execution Time:") || line.startsWith("Total runtime:")) {
+            String value = line.substring(line.indexOf(':') + 1).trim();
+            return Double.parseDouble(value.substring(0, value.indexOf(' ')));
+         }
+      }
+      return Double.NaN;
+   }//end executionTime
+
+}//end IndexReport
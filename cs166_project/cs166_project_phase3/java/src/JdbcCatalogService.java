@@ -0,0 +1,61 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * CatalogService answered from the process's CatalogCache.
+ *
+ */
+public class JdbcCatalogService implements CatalogService {
+
+   // the fields a manager may edit
+   static final String[] EDITABLE = { "gameName", "genre", "price", "description", "imageURL" };
+
+   private final GameRental _esql;
+
+   public JdbcCatalogService(GameRental esql) {
+      this._esql = esql;
+   }
+
+   public CatalogCache.Rows allGames() throws SQLException {
+      return _esql.catalog().all();
+   }
+
+   public CatalogCache.Rows byGenre(String genre) throws SQLException {
+      return _esql.catalog().byGenre(genre);
+   }
+
+   public CatalogCache.Rows priceRange(BigDecimal min, BigDecimal max) throws SQLException {
+      return _esql.catalog().priceRange(min, max);
+   }
+
+   public CatalogCache.Rows pricePage(boolean ascending, BigDecimal afterPrice, String afterGameID, int limit)
+         throws SQLException {
+      return _esql.catalog().pricePage(ascending, afterPrice, afterGameID, limit);
+   }
+
+   public CatalogCache.Rows search(String query, int limit) throws SQLException {
+      return _esql.catalog().search(query, limit);
+   }
+
+   // compare-and-set: only the version read is overwritten
+   public int updateGame(Session session, String gameID, int version, String field, Object value)
+         throws SQLException, AccessDeniedException, ConcurrentUpdateException {
+      if (!session.isManager()) {
+         throw new AccessDeniedException("You do not have permission to access this.");
+      }
+      if (!Arrays.asList(EDITABLE).contains(field)) {
+         throw new IllegalArgumentException("Not an editable field: " + field);
+      }
+      int updated = _esql.executeUpdate("UPDATE Catalog SET " + field + " = ?, version = version + 1 " +
+                                        "WHERE gameID = ? AND version = ?", value, gameID, version);
+      if (updated == 0) {
+         Game current = _esql.executeQueryForObject(IdentityMap.SELECT_GAME, Game.VERSIONED_MAPPER, gameID);
+         throw new ConcurrentUpdateException(current == null ? "The game was deleted by someone else."
+            : "The game was changed by someone else since it was shown.", current);
+      }
+      _esql.catalog().refresh(gameID);
+      return version + 1;
+   }//end updateGame
+
+}//end JdbcCatalogService
@@ -0,0 +1,93 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OrderService on the GameRental database.  The order history reads go to
+ * a replica when there is one that has the user's orders.
+ *
+ */
+public class JdbcOrderService implements OrderService {
+
+   static final String RECENT_ORDERS_QUERY =
+      "SELECT r1.rentalOrderID, c.gameName, r1.orderTimestamp, r1.dueDate " +
+      "FROM RentalOrder r1 " +
+      "JOIN GamesInOrder gm ON r1.rentalOrderID = gm.rentalOrderID " +
+      "JOIN Catalog c ON gm.gameID = c.gameID " +
+      "WHERE r1.login = ? " +
+      "ORDER BY r1.orderTimestamp DESC " +
+      "LIMIT 5";
+
+   // the order and its tracking row in one round trip; login is checked on the result
+   static final String ORDER_INFO_QUERY =
+      "SELECT r1.rentalOrderID, r1.login, r1.noOfGames, r1.totalPrice, r1.orderTimestamp, r1.dueDate, " +
+      "ti.trackingID, ti.rentalOrderID, ti.status, ti.currentLocation, ti.courierName, ti.lastUpdateDate, " +
+      "ti.additionalComments " +
+      "FROM RentalOrder r1 " +
+      "LEFT JOIN TrackingInfo ti ON r1.rentalOrderID = ti.rentalOrderID " +
+      "WHERE r1.rentalOrderID = ?";
+
+   // RentalOrder.COLUMNS followed by TrackingEvent.COLUMNS
+   static final RowMapper<OrderInfo> ORDER_INFO_MAPPER = new RowMapper<OrderInfo>() {
+      public OrderInfo map(ResultSet rs) throws SQLException {
+         RentalOrder order = RentalOrder.MAPPER.map(rs);
+         String trackingID = rs.getString(7);
+         TrackingEvent tracking = trackingID == null ? null
+            : new TrackingEvent(trackingID, rs.getString(8), rs.getString(9), rs.getString(10),
+                                rs.getString(11), rs.getTimestamp(12), rs.getString(13));
+         return new OrderInfo(order, tracking);
+      }
+   };
+
+   private final GameRental _esql;
+
+   public JdbcOrderService(GameRental esql) {
+      this._esql = esql;
+   }
+
+   public OrderBuilder.Result placeOrder(String login, OrderBuilder cart) throws SQLException {
+      OrderBuilder.Result result = cart.place(_esql, login, GameRental.getCurrentTimestamp(), GameRental.generateRandomDueDate());
+      _esql.recommendationService().ordered(login, cart);
+      _esql.router().wrote(login);
+      return result;
+   }
+
+   public List<OrderLine> recentOrders(String login) throws SQLException {
+      ReplicaRouter.Route route = _esql.router().read(login);
+      try {
+         return _esql.executeQueryForList(RECENT_ORDERS_QUERY, OrderLine.MAPPER, login);
+      } finally {
+         route.end();
+      }
+   }
+
+   public OrderPage historyPage(String login, Timestamp afterTimestamp, String afterOrderID, int pageSize)
+         throws SQLException {
+      OrderHistoryPager pager = afterTimestamp == null
+         ? new OrderHistoryPager(login, pageSize)
+         : new OrderHistoryPager(login, pageSize, afterTimestamp, afterOrderID);
+      final List<OrderLine> lines = new ArrayList<OrderLine>();
+      ReplicaRouter.Route route = _esql.router().read(login);
+      try {
+         pager.nextPage(_esql, new RowHandler() {
+            public void row(ResultSet rs) throws SQLException {
+               lines.add(OrderLine.MAPPER.map(rs));
+            }
+         });
+      } finally {
+         route.end();
+      }
+      return new OrderPage(lines, pager.hasMore(), pager.lastTimestamp(), pager.lastOrderID());
+   }//end historyPage
+
+   public OrderInfo orderInfo(Session session, String rentalOrderID) throws SQLException, AccessDeniedException {
+      OrderInfo info = _esql.executeQueryForObject(ORDER_INFO_QUERY, ORDER_INFO_MAPPER, rentalOrderID);
+      if (info != null && !info.order.login.equals(session.login()) && !session.isEmployeeOrManager()) {
+         throw new AccessDeniedException("You do not have permission to view this order.");
+      }
+      return info;
+   }//end orderInfo
+
+}//end JdbcOrderService
@@ -0,0 +1,111 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RecommendationService answered from an in-memory Recommender.  The
+ * rental history and favorite games are read once, on the first
+ * recommendation; after that placed orders and changed favorites are
+ * applied as they happen, so a recommendation costs no database work.
+ *
+ * Favorite games are free text names; each is matched to the catalog game
+ * that CatalogCache.search ranks first for it.
+ *
+ */
+public class JdbcRecommendationService implements RecommendationService {
+
+   static final String RENTALS =
+      "SELECT r.login, g.gameID FROM RentalOrder r JOIN GamesInOrder g ON g.rentalOrderID = r.rentalOrderID";
+   static final String FAVORITES =
+      "SELECT login, favGames FROM Users WHERE favGames IS NOT NULL AND favGames <> ''";
+
+   private final GameRental _esql;
+   private volatile Recommender _recommender;
+
+   public JdbcRecommendationService(GameRental esql) {
+      this._esql = esql;
+   }
+
+   public CatalogCache.Rows recommendedFor(String login, int limit) throws SQLException {
+      return _esql.catalog().byIds(recommender().recommend(login, limit));
+   }
+
+   // before the first recommendation there is nothing to update: the load will read the order
+   public void ordered(String login, OrderBuilder cart) {
+      Recommender recommender = _recommender;
+      if (recommender != null) {
+         recommender.rented(login, cart.gameIDs());
+      }
+   }
+
+   public void favoritesChanged(String login, String favGames) throws SQLException {
+      Recommender recommender = _recommender;
+      if (recommender != null) {
+         recommender.favorites(login, resolve(favGames, new HashMap<String, String>()));
+      }
+   }
+
+   private Recommender recommender() throws SQLException {
+      Recommender recommender = _recommender;
+      if (recommender == null) {
+         synchronized (this) {
+            recommender = _recommender;
+            if (recommender == null) {
+               recommender = load();
+               _recommender = recommender;
+            }
+         }
+      }
+      return recommender;
+   }//end recommender
+
+   private Recommender load() throws SQLException {
+      final Recommender recommender = new Recommender();
+      _esql.executeQueryAndStream(RENTALS, new RowHandler() {
+         public void row(ResultSet rs) throws SQLException {
+            recommender.rented(rs.getString(1), Collections.singletonList(rs.getString(2)));
+         }
+      });
+      final List<String[]> favorites = new ArrayList<String[]>();
+      _esql.executeQueryAndStream(FAVORITES, new RowHandler() {
+         public void row(ResultSet rs) throws SQLException {
+            favorites.add(new String[] { rs.getString(1), rs.getString(2) });
+         }
+      });
+      // the same few names come up for many users
+      Map<String, String> matched = new HashMap<String, String>();
+      for (String[] user : favorites) {
+         recommender.favorites(user[0], resolve(user[1], matched));
+      }
+      return recommender;
+   }//end load
+
+   // the gameIDs of the comma separated game names, using and filling matched
+   private List<String> resolve(String favGames, Map<String, String> matched) throws SQLException {
+      List<String> gameIDs = new ArrayList<String>();
+      if (favGames == null) {
+         return gameIDs;
+      }
+      for (String name : favGames.split(",")) {
+         String key = name.trim().toLowerCase();
+         if (key.isEmpty()) {
+            continue;
+         }
+         String gameID = matched.get(key);
+         if (gameID == null) {
+            CatalogCache.Rows best = _esql.catalog().search(key, 1);
+            gameID = best.size() == 0 ? "" : best.gameID(0);
+            matched.put(key, gameID);
+         }
+         if (!gameID.isEmpty()) {
+            gameIDs.add(gameID);
+         }
+      }
+      return gameIDs;
+   }//end resolve
+
+}//end JdbcRecommendationService
@@ -0,0 +1,139 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StatsService on the summary tables of sql/src/create_stats.sql.  Each
+ * query reads at most limit rows through an index on the ranking column.
+ * The orders placed since the last fold are added in by refresh(), once
+ * per dashboard, and by schedule() in the background, so the delta tables
+ * stay short between dashboards.
+ *
+ */
+public class JdbcStatsService implements StatsService {
+
+   // adds the pending order deltas to the summary tables; a DO block, since
+   // executeUpdate does not take a statement that returns a row
+   static final String FOLD = "DO $$ BEGIN PERFORM fold_rental_stats(); END $$";
+
+   static final String TOP_GAMES_QUERY =
+      "SELECT s.gameID, c.gameName, s.rentals, s.unitsRented, s.revenue " +
+      "FROM GameStats s JOIN Catalog c ON c.gameID = s.gameID " +
+      "ORDER BY s.unitsRented DESC LIMIT ?";
+
+   static final String GENRES_QUERY =
+      "SELECT genre, unitsRented, revenue FROM GenreStats ORDER BY revenue DESC";
+
+   static final String TOP_SPENDERS_QUERY =
+      "SELECT s.login, s.orders, s.gamesRented, s.totalSpent, u.numOverDueGames " +
+      "FROM UserStats s JOIN Users u ON u.login = s.login " +
+      "ORDER BY s.totalSpent DESC LIMIT ?";
+
+   static final String MOST_OVERDUE_QUERY =
+      "SELECT u.login, COALESCE(s.orders, 0), COALESCE(s.gamesRented, 0), COALESCE(s.totalSpent, 0), u.numOverDueGames " +
+      "FROM Users u LEFT JOIN UserStats s ON s.login = u.login " +
+      "WHERE u.numOverDueGames > 0 " +
+      "ORDER BY u.numOverDueGames DESC LIMIT ?";
+
+   static final String LOW_STOCK_QUERY =
+      "SELECT i.gameID, c.gameName, i.available, i.reserved, i.rented " +
+      "FROM InventoryTotals i JOIN Catalog c ON c.gameID = i.gameID " +
+      "ORDER BY i.available, i.gameID LIMIT ?";
+
+   static final RowMapper<GameStat> GAME_STAT = new RowMapper<GameStat>() {
+      public GameStat map(ResultSet rs) throws SQLException {
+         return new GameStat(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getLong(4), rs.getBigDecimal(5));
+      }
+   };
+
+   static final RowMapper<GenreStat> GENRE_STAT = new RowMapper<GenreStat>() {
+      public GenreStat map(ResultSet rs) throws SQLException {
+         return new GenreStat(rs.getString(1), rs.getLong(2), rs.getBigDecimal(3));
+      }
+   };
+
+   static final RowMapper<UserStat> USER_STAT = new RowMapper<UserStat>() {
+      public UserStat map(ResultSet rs) throws SQLException {
+         return new UserStat(rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getBigDecimal(4), rs.getInt(5));
+      }
+   };
+
+   static final RowMapper<StockStat> STOCK_STAT = new RowMapper<StockStat>() {
+      public StockStat map(ResultSet rs) throws SQLException {
+         return new StockStat(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getLong(4), rs.getLong(5));
+      }
+   };
+
+   private final GameRental _esql;
+
+   public JdbcStatsService(GameRental esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * Folds the pending deltas every intervalSeconds on a daemon thread.
+    *
+    * @return the scheduler, to shut down when done
+    */
+   public static ScheduledExecutorService schedule(final GameRental esql, long intervalSeconds) {
+      ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "stats-fold");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      scheduler.scheduleWithFixedDelay(new Runnable() {
+         // a failed fold is reported and retried at the next interval
+         public void run() {
+            try {
+               esql.executeUpdate(FOLD);
+            } catch (SQLException e) {
+               System.err.println("Stats fold failed: " + e.getMessage());
+            }
+         }
+      }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+      return scheduler;
+   }//end schedule
+
+   public void refresh(Session session) throws SQLException, AccessDeniedException {
+      checkManager(session);
+      _esql.executeUpdate(FOLD);
+   }
+
+   public List<GameStat> topGames(Session session, int limit) throws SQLException, AccessDeniedException {
+      checkManager(session);
+      return _esql.executeQueryForList(TOP_GAMES_QUERY, GAME_STAT, limit);
+   }
+
+   public List<GenreStat> genres(Session session) throws SQLException, AccessDeniedException {
+      checkManager(session);
+      return _esql.executeQueryForList(GENRES_QUERY, GENRE_STAT);
+   }
+
+   public List<UserStat> topSpenders(Session session, int limit) throws SQLException, AccessDeniedException {
+      checkManager(session);
+      return _esql.executeQueryForList(TOP_SPENDERS_QUERY, USER_STAT, limit);
+   }
+
+   public List<UserStat> mostOverdue(Session session, int limit) throws SQLException, AccessDeniedException {
+      checkManager(session);
+      return _esql.executeQueryForList(MOST_OVERDUE_QUERY, USER_STAT, limit);
+   }
+
+   public List<StockStat> lowStock(Session session, int limit) throws SQLException, AccessDeniedException {
+      checkManager(session);
+      return _esql.executeQueryForList(LOW_STOCK_QUERY, STOCK_STAT, limit);
+   }
+
+   private static void checkManager(Session session) throws SQLException, AccessDeniedException {
+      if (!session.isManager()) {
+         throw new AccessDeniedException("You do not have permission to access this.");
+      }
+   }
+
+}//end JdbcStatsService
@@ -0,0 +1,67 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * TrackingService on the GameRental database.  The tracking history is
+ * read from a replica when there is one that has the user's updates.
+ *
+ */
+public class JdbcTrackingService implements TrackingService {
+
+   // the tracking row and the login of its order in one round trip
+   static final String TRACKING_INFO_QUERY =
+      "SELECT ti.trackingID, ti.rentalOrderID, ti.status, ti.currentLocation, ti.courierName, " +
+      "ti.lastUpdateDate, ti.additionalComments, ro.login " +
+      "FROM TrackingInfo ti " +
+      "JOIN RentalOrder ro ON ti.rentalOrderID = ro.rentalOrderID " +
+      "WHERE ti.trackingID = ? AND ro.rentalOrderID = ?";
+
+   private final GameRental _esql;
+
+   public JdbcTrackingService(GameRental esql) {
+      this._esql = esql;
+   }
+
+   public TrackingEvent tracking(Session session, String trackingID, String rentalOrderID)
+         throws SQLException, AccessDeniedException {
+      final String[] orderLogin = new String[1];
+      TrackingEvent event = _esql.executeQueryForObject(TRACKING_INFO_QUERY, new RowMapper<TrackingEvent>() {
+         public TrackingEvent map(ResultSet rs) throws SQLException {
+            orderLogin[0] = rs.getString(8);
+            return TrackingEvent.MAPPER.map(rs);
+         }
+      }, trackingID, rentalOrderID);
+      if (event != null && !orderLogin[0].equals(session.login()) && !session.isEmployeeOrManager()) {
+         throw new AccessDeniedException("You do not have permission to view this tracking information.");
+      }
+      return event;
+   }//end tracking
+
+   public boolean updateTracking(Session session, String trackingID, String status, String currentLocation,
+                                 String courierName, String additionalComments)
+         throws SQLException, AccessDeniedException {
+      if (!session.isEmployeeOrManager()) {
+         throw new AccessDeniedException("Access Denied: Only employees or managers can update the tracking information.");
+      }
+      boolean appended = _esql.trackingLog().append(new TrackingEvent(trackingID, null, status, currentLocation,
+                                                   courierName, GameRental.getCurrentTimestamp(), additionalComments), "app");
+      _esql.router().wrote(session.login());
+      return appended;
+   }//end updateTracking
+
+   public List<TrackingEvent> history(Session session, String trackingID, String rentalOrderID)
+         throws SQLException, AccessDeniedException {
+      ReplicaRouter.Route route = _esql.router().read(session.login());
+      try {
+         if (tracking(session, trackingID, rentalOrderID) == null) {
+            return Collections.<TrackingEvent>emptyList();
+         }
+         return _esql.trackingLog().history(trackingID);
+      } finally {
+         route.end();
+      }
+   }//end history
+
+}//end JdbcTrackingService
@@ -0,0 +1,74 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * UserService on the GameRental database.
+ *
+ */
+public class JdbcUserService implements UserService {
+
+   // the fields a manager may edit
+   static final String[] EDITABLE = { "role", "numOverDueGames" };
+
+   private final GameRental _esql;
+
+   public JdbcUserService(GameRental esql) {
+      this._esql = esql;
+   }
+
+   public boolean createUser(String login, String password, String phoneNum) throws SQLException {
+      if (_esql.executeQueryForInt("SELECT COUNT(*) FROM Users WHERE login = ?", login) > 0) {
+         return false;
+      }
+      _esql.executeUpdate("INSERT INTO Users(login, password, role, favGames, phoneNum, numOverDueGames) " +
+                          "VALUES(?, ?, 'customer', NULL, ?, 0)", login, password, phoneNum);
+      return true;
+   }//end createUser
+
+   // the role is read by the same query, so later permission checks need no database work
+   public Session logIn(String login, String password) throws SQLException {
+      String role = _esql.executeQueryForObject("SELECT role FROM Users WHERE login = ? AND password = ?",
+                                                RowMapper.STRING, login, password);
+      if (role == null) {
+         return null;
+      }
+      _esql.roles().put(login, Role.fromString(role));
+      return new Session(login, _esql.roles());
+   }//end logIn
+
+   public void updateFavGames(String login, String favGames) throws SQLException {
+      _esql.executeUpdate("UPDATE Users SET favGames = ?, version = version + 1 WHERE login = ?", favGames, login);
+      _esql.recommendationService().favoritesChanged(login, favGames);
+   }
+
+   public void updatePassword(String login, String password) throws SQLException {
+      _esql.executeUpdate("UPDATE Users SET password = ?, version = version + 1 WHERE login = ?", password, login);
+   }
+
+   public void updatePhoneNum(String login, String phoneNum) throws SQLException {
+      _esql.executeUpdate("UPDATE Users SET phoneNum = ?, version = version + 1 WHERE login = ?", phoneNum, login);
+   }
+
+   // compare-and-set: only the version read is overwritten
+   public int updateUser(Session session, String login, int version, String field, Object value)
+         throws SQLException, AccessDeniedException, ConcurrentUpdateException {
+      if (!session.isManager()) {
+         throw new AccessDeniedException("You do not have permission to access this.");
+      }
+      if (!Arrays.asList(EDITABLE).contains(field)) {
+         throw new IllegalArgumentException("Not an editable field: " + field);
+      }
+      int updated = _esql.executeUpdate("UPDATE Users SET " + field + " = ?, version = version + 1 " +
+                                        "WHERE login = ? AND version = ?", value, login, version);
+      if (updated == 0) {
+         User current = _esql.executeQueryForObject(IdentityMap.SELECT_USER, User.MAPPER, login);
+         throw new ConcurrentUpdateException(current == null ? "The user was deleted by someone else."
+            : "The user was changed by someone else since it was shown.", current);
+      }
+      if (field.equals("role")) {
+         _esql.roles().invalidate(login);
+      }
+      return version + 1;
+   }//end updateUser
+
+}//end JdbcUserService
@@ -0,0 +1,197 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Just enough JSON output for the server: quoting, objects built from
+ * key/value pairs and arrays.  Also reads flat objects, as in the lines of
+ * a JSONL feed.
+ *
+ */
+public class Json {
+
+   /**
+    * @return s as a JSON string literal
+    */
+   public static String quote(String s) {
+      StringBuilder out = new StringBuilder(s.length() + 2);
+      appendString(out, s);
+      return out.toString();
+   }
+
+   /**
+    * Appends a value: null, a number or boolean as is, a String[] or
+    * Object[] as an array, an already built JSON text as is, and anything
+    * else as a string.
+    */
+   public static void append(StringBuilder out, Object value) {
+      if (value == null) {
+         out.append("null");
+      } else if (value instanceof Number || value instanceof Boolean || value instanceof Raw) {
+         out.append(value.toString());
+      } else if (value instanceof Object[]) {
+         out.append('[');
+         Object[] values = (Object[]) value;
+         for (int i = 0; i < values.length; ++i) {
+            if (i > 0) out.append(',');
+            append(out, values[i]);
+         }
+         out.append(']');
+      } else {
+         appendString(out, value.toString());
+      }
+   }//end append
+
+   /**
+    * @param keysAndValues key, value, key, value, ...
+    * @return a JSON object
+    */
+   public static Raw object(Object... keysAndValues) {
+      StringBuilder out = new StringBuilder();
+      out.append('{');
+      for (int i = 0; i < keysAndValues.length; i += 2) {
+         if (i > 0) out.append(',');
+         appendString(out, keysAndValues[i].toString());
+         out.append(':');
+         append(out, keysAndValues[i + 1]);
+      }
+      out.append('}');
+      return new Raw(out.toString());
+   }//end object
+
+   /**
+    * Reads one flat object, {"key": value, ...}, whose values are strings,
+    * numbers, booleans or null.
+    *
+    * @return the values by key as text, null for a JSON null
+    * @throws IllegalArgumentException when the text is not such an object
+    */
+   public static Map<String, String> parseObject(String text) {
+      Map<String, String> out = new LinkedHashMap<String, String>();
+      int[] pos = { skipSpace(text, 0) };
+      expect(text, pos, '{');
+      if (peek(text, pos) == '}') {
+         ++pos[0];
+      } else {
+         while (true) {
+            String key = readString(text, pos);
+            expect(text, pos, ':');
+            out.put(key, readValue(text, pos));
+            char c = peek(text, pos);
+            ++pos[0];
+            if (c == '}') break;
+            if (c != ',') throw new IllegalArgumentException("Expected , or } at " + (pos[0] - 1));
+         }
+      }
+      if (skipSpace(text, pos[0]) != text.length()) {
+         throw new IllegalArgumentException("Unexpected text after the object at " + pos[0]);
+      }
+      return out;
+   }//end parseObject
+
+   private static String readValue(String text, int[] pos) {
+      char c = peek(text, pos);
+      if (c == '"') {
+         return readString(text, pos);
+      }
+      if (c == '{' || c == '[') {
+         throw new IllegalArgumentException("Nested values are not supported at " + pos[0]);
+      }
+      int start = pos[0];
+      while (pos[0] < text.length() && ",} \t\r\n".indexOf(text.charAt(pos[0])) < 0) ++pos[0];
+      String literal = text.substring(start, pos[0]);
+      if (literal.isEmpty()) {
+         throw new IllegalArgumentException("Expected a value at " + start);
+      }
+      return literal.equals("null") ? null : literal;
+   }//end readValue
+
+   private static String readString(String text, int[] pos) {
+      expect(text, pos, '"');
+      StringBuilder out = new StringBuilder();
+      while (true) {
+         if (pos[0] >= text.length()) {
+            throw new IllegalArgumentException("Unterminated string");
+         }
+         char c = text.charAt(pos[0]++);
+         if (c == '"') {
+            return out.toString();
+         }
+         if (c != '\\') {
+            out.append(c);
+            continue;
+         }
+         char e = pos[0] < text.length() ? text.charAt(pos[0]++) : ' ';
+         switch (e) {
+            case 'n': out.append('\n'); break;
+            case 'r': out.append('\r'); break;
+            case 't': out.append('\t'); break;
+            case 'b': out.append('\b'); break;
+            case 'f': out.append('\f'); break;
+            case 'u':
+               if (pos[0] + 4 > text.length()) throw new IllegalArgumentException("Bad escape at " + pos[0]);
+               out.append((char) Integer.parseInt(text.substring(pos[0], pos[0] + 4), 16));
+               pos[0] += 4;
+               break;
+            default: out.append(e);
+         }
+      }
+   }//end readString
+
+   // the next character after white space, left unread
+   private static char peek(String text, int[] pos) {
+      pos[0] = skipSpace(text, pos[0]);
+      if (pos[0] >= text.length()) {
+         throw new IllegalArgumentException("Unexpected end of text");
+      }
+      return text.charAt(pos[0]);
+   }
+
+   private static void expect(String text, int[] pos, char c) {
+      if (peek(text, pos) != c) {
+         throw new IllegalArgumentException("Expected " + c + " at " + pos[0]);
+      }
+      ++pos[0];
+   }
+
+   private static int skipSpace(String text, int i) {
+      while (i < text.length() && Character.isWhitespace(text.charAt(i))) ++i;
+      return i;
+   }
+
+   /**
+    * JSON text that is appended as is instead of being quoted.
+    */
+   public static final class Raw {
+      private final String _text;
+
+      public Raw(String text) {
+         this._text = text;
+      }
+
+      public String toString() {
+         return _text;
+      }
+   }//end Raw
+
+   private static void appendString(StringBuilder out, String s) {
+      out.append('"');
+      for (int i = 0; i < s.length(); ++i) {
+         char c = s.charAt(i);
+         switch (c) {
+            case '"': out.append("\\\""); break;
+            case '\\': out.append("\\\\"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            case '\t': out.append("\\t"); break;
+            default:
+               if (c < 0x20) {
+                  out.append(String.format("\\u%04x", (int) c));
+               } else {
+                  out.append(c);
+               }
+         }
+      }
+      out.append('"');
+   }//end appendString
+
+}//end Json
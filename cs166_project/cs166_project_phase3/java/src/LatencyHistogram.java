@@ -0,0 +1,134 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-memory histogram of latencies in nanoseconds, in the style of
+ * HdrHistogram: values are counted in log-linear buckets, 64 linear
+ * sub-buckets per power of two, so any recorded value is reported within
+ * about 1.6% and recording is a single atomic increment.  Safe to record
+ * from many threads at once.
+ *
+ */
+public class LatencyHistogram {
+
+   // values below 2^SUB_BITS get a bucket each; above that, 2^(SUB_BITS-1) buckets per power of two
+   private static final int SUB_BITS = 7;
+   private static final int HALF = 1 << (SUB_BITS - 1);
+   private static final int BUCKETS = (66 - SUB_BITS) * HALF;
+
+   private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong _total = new AtomicLong();
+   private final AtomicLong _sum = new AtomicLong();
+   private final AtomicLong _max = new AtomicLong();
+
+   /**
+    * @param nanos the latency to record; negative values count as 0
+    */
+   public void record(long nanos) {
+      long v = Math.max(0, nanos);
+      _counts.incrementAndGet(index(v));
+      _total.incrementAndGet();
+      _sum.addAndGet(v);
+      long max = _max.get();
+      while (v > max && !_max.compareAndSet(max, v)) {
+         max = _max.get();
+      }
+   }//end record
+
+   public long count() {
+      return _total.get();
+   }
+
+   public long max() {
+      return _max.get();
+   }
+
+   public long sum() {
+      return _sum.get();
+   }
+
+   public double mean() {
+      long n = _total.get();
+      return n == 0 ? 0 : (double) _sum.get() / n;
+   }
+
+   /**
+    * @param percentile between 0 and 100
+    * @return the recorded value at that percentile, to bucket precision
+    */
+   public long percentile(double percentile) {
+      long n = _total.get();
+      if (n == 0) {
+         return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += _counts.get(i);
+         if (seen >= rank) {
+            return Math.min(valueOf(i), _max.get());
+         }
+      }
+      return _max.get();
+   }//end percentile
+
+   /**
+    * Adds every value recorded in other to this histogram.
+    */
+   public void add(LatencyHistogram other) {
+      for (int i = 0; i < BUCKETS; ++i) {
+         long c = other._counts.get(i);
+         if (c != 0) {
+            _counts.addAndGet(i, c);
+         }
+      }
+      _total.addAndGet(other._total.get());
+      _sum.addAndGet(other._sum.get());
+      long max = _max.get();
+      long otherMax = other._max.get();
+      while (otherMax > max && !_max.compareAndSet(max, otherMax)) {
+         max = _max.get();
+      }
+   }//end add
+
+   /**
+    * Clears all recorded values.
+    */
+   public void reset() {
+      for (int i = 0; i < BUCKETS; ++i) {
+         _counts.set(i, 0);
+      }
+      _total.set(0);
+      _sum.set(0);
+      _max.set(0);
+   }//end reset
+
+   /**
+    * @return count, mean, p50, p90, p99 and max in microseconds
+    */
+   public String summary() {
+      return String.format("n=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus",
+         count(), mean() / 1000.0, percentile(50) / 1000.0, percentile(90) / 1000.0,
+         percentile(99) / 1000.0, max() / 1000.0);
+   }//end summary
+
+   static int index(long v) {
+      int bits = 64 - Long.numberOfLeadingZeros(v);
+      if (bits <= SUB_BITS) {
+         return (int) v;
+      }
+      int shift = bits - SUB_BITS;
+      return (shift + 1) * HALF + (int) ((v >>> shift) - HALF);
+   }//end index
+
+   // middle of the range of values that land in bucket i
+   static long valueOf(int i) {
+      if (i < 2 * HALF) {
+         return i;
+      }
+      int shift = i / HALF - 1;
+      long low = ((long) (i % HALF + HALF)) << shift;
+      return low + (1L << shift) / 2;
+   }//end valueOf
+
+}//end LatencyHistogram
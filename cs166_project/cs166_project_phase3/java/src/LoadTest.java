@@ -0,0 +1,194 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load test client for GameRentalServer.  Runs the browse and order history
+ * mix from 1 up to maxSessions concurrent sessions (1, 10, 100, 1000, ...),
+ * each session logged in as a different user from a users.csv file, and
+ * reports throughput and latency at each level.
+ *
+ *    java -cp classes LoadTest <host:port> <users.csv> [maxSessions] [secondsPerLevel]
+ *
+ * Use the users.csv the server's database was loaded from, e.g. the one
+ * written by DataGenerator.  Sessions wrap around when there are fewer users
+ * than sessions.
+ *
+ */
+public class LoadTest {
+
+   // the request mix: catalog page, price filter, recent orders, history page
+   private static final String[] PATHS = {
+      "/games?sort=asc&limit=20", "/games?maxPrice=20", "/orders/recent", "/orders/history" };
+   private static final int[] WEIGHTS = { 30, 20, 25, 25 };
+
+   private static final Pattern TOKEN = Pattern.compile("\"token\":\"([0-9a-f]+)\"");
+
+   private final String _base;
+   private final List<String[]> _users;
+
+   public LoadTest(String hostPort, List<String[]> users) {
+      this._base = "http://" + hostPort;
+      this._users = users;
+   }
+
+   public static void main (String[] args) {
+      if (args.length < 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            LoadTest.class.getName () +
+            " <host:port> <users.csv> [maxSessions] [secondsPerLevel]");
+         return;
+      }//end if
+
+      try {
+         int maxSessions = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+         int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+         // keep a connection open per session instead of the default 5
+         System.setProperty("http.maxConnections", String.valueOf(maxSessions));
+
+         LoadTest test = new LoadTest(args[0], readUsers(args[1]));
+         for (int sessions = 1; ; sessions *= 10) {
+            test.level(Math.min(sessions, maxSessions), seconds);
+            if (sessions >= maxSessions) break;
+         }
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+
+   /**
+    * Runs the mix from the given number of sessions for the given time and
+    * prints one line of results.
+    */
+   public void level(int sessions, int seconds) throws Exception {
+      final LatencyHistogram latency = new LatencyHistogram();
+      final AtomicLong errors = new AtomicLong();
+      final String[] tokens = new String[sessions];
+      for (int s = 0; s < sessions; ++s) {
+         String[] user = _users.get(s % _users.size());
+         tokens[s] = login(user[0], user[1]);
+      }
+
+      final long deadline = System.nanoTime() + seconds * 1000000000L;
+      Thread[] workers = new Thread[sessions];
+      for (int s = 0; s < sessions; ++s) {
+         final String token = tokens[s];
+         final Random random = new Random(s);
+         workers[s] = new Thread() {
+            public void run() {
+               while (System.nanoTime() < deadline) {
+                  String path = PATHS[pick(random.nextInt(100))];
+                  long start = System.nanoTime();
+                  try {
+                     if (request("GET", path, token, null) != 200) {
+                        errors.incrementAndGet();
+                     }
+                  } catch (IOException e) {
+                     errors.incrementAndGet();
+                  }
+                  latency.record(System.nanoTime() - start);
+               }
+            }
+         };
+      }
+      long start = System.nanoTime();
+      for (Thread w : workers) w.start();
+      for (Thread w : workers) w.join();
+      double elapsed = (System.nanoTime() - start) / 1e9;
+
+      for (String token : tokens) {
+         request("POST", "/logout", token, "");
+      }
+      System.out.println(String.format("sessions=%-5d %8.0f req/s  errors=%d  %s",
+         sessions, latency.count() / elapsed, errors.get(), latency.summary()));
+   }//end level
+
+   private static int pick(int roll) {
+      for (int i = 0; i < WEIGHTS.length; ++i) {
+         roll -= WEIGHTS[i];
+         if (roll < 0) return i;
+      }
+      return WEIGHTS.length - 1;
+   }
+
+   private String login(String login, String password) throws IOException {
+      String body = "login=" + URLEncoder.encode(login, "UTF-8") + "&password=" + URLEncoder.encode(password, "UTF-8");
+      StringBuilder response = new StringBuilder();
+      int status = request("POST", "/login", null, body, response);
+      Matcher m = TOKEN.matcher(response);
+      if (status != 200 || !m.find()) {
+         throw new IOException("Login failed for " + login + ": " + response);
+      }
+      return m.group(1);
+   }//end login
+
+   private int request(String method, String path, String token, String body) throws IOException {
+      return request(method, path, token, body, null);
+   }
+
+   // sends one request and reads the whole response, so the connection can be reused
+   private int request(String method, String path, String token, String body, StringBuilder response) throws IOException {
+      HttpURLConnection conn = (HttpURLConnection) new URL(_base + path).openConnection();
+      conn.setRequestMethod(method);
+      if (token != null) {
+         conn.setRequestProperty(GameRentalServer.TOKEN_HEADER, token);
+      }
+      if (body != null) {
+         conn.setDoOutput(true);
+         conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+         OutputStream out = conn.getOutputStream();
+         out.write(body.getBytes(StandardCharsets.UTF_8));
+         out.close();
+      }
+      int status = conn.getResponseCode();
+      InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      if (in != null) {
+         byte[] buffer = new byte[8192];
+         for (int n; (n = in.read(buffer)) > 0; ) {
+            bytes.write(buffer, 0, n);
+         }
+         in.close();
+      }
+      if (response != null) {
+         response.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+      }
+      return status;
+   }//end request
+
+   // login and password of every user, from the first two columns
+   static List<String[]> readUsers(String file) throws IOException {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+      try {
+         List<String[]> users = new ArrayList<String[]>();
+         BulkLoader.readRecord(reader);  // header
+         for (String record; (record = BulkLoader.readRecord(reader)) != null; ) {
+            List<String> fields = BulkLoader.parseRecord(record);
+            users.add(new String[] { fields.get(0), fields.get(1) });
+         }
+         if (users.isEmpty()) {
+            throw new IOException(file + " has no users");
+         }
+         return users;
+      } finally {
+         reader.close();
+      }
+   }//end readUsers
+
+}//end LoadTest
@@ -0,0 +1,274 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time goes: a LatencyHistogram per logical operation and per
+ * SQL template, with counts of calls, errors and rows.
+ *
+ * An operation is a call through one of the service interfaces (wrapped
+ * by instrument()), a role lookup, or an HTTP request.  Operations are
+ * tracked per thread, so every statement run while one is open adds to
+ * its round trips and rows, and every wait for a pooled connection adds
+ * to its wait time; an operation started inside another counts towards
+ * both.  This shows, for example, the round trips of placeOrder for a
+ * given cart size, or how often a permission check goes to the database.
+ *
+ * The figures accumulate from startup.  report() prints them;
+ * GameRentalServer serves them on /metrics, and with
+ * -Dmetrics.dump.seconds=N they are appended to -Dmetrics.file (default
+ * gamerental-metrics.log) every N seconds.
+ *
+ */
+public class Metrics {
+
+   static final long DUMP_SECONDS = Long.getLong("metrics.dump.seconds", 0);
+   static final String DUMP_FILE = System.getProperty("metrics.file", "gamerental-metrics.log");
+
+   // templates beyond this many are counted together, in case SQL is built with values in it
+   static final int MAX_STATEMENTS = Integer.getInteger("metrics.max.statements", 1000);
+   static final String OTHER = "(other statements)";
+
+   // the innermost open operation of each thread
+   private static final ThreadLocal<Operation> CURRENT = new ThreadLocal<Operation>();
+
+   /**
+    * The totals of one operation or SQL template.
+    */
+   static final class Stat {
+      final LatencyHistogram latency = new LatencyHistogram();
+      final AtomicLong errors = new AtomicLong();
+      final AtomicLong roundTrips = new AtomicLong();
+      final AtomicLong maxRoundTrips = new AtomicLong();
+      final AtomicLong rows = new AtomicLong();
+      final AtomicLong waitNanos = new AtomicLong();
+   }//end Stat
+
+   /**
+    * One call of an operation, open from start() to end().
+    */
+   public static final class Operation {
+      private final Stat _stat;
+      private final Operation _parent;
+      private final long _start = System.nanoTime();
+      private long _roundTrips = 0;
+      private long _rows = 0;
+      private long _waitNanos = 0;
+      private boolean _failed = true;
+
+      Operation(Stat stat, Operation parent) {
+         this._stat = stat;
+         this._parent = parent;
+      }
+
+      /**
+       * Marks the call as successful; an operation ended without it
+       * counts as an error.
+       */
+      public void succeeded() {
+         _failed = false;
+      }
+   }//end Operation
+
+   private final ConcurrentHashMap<String, Stat> _operations = new ConcurrentHashMap<String, Stat>();
+   private final ConcurrentHashMap<String, Stat> _statements = new ConcurrentHashMap<String, Stat>();
+
+   /**
+    * Opens an operation on this thread.  Always close it with end(), in a
+    * finally block.
+    *
+    * @param name the operation, e.g. "OrderService.placeOrder"
+    */
+   public Operation start(String name) {
+      Operation op = new Operation(stat(_operations, name), CURRENT.get());
+      CURRENT.set(op);
+      return op;
+   }//end start
+
+   public void end(Operation op) {
+      Stat stat = op._stat;
+      stat.latency.record(System.nanoTime() - op._start);
+      if (op._failed) stat.errors.incrementAndGet();
+      stat.roundTrips.addAndGet(op._roundTrips);
+      stat.rows.addAndGet(op._rows);
+      stat.waitNanos.addAndGet(op._waitNanos);
+      long max = stat.maxRoundTrips.get();
+      while (op._roundTrips > max && !stat.maxRoundTrips.compareAndSet(max, op._roundTrips)) {
+         max = stat.maxRoundTrips.get();
+      }
+      CURRENT.set(op._parent);
+   }//end end
+
+   /**
+    * Records one statement sent to the database.
+    *
+    * @param sql the SQL template
+    * @param startNanos System.nanoTime() when it was sent
+    * @param rows rows returned or changed, or -1 when it failed
+    */
+   public void statement(String sql, long startNanos, long rows) {
+      Stat stat = _statements.size() < MAX_STATEMENTS || _statements.containsKey(sql)
+         ? stat(_statements, sql) : stat(_statements, OTHER);
+      stat.latency.record(System.nanoTime() - startNanos);
+      if (rows < 0) {
+         stat.errors.incrementAndGet();
+      } else {
+         stat.rows.addAndGet(rows);
+      }
+      for (Operation op = CURRENT.get(); op != null; op = op._parent) {
+         ++op._roundTrips;
+         op._rows += Math.max(0, rows);
+      }
+   }//end statement
+
+   /**
+    * Adds the time spent waiting for a pooled connection to the operations
+    * open on this thread.
+    */
+   static void waited(long nanos) {
+      for (Operation op = CURRENT.get(); op != null; op = op._parent) {
+         op._waitNanos += nanos;
+      }
+   }//end waited
+
+   /**
+    * Wraps a service so that every method call through the interface is
+    * an operation named Interface.method.
+    *
+    * @param type the service interface
+    * @param target the implementation
+    * @return a proxy implementing type
+    */
+   public <T> T instrument(final Class<T> type, final T target) {
+      final String prefix = type.getSimpleName() + ".";
+      return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+         new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+               if (method.getDeclaringClass() == Object.class) {
+                  return method.invoke(target, args);
+               }
+               Operation op = start(prefix + method.getName());
+               try {
+                  Object result = method.invoke(target, args);
+                  op.succeeded();
+                  return result;
+               } catch (InvocationTargetException e) {
+                  throw e.getCause();
+               } finally {
+                  end(op);
+               }
+            }
+         }));
+   }//end instrument
+
+   /**
+    * Prints the operations, the statements and the connection waits of the
+    * pool, slowest total first.
+    */
+   public void report(PrintWriter out, ConnectionPool pool) {
+      out.println("# operations");
+      out.println(String.format("%-40s %8s %6s %9s %5s %9s %10s  %s",
+         "operation", "calls", "errors", "trips/op", "max", "rows/op", "wait ms", "latency"));
+      for (Map.Entry<String, Stat> e : byTotalTime(_operations)) {
+         Stat s = e.getValue();
+         long calls = Math.max(1, s.latency.count());
+         out.println(String.format("%-40s %8d %6d %9.2f %5d %9.1f %10.1f  %s",
+            e.getKey(), s.latency.count(), s.errors.get(), (double) s.roundTrips.get() / calls,
+            s.maxRoundTrips.get(), (double) s.rows.get() / calls, s.waitNanos.get() / 1e6,
+            s.latency.summary()));
+      }
+      out.println("# statements");
+      out.println(String.format("%8s %6s %10s  %-72s  %s", "calls", "errors", "rows", "sql", "latency"));
+      for (Map.Entry<String, Stat> e : byTotalTime(_statements)) {
+         Stat s = e.getValue();
+         out.println(String.format("%8d %6d %10d  %-72s  %s",
+            s.latency.count(), s.errors.get(), s.rows.get(), abbreviate(e.getKey(), 72), s.latency.summary()));
+      }
+      if (pool != null) {
+         out.println("# connection pool");
+         out.println(String.format("size=%d acquire wait %s", pool.size(), pool.waits().summary()));
+      }
+      out.flush();
+   }//end report
+
+   /**
+    * Appends report() to DUMP_FILE every seconds on a daemon thread.
+    *
+    * @return the scheduler, to shut down when done
+    */
+   public ScheduledExecutorService dumpEvery(long seconds, final ConnectionPool pool) {
+      ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      scheduler.scheduleAtFixedRate(new Runnable() {
+         public void run() {
+            dump(pool);
+         }
+      }, seconds, seconds, TimeUnit.SECONDS);
+      return scheduler;
+   }//end dumpEvery
+
+   /**
+    * Appends report() to DUMP_FILE once.
+    */
+   public void dump(ConnectionPool pool) {
+      try {
+         PrintWriter out = new PrintWriter(new FileWriter(DUMP_FILE, true));
+         try {
+            out.println("## " + new Date());
+            report(out, pool);
+         } finally {
+            out.close();
+         }
+      } catch (IOException e) {
+         System.err.println("Cannot write metrics: " + e.getMessage());
+      }
+   }//end dump
+
+   private static Stat stat(ConcurrentHashMap<String, Stat> stats, String name) {
+      Stat stat = stats.get(name);
+      if (stat == null) {
+         Stat created = new Stat();
+         stat = stats.putIfAbsent(name, created);
+         if (stat == null) stat = created;
+      }
+      return stat;
+   }//end stat
+
+   private static List<Map.Entry<String, Stat>> byTotalTime(Map<String, Stat> stats) {
+      List<Map.Entry<String, Stat>> entries = new ArrayList<Map.Entry<String, Stat>>(stats.entrySet());
+      Collections.sort(entries, new Comparator<Map.Entry<String, Stat>>() {
+         public int compare(Map.Entry<String, Stat> a, Map.Entry<String, Stat> b) {
+            return Long.compare(b.getValue().latency.sum(), a.getValue().latency.sum());
+         }
+      });
+      return entries;
+   }//end byTotalTime
+
+   // the SQL on one line, cut to width
+   private static String abbreviate(String sql, int width) {
+      String line = sql.replaceAll("\\s+", " ").trim();
+      return line.length() <= width ? line : line.substring(0, width - 3) + "...";
+   }
+
+}//end Metrics
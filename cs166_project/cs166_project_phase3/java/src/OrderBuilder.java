@@ -0,0 +1,266 @@
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Collects the games of a rental order in memory and writes the whole order
+ * in one transaction: a single price lookup for every game in the cart, the
+ * reservation of the copies (sql/src/create_inventory.sql), the RentalOrder
+ * row with its final totals, the GamesInOrder rows as one JDBC batch, and
+ * the TrackingInfo row with the first event of the order's tracking log.
+ * Either all of them are stored or none.
+ *
+ */
+public class OrderBuilder {
+
+   /**
+    * What place() stored.
+    */
+   public static final class Result {
+      public final String rentalOrderID;
+      public final String trackingID;
+      public final int noOfGames;
+      public final BigDecimal totalPrice;
+
+      Result(String rentalOrderID, String trackingID, int noOfGames, BigDecimal totalPrice) {
+         this.rentalOrderID = rentalOrderID;
+         this.trackingID = trackingID;
+         this.noOfGames = noOfGames;
+         this.totalPrice = totalPrice;
+      }
+   }//end Result
+
+   static final String INSERT_ORDER =
+      "INSERT INTO RentalOrder(rentalOrderID, login, noOfGames, totalPrice, orderTimestamp, dueDate) VALUES (?, ?, ?, ?, ?, ?)";
+   static final String INSERT_GAMES =
+      "INSERT INTO GamesInOrder(rentalOrderID, gameID, unitsOrdered) VALUES (?, ?, ?)";
+   // the first tracking state, and the same state as the first event of the tracking log
+   static final String INSERT_TRACKING =
+      "WITH t AS (INSERT INTO TrackingInfo(trackingID, rentalOrderID, status, currentLocation, courierName, lastUpdateDate, additionalComments) " +
+      "VALUES (?, ?, 'Processing', 'Los Angeles, CA', 'USPS', ?, '') " +
+      "RETURNING trackingID, lastUpdateDate, status, currentLocation, courierName, additionalComments) " +
+      "INSERT INTO TrackingEvent (trackingID, eventTime, status, currentLocation, courierName, additionalComments, source) " +
+      "SELECT trackingID, lastUpdateDate, status, currentLocation, courierName, additionalComments, 'order' FROM t";
+
+   // gameID -> units, in the order the games were added
+   private final Map<String, Integer> _lines = new LinkedHashMap<String, Integer>();
+
+   /**
+    * Adds units of a game to the cart.  Adding a game twice adds up the
+    * units, since an order holds one GamesInOrder row per game.
+    *
+    * @param gameID the game to rent
+    * @param units how many copies
+    * @return this builder
+    */
+   public OrderBuilder add(String gameID, int units) {
+      if (units <= 0) {
+         throw new IllegalArgumentException("Number of units must be positive");
+      }
+      Integer current = _lines.get(gameID);
+      _lines.put(gameID, current == null ? units : current + units);
+      return this;
+   }//end add
+
+   public boolean isEmpty() {
+      return _lines.isEmpty();
+   }
+
+   /**
+    * @return the gameIDs in the cart, in the order they were added
+    */
+   public Set<String> gameIDs() {
+      return Collections.unmodifiableSet(_lines.keySet());
+   }
+
+   /**
+    * @return the number of distinct games in the cart
+    */
+   public int lineCount() {
+      return _lines.size();
+   }
+
+   /**
+    * Stores the order for the given user.
+    *
+    * @param esql the database to write to
+    * @param login the user placing the order
+    * @param orderTimestamp when the order was placed
+    * @param dueDate when the games are due back
+    * @return the IDs and totals of the stored order
+    * @throws OutOfStockException when fewer copies of a game are available
+    *         than ordered
+    * @throws java.sql.SQLException when a game does not exist or a write
+    *         fails; nothing is stored in that case
+    */
+   public Result place(GameRental esql, String login, Timestamp orderTimestamp, Timestamp dueDate) throws SQLException {
+      if (_lines.isEmpty()) {
+         throw new IllegalStateException("The order has no games");
+      }
+      Metrics metrics = esql.metrics();
+      Metrics.Operation op = metrics.start("OrderBuilder.place " + sizeClass(_lines.size()) + " games");
+      try {
+         String orderID = esql.rentalOrderIds().next();
+         String trackingID = esql.trackingIds().next();
+         esql.trackingLog().ensurePartition(orderTimestamp);
+
+         PooledConnection pc = esql.pool().acquire();
+         try {
+            Connection conn = pc.connection();
+            conn.setAutoCommit(false);
+
+            // reserved and written in gameID order, so two orders lock the
+            // stripes and rows of games they share in the same order
+            Map<String, Integer> lines = new TreeMap<String, Integer>(_lines);
+            Map<String, BigDecimal> prices = lookupPrices(esql, pc);
+            int noOfGames = 0;
+            BigDecimal totalPrice = BigDecimal.ZERO;
+            for (Map.Entry<String, Integer> line : _lines.entrySet()) {
+               BigDecimal price = prices.get(line.getKey());
+               if (price == null) {
+                  throw new SQLException("Game ID not found: " + line.getKey());
+               }
+               noOfGames += line.getValue();
+               totalPrice = totalPrice.add(price.multiply(BigDecimal.valueOf(line.getValue())));
+            }
+            reserve(esql, pc, lines);
+
+            PreparedStatement order = pc.prepare(INSERT_ORDER);
+            Object[] orderParams = { orderID, login, noOfGames, totalPrice, orderTimestamp, dueDate };
+            GameRental.bind(order, orderParams);
+            long start = System.nanoTime();
+            esql.statementDone(INSERT_ORDER, orderParams, start, order.executeUpdate());
+
+            PreparedStatement games = pc.prepare(INSERT_GAMES);
+            for (Map.Entry<String, Integer> line : lines.entrySet()) {
+               GameRental.bind(games, orderID, line.getKey(), line.getValue());
+               games.addBatch();
+            }
+            start = System.nanoTime();
+            games.executeBatch();
+            esql.statementDone(INSERT_GAMES, null, start, _lines.size());
+
+            PreparedStatement tracking = pc.prepare(INSERT_TRACKING);
+            Object[] trackingParams = { trackingID, orderID, orderTimestamp };
+            GameRental.bind(tracking, trackingParams);
+            start = System.nanoTime();
+            esql.statementDone(INSERT_TRACKING, trackingParams, start, tracking.executeUpdate());
+
+            start = System.nanoTime();
+            conn.commit();
+            esql.statementDone("COMMIT", null, start, 0);
+            op.succeeded();
+            return new Result(orderID, trackingID, noOfGames, totalPrice);
+         } finally {
+            // rolls back anything left uncommitted
+            esql.pool().release(pc);
+         }
+      } finally {
+         metrics.end(op);
+      }
+   }//end place
+
+   // 1, 2-4, 5-16 or 17+, so the round trips of small and large carts are reported apart
+   private static String sizeClass(int lines) {
+      return lines == 1 ? "1" : lines <= 4 ? "2-4" : lines <= 16 ? "5-16" : "17+";
+   }
+
+   /*
+    * Reserves the copies of every game in the cart with one statement,
+    * calling reserve_units() once per game, in the gameID order of lines.
+    * The VALUES list is padded like the price
+    * lookup's, with zero units of the last game.
+    */
+   private static void reserve(GameRental esql, PooledConnection pc, Map<String, Integer> lines) throws SQLException {
+      int slots = Integer.highestOneBit(lines.size());
+      if (slots < lines.size()) {
+         slots <<= 1;
+      }
+      StringBuilder sql = new StringBuilder("SELECT v.gameID FROM (VALUES (CAST(? AS varchar), CAST(? AS integer))");
+      for (int i = 1; i < slots; ++i) {
+         sql.append(", (?, ?)");
+      }
+      sql.append(") AS v(gameID, units) WHERE NOT reserve_units(v.gameID, v.units, ?)");
+
+      Object[] params = new Object[2 * slots + 1];
+      int i = 0;
+      String last = null;
+      for (Map.Entry<String, Integer> line : lines.entrySet()) {
+         params[i++] = last = line.getKey();
+         params[i++] = line.getValue();
+      }
+      while (i < 2 * slots) {
+         params[i++] = last;
+         params[i++] = 0;
+      }
+      // the stripe each game is taken from first
+      params[i] = ThreadLocalRandom.current().nextInt(1 << 16);
+
+      PreparedStatement stmt = pc.prepare(sql.toString());
+      GameRental.bind(stmt, params);
+      List<String> shortGames = new ArrayList<String>();
+      long start = System.nanoTime();
+      ResultSet rs = stmt.executeQuery();
+      try {
+         while (rs.next()) {
+            shortGames.add(rs.getString(1));
+         }
+      } finally {
+         rs.close();
+      }
+      esql.statementDone(sql.toString(), params, start, shortGames.size());
+      if (!shortGames.isEmpty()) {
+         throw new OutOfStockException(shortGames);
+      }
+   }//end reserve
+
+   /*
+    * Reads the price of every game in the cart with one query.  The IN list
+    * is padded to the next power of two by repeating the last ID, so carts
+    * of any size share a handful of cached statement templates.
+    */
+   private Map<String, BigDecimal> lookupPrices(GameRental esql, PooledConnection pc) throws SQLException {
+      String[] ids = _lines.keySet().toArray(new String[0]);
+      int slots = Integer.highestOneBit(ids.length);
+      if (slots < ids.length) {
+         slots <<= 1;
+      }
+      StringBuilder sql = new StringBuilder("SELECT gameID, price FROM Catalog WHERE gameID IN (?");
+      for (int i = 1; i < slots; ++i) {
+         sql.append(", ?");
+      }
+      sql.append(')');
+
+      Object[] params = new Object[slots];
+      for (int i = 0; i < slots; ++i) {
+         params[i] = ids[Math.min(i, ids.length - 1)];
+      }
+      PreparedStatement stmt = pc.prepare(sql.toString());
+      GameRental.bind(stmt, params);
+      Map<String, BigDecimal> prices = new HashMap<String, BigDecimal>();
+      long start = System.nanoTime();
+      ResultSet rs = stmt.executeQuery();
+      try {
+         while (rs.next()) {
+            prices.put(rs.getString(1), rs.getBigDecimal(2));
+         }
+      } finally {
+         rs.close();
+      }
+      esql.statementDone(sql.toString(), params, start, prices.size());
+      return prices;
+   }//end lookupPrices
+
+}//end OrderBuilder
@@ -0,0 +1,116 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Pages through a user's rental history with keyset (seek) pagination on
+ * (orderTimestamp, rentalOrderID).  Each page reads the next pageSize
+ * orders after the last one shown, so a page costs the same no matter how
+ * deep into the history it is, and only one page of rows is ever held.
+ * The orders are joined to their lines with outer joins, so an order whose
+ * games were all deleted from the Catalog still moves the key and counts
+ * toward the page; it just has no lines to show.
+ *
+ */
+public class OrderHistoryPager {
+
+   private static final String SELECT_LINES =
+      "SELECT r1.rentalOrderID, c.gameName, r1.orderTimestamp, r1.dueDate " +
+      "FROM (SELECT rentalOrderID, orderTimestamp, dueDate FROM RentalOrder " +
+            "WHERE login = ? %s" +
+            "ORDER BY orderTimestamp, rentalOrderID LIMIT ?) r1 " +
+      "LEFT JOIN GamesInOrder gm ON r1.rentalOrderID = gm.rentalOrderID " +
+      "LEFT JOIN Catalog c ON gm.gameID = c.gameID " +
+      "ORDER BY r1.orderTimestamp, r1.rentalOrderID";
+
+   static final String FIRST_PAGE = String.format(SELECT_LINES, "");
+   static final String NEXT_PAGE = String.format(SELECT_LINES,
+      "AND (orderTimestamp, rentalOrderID) > (?, ?) ");
+
+   private final String _login;
+   private final int _pageSize;
+
+   // key of the last order returned so far, null before the first page
+   private Timestamp _lastTimestamp = null;
+   private String _lastOrderID = null;
+   private boolean _done = false;
+
+   public OrderHistoryPager(String login, int pageSize) {
+      this._login = login;
+      this._pageSize = pageSize;
+   }
+
+   /**
+    * Resumes after the order with the given key, as returned by
+    * lastTimestamp() and lastOrderID() of an earlier pager.  Lets a
+    * stateless caller hand the key to its client and page on later.
+    */
+   public OrderHistoryPager(String login, int pageSize, Timestamp afterTimestamp, String afterOrderID) {
+      this(login, pageSize);
+      this._lastTimestamp = afterTimestamp;
+      this._lastOrderID = afterOrderID;
+   }
+
+   /**
+    * @return orderTimestamp of the last order returned, null before the first page
+    */
+   public Timestamp lastTimestamp() {
+      return _lastTimestamp;
+   }
+
+   /**
+    * @return rentalOrderID of the last order returned, null before the first page
+    */
+   public String lastOrderID() {
+      return _lastOrderID;
+   }
+
+   /**
+    * @return false once a page came back with fewer than pageSize orders
+    */
+   public boolean hasMore() {
+      return !_done;
+   }
+
+   /**
+    * Streams the order lines of the next page of orders to the handler.
+    * The columns are rentalOrderID, gameName, orderTimestamp, dueDate.
+    *
+    * @param esql the database to read from
+    * @param handler receives each order line
+    * @return the number of order lines on the page
+    * @throws java.sql.SQLException when the query fails
+    */
+   public int nextPage(GameRental esql, final RowHandler handler) throws SQLException {
+      if (_done) {
+         return 0;
+      }
+      // {orders, order lines}
+      final int[] counts = { 0, 0 };
+      RowHandler tracker = new RowHandler() {
+         public void row(ResultSet rs) throws SQLException {
+            String orderID = rs.getString(1);
+            if (!orderID.equals(_lastOrderID)) {
+               ++counts[0];
+               _lastOrderID = orderID;
+               _lastTimestamp = rs.getTimestamp(3);
+            }
+            // an order without lines comes back as one row without a game
+            if (rs.getString(2) != null) {
+               ++counts[1];
+               handler.row(rs);
+            }
+         }
+      };
+      if (_lastOrderID == null) {
+         esql.executeQueryAndStream(FIRST_PAGE, tracker, _login, _pageSize);
+      } else {
+         esql.executeQueryAndStream(NEXT_PAGE, tracker, _login, _lastTimestamp, _lastOrderID, _pageSize);
+      }
+      if (counts[0] < _pageSize) {
+         _done = true;
+      }
+      return counts[1];
+   }//end nextPage
+
+}//end OrderHistoryPager
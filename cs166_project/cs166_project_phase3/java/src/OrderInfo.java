@@ -0,0 +1,15 @@
+/**
+ * A rental order together with its tracking state.
+ *
+ */
+public final class OrderInfo {
+
+   public final RentalOrder order;
+   public final TrackingEvent tracking;
+
+   public OrderInfo(RentalOrder order, TrackingEvent tracking) {
+      this.order = order;
+      this.tracking = tracking;
+   }
+
+}//end OrderInfo
@@ -0,0 +1,34 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * One game of a rental order, as listed by the recent orders and order
+ * history views.
+ *
+ */
+public final class OrderLine {
+
+   /**
+    * Maps rentalOrderID, gameName, orderTimestamp, dueDate, in that order,
+    * as selected by JdbcOrderService.RECENT_ORDERS_QUERY and OrderHistoryPager.
+    */
+   public static final RowMapper<OrderLine> MAPPER = new RowMapper<OrderLine>() {
+      public OrderLine map(ResultSet rs) throws SQLException {
+         return new OrderLine(rs.getString(1), rs.getString(2), rs.getTimestamp(3), rs.getTimestamp(4));
+      }
+   };
+
+   public final String rentalOrderID;
+   public final String gameName;
+   public final Timestamp orderTimestamp;
+   public final Timestamp dueDate;
+
+   public OrderLine(String rentalOrderID, String gameName, Timestamp orderTimestamp, Timestamp dueDate) {
+      this.rentalOrderID = rentalOrderID;
+      this.gameName = gameName;
+      this.orderTimestamp = orderTimestamp;
+      this.dueDate = dueDate;
+   }
+
+}//end OrderLine
@@ -0,0 +1,24 @@
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * One page of a user's order history.  When hasMore is set, the next page
+ * is read by passing lastTimestamp and lastOrderID back to
+ * OrderService.historyPage.
+ *
+ */
+public final class OrderPage {
+
+   public final List<OrderLine> lines;
+   public final boolean hasMore;
+   public final Timestamp lastTimestamp;
+   public final String lastOrderID;
+
+   public OrderPage(List<OrderLine> lines, boolean hasMore, Timestamp lastTimestamp, String lastOrderID) {
+      this.lines = lines;
+      this.hasMore = hasMore;
+      this.lastTimestamp = lastTimestamp;
+      this.lastOrderID = lastOrderID;
+   }
+
+}//end OrderPage
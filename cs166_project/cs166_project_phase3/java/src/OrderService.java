@@ -0,0 +1,45 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Placing rental orders and reading them back.
+ *
+ */
+public interface OrderService {
+
+   /**
+    * Stores the order with a new rental order ID and tracking ID.
+    *
+    * @param login the user renting the games
+    * @param cart the games and units to rent
+    * @return what was stored
+    * @throws java.sql.SQLException when a game does not exist or the order cannot be stored
+    */
+   OrderBuilder.Result placeOrder(String login, OrderBuilder cart) throws SQLException;
+
+   /**
+    * @return the user's 5 most recent order lines, newest first
+    * @throws java.sql.SQLException when the query fails
+    */
+   List<OrderLine> recentOrders(String login) throws SQLException;
+
+   /**
+    * @param login the user whose history to read
+    * @param afterTimestamp lastTimestamp of the previous page, or null for the first page
+    * @param afterOrderID lastOrderID of the previous page
+    * @param pageSize orders per page
+    * @return the next page of the user's orders, oldest first
+    * @throws java.sql.SQLException when the query fails
+    */
+   OrderPage historyPage(String login, Timestamp afterTimestamp, String afterOrderID, int pageSize)
+      throws SQLException;
+
+   /**
+    * @return the order with its tracking state, or null if there is no such order
+    * @throws AccessDeniedException when a customer asks for another user's order
+    * @throws java.sql.SQLException when the query fails
+    */
+   OrderInfo orderInfo(Session session, String rentalOrderID) throws SQLException, AccessDeniedException;
+
+}//end OrderService
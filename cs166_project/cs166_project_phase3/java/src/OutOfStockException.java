@@ -0,0 +1,28 @@
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by OrderBuilder.place() when the store has fewer copies of a game
+ * available than the order asks for.  Nothing of the order is stored.
+ *
+ */
+public class OutOfStockException extends SQLException {
+
+   private static final long serialVersionUID = 1L;
+
+   private final List<String> _gameIDs;
+
+   public OutOfStockException(List<String> gameIDs) {
+      super("Not enough copies available of game " + String.join(", ", gameIDs));
+      this._gameIDs = Collections.unmodifiableList(gameIDs);
+   }
+
+   /**
+    * @return the games of the order that are short
+    */
+   public List<String> gameIDs() {
+      return _gameIDs;
+   }
+
+}//end OutOfStockException
@@ -0,0 +1,247 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recomputes Users.numOverDueGames.  The policy: a user's overdue games are
+ * the games of their orders whose dueDate has passed and whose latest
+ * tracking state (TrackingInfo.status) is 'Delivered', i.e. the games are
+ * with the user and have not come back.  An order still on its way (any
+ * other status) is late through no fault of the user, and one that is
+ * 'Returned to Sender' is back in stock, the same states Inventory counts
+ * as reserved and available.  An order without a tracking row is not
+ * counted.
+ *
+ * The job owns the count: a value a manager sets by hand holds until the
+ * job next recounts that user.
+ *
+ *    java -cp classes:lib/pg73jdbc3.jar OverdueJob <dbname> <port> <user> [full]
+ *
+ * Counts only change when time passes a dueDate or an order's tracking
+ * state changes, so a run only looks at the users with an order that fell
+ * due since the last run, and the users with a tracking event recorded
+ * since then on an order already due: the watermark in JobWatermark.
+ * Events are found by TrackingEvent.recordedAt, which the database sets,
+ * not by eventTime, which comes from the application or the courier and
+ * may be long past when the event arrives.  The event window reaches
+ * -Doverdue.overlap.seconds (default 300) back before the watermark, for
+ * events written by transactions that had not committed when the last run
+ * read them.  Those users are recounted -Doverdue.chunk (default 1000) at
+ * a time, with one UPDATE per chunk that counts the chunk in the database
+ * and writes only the rows whose count changed.  The first run, or a run with "full", recounts every
+ * user, which also picks up orders deleted after falling due.
+ *
+ * GameRentalServer runs the job every -Doverdue.interval.minutes when set.
+ *
+ */
+public class OverdueJob implements Runnable {
+
+   static final String JOB = "overdue";
+   static final int CHUNK = Integer.getInteger("overdue.chunk", 1000);
+   static final long OVERLAP_MS = Long.getLong("overdue.overlap.seconds", 300) * 1000;
+
+   static final String OVERDUE_COUNT =
+      "UPDATE Users u SET numOverDueGames = c.overdue, version = u.version + 1 " +
+      "FROM (SELECT l.login, " +
+      "             (SELECT COALESCE(SUM(r.noOfGames), 0) FROM RentalOrder r " +
+      "               WHERE r.login = l.login AND r.dueDate <= ? " +
+      "                 AND EXISTS (SELECT 1 FROM TrackingInfo t " +
+      "                              WHERE t.rentalOrderID = r.rentalOrderID " +
+      "                                AND t.status = 'Delivered')) AS overdue " +
+      "        FROM Users l WHERE %s) c " +
+      "WHERE u.login = c.login AND u.numOverDueGames IS DISTINCT FROM c.overdue";
+
+   // every user, a chunk of the login order at a time
+   static final String COUNT_RANGE = String.format(OVERDUE_COUNT, "l.login > ? AND l.login <= ?");
+   static final String NEXT_RANGE =
+      "SELECT MAX(login), COUNT(*) FROM (SELECT login FROM Users WHERE login > ? ORDER BY login LIMIT ?) c";
+
+   // the users with an order due in the window, or with a tracking event
+   // recorded in the (overlapped) window on an order due by its end
+   static final String DUE_USERS =
+      "SELECT login FROM RentalOrder WHERE dueDate > ? AND dueDate <= ? " +
+      "UNION " +
+      "SELECT r.login FROM TrackingEvent e " +
+      "JOIN TrackingInfo t ON t.trackingID = e.trackingID " +
+      "JOIN RentalOrder r ON r.rentalOrderID = t.rentalOrderID " +
+      "WHERE e.recordedAt > ? AND e.recordedAt <= ? AND r.dueDate <= ? " +
+      "ORDER BY 1";
+
+   static final String SELECT_WATERMARK = "SELECT watermark FROM JobWatermark WHERE job = ?";
+   static final String SAVE_WATERMARK =
+      "INSERT INTO JobWatermark AS w (job, watermark, lastRun, rowsProcessed, rowsChanged) " +
+      "VALUES (?, ?, LOCALTIMESTAMP, ?, ?) " +
+      "ON CONFLICT (job) DO UPDATE SET watermark = EXCLUDED.watermark, lastRun = EXCLUDED.lastRun, " +
+      "rowsProcessed = EXCLUDED.rowsProcessed, rowsChanged = EXCLUDED.rowsChanged";
+
+   private static final RowMapper<Timestamp> TIMESTAMP = new RowMapper<Timestamp>() {
+      public Timestamp map(ResultSet rs) throws SQLException {
+         return rs.getTimestamp(1);
+      }
+   };
+
+   /**
+    * What one run did.
+    */
+   public static final class Report {
+      public final boolean full;
+      public final Timestamp from;
+      public final Timestamp to;
+      public final long processed;
+      public final long changed;
+      public final long millis;
+
+      Report(boolean full, Timestamp from, Timestamp to, long processed, long changed, long millis) {
+         this.full = full;
+         this.from = from;
+         this.to = to;
+         this.processed = processed;
+         this.changed = changed;
+         this.millis = millis;
+      }
+
+      public String toString() {
+         return String.format("%s overdue run up to %s: %d users processed, %d rows changed in %.2f s",
+            full ? "Full" : "Incremental", to, processed, changed, millis / 1000.0);
+      }
+   }//end Report
+
+   private final GameRental _esql;
+
+   public OverdueJob(GameRental esql) {
+      this._esql = esql;
+   }
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            OverdueJob.class.getName () +
+            " <dbname> <port> <user> [full]");
+         return;
+      }//end if
+
+      GameRental esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new GameRental (args[0], args[1], args[2], "");
+         boolean full = args.length > 3 && args[3].equals("full");
+         System.out.println(new OverdueJob(esql).runOnce(full));
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) esql.cleanup ();
+      }
+   }//end main
+
+   /**
+    * Runs the job every intervalMinutes on a daemon thread, one run at a
+    * time, printing each report.
+    *
+    * @return the scheduler, to shut down when done
+    */
+   public static ScheduledExecutorService schedule(GameRental esql, long intervalMinutes) {
+      ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "overdue-job");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      scheduler.scheduleWithFixedDelay(new OverdueJob(esql), 0, intervalMinutes, TimeUnit.MINUTES);
+      return scheduler;
+   }//end schedule
+
+   // a failed run is reported and retried at the next interval
+   public void run() {
+      try {
+         System.out.println(runOnce(false));
+      } catch (SQLException e) {
+         System.err.println("Overdue run failed: " + e.getMessage());
+      }
+   }//end run
+
+   /**
+    * Recounts the users with an order due or a tracking event since the
+    * watermark, or every user when full or when the job has never run,
+    * then moves the watermark to the database's current time.
+    *
+    * @param full recount every user
+    * @return what the run did
+    * @throws java.sql.SQLException when a query fails; the watermark is
+    *         then left where it was, so the next run covers the window again
+    */
+   public Report runOnce(boolean full) throws SQLException {
+      Metrics.Operation op = _esql.metrics().start("OverdueJob.run");
+      try {
+         long start = System.nanoTime();
+         Timestamp now = _esql.executeQueryForObject("SELECT LOCALTIMESTAMP", TIMESTAMP);
+         Timestamp from = _esql.executeQueryForObject(SELECT_WATERMARK, TIMESTAMP, JOB);
+         full = full || from == null;
+
+         long[] counts = full ? recountAll(now) : recountDue(from, now);
+         _esql.executeUpdate(SAVE_WATERMARK, JOB, now, counts[0], counts[1]);
+         op.succeeded();
+         return new Report(full, from, now, counts[0], counts[1], (System.nanoTime() - start) / 1000000);
+      } finally {
+         _esql.metrics().end(op);
+      }
+   }//end runOnce
+
+   // {processed, changed}
+   private long[] recountAll(Timestamp now) throws SQLException {
+      long processed = 0;
+      long changed = 0;
+      String after = "";
+      while (true) {
+         String[] range = _esql.executeQueryForObject(NEXT_RANGE, new RowMapper<String[]>() {
+            public String[] map(ResultSet rs) throws SQLException {
+               return new String[] { rs.getString(1), rs.getString(2) };
+            }
+         }, after, CHUNK);
+         if (range == null || range[0] == null) {
+            break;
+         }
+         changed += _esql.executeUpdate(COUNT_RANGE, now, after, range[0]);
+         processed += Long.parseLong(range[1]);
+         after = range[0];
+      }
+      return new long[] { processed, changed };
+   }//end recountAll
+
+   // {processed, changed}
+   private long[] recountDue(Timestamp from, Timestamp now) throws SQLException {
+      Timestamp recordedFrom = new Timestamp(from.getTime() - OVERLAP_MS);
+      List<String> logins = _esql.executeQueryForList(DUE_USERS, RowMapper.STRING, from, now, recordedFrom, now, now);
+
+      // every chunk binds CHUNK logins, so all of them share one cached
+      // statement; the last chunk repeats its last login
+      String countChunk = String.format(OVERDUE_COUNT, "l.login IN (" + placeholders(CHUNK) + ")");
+      long changed = 0;
+      Object[] params = new Object[CHUNK + 1];
+      params[0] = now;
+      for (int i = 0; i < logins.size(); i += CHUNK) {
+         for (int j = 0; j < CHUNK; ++j) {
+            params[j + 1] = logins.get(Math.min(i + j, logins.size() - 1));
+         }
+         changed += _esql.executeUpdate(countChunk, params);
+      }
+      return new long[] { logins.size(), changed };
+   }//end recountDue
+
+   private static String placeholders(int n) {
+      StringBuilder sb = new StringBuilder(n * 2);
+      for (int i = 0; i < n; ++i) {
+         if (i > 0) sb.append(',');
+         sb.append('?');
+      }
+      return sb.toString();
+   }//end placeholders
+
+}//end OverdueJob
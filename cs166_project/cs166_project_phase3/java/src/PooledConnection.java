@@ -0,0 +1,91 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One physical connection owned by a ConnectionPool together with its cache
+ * of prepared statements.  Statements are keyed by their SQL template, so a
+ * template is prepared once per connection and re-bound on every later call.
+ * A PooledConnection is only ever used by the thread that acquired it.
+ *
+ */
+public class PooledConnection {
+
+   private final Connection _connection;
+   private final Map<String, PreparedStatement> _statements;
+
+   PooledConnection(Connection connection, final int cacheSize) {
+      this._connection = connection;
+      // access-ordered map, so the least recently used statement is evicted
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > cacheSize) {
+               closeQuietly(eldest.getValue());
+               return true;
+            }
+            return false;
+         }
+      };
+   }//end PooledConnection
+
+   /**
+    * Returns the cached statement for the given template, preparing it on
+    * first use.  Parameters from a previous call are cleared.
+    *
+    * @param sql the SQL template with ? placeholders
+    * @return a prepared statement owned by this connection; do not close it
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement stmt = _statements.get(sql);
+      if (stmt == null) {
+         stmt = _connection.prepareStatement(sql);
+         _statements.put(sql, stmt);
+      } else {
+         stmt.clearParameters();
+      }
+      return stmt;
+   }//end prepare
+
+   /**
+    * @return the underlying physical connection
+    */
+   public Connection connection() {
+      return _connection;
+   }
+
+   // puts the connection back into autocommit mode before it is reused
+   void reset() {
+      try {
+         if (!_connection.getAutoCommit()) {
+            _connection.rollback();
+            _connection.setAutoCommit(true);
+         }
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }//end reset
+
+   void close() {
+      for (PreparedStatement stmt : _statements.values()) {
+         closeQuietly(stmt);
+      }
+      _statements.clear();
+      try {
+         _connection.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }//end close
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      try {
+         stmt.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }
+
+}//end PooledConnection
@@ -0,0 +1,31 @@
+import java.sql.SQLException;
+
+/**
+ * "Recommended for you": games picked from what other users rented along
+ * with the user's own rentals and favorite games.
+ *
+ */
+public interface RecommendationService {
+
+   /**
+    * @param login the user
+    * @param limit the most games to return
+    * @return games the user has not rented or named as a favorite, best first
+    * @throws java.sql.SQLException when the rental history cannot be loaded
+    */
+   CatalogCache.Rows recommendedFor(String login, int limit) throws SQLException;
+
+   /**
+    * Called after an order is stored, so its games count at once.
+    */
+   void ordered(String login, OrderBuilder cart);
+
+   /**
+    * Called after a user's favorite games are changed.
+    *
+    * @param favGames the new comma separated list of game names
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   void favoritesChanged(String login, String favGames) throws SQLException;
+
+}//end RecommendationService
@@ -0,0 +1,297 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Item-item recommendations from rental co-occurrence, held in memory.
+ *
+ * Games are numbered 0..n-1 as they are first seen.  For every game the
+ * recommender keeps a sparse row of the games rented by the same users
+ * and how many users rented both, in an open addressing int to int map,
+ * and for every user the set of games they have rented.  Recording a
+ * rental only touches the rows of the games that user has rented before,
+ * so the matrix stays current without being rebuilt.
+ *
+ * A user's recommendations are the games that co-occur with their rentals
+ * and their favorite games, scored by cosine similarity (users who rented
+ * both over the geometric mean of the users who rented each), with the
+ * favorites weighted -Drecommend.favorite.weight (default 2) times a
+ * rental.  Games the user already rented or named as a favorite are left
+ * out, and the most rented games fill the list when there is too little
+ * history.
+ *
+ * All methods are thread safe; recommendations run under a shared read
+ * lock.
+ *
+ */
+public class Recommender {
+
+   static final double FAVORITE_WEIGHT = Double.parseDouble(System.getProperty("recommend.favorite.weight", "2"));
+
+   /**
+    * An open addressing map from int keys (0 and up) to int counts.
+    */
+   static final class IntCounts {
+      private static final int EMPTY = -1;
+
+      private int[] _keys;
+      private int[] _values;
+      private int _size = 0;
+
+      IntCounts(int expected) {
+         int capacity = 4;
+         while (capacity < expected * 2) capacity <<= 1;
+         _keys = new int[capacity];
+         _values = new int[capacity];
+         Arrays.fill(_keys, EMPTY);
+      }
+
+      int size() {
+         return _size;
+      }
+
+      int get(int key) {
+         int mask = _keys.length - 1;
+         for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (_keys[i] == key) return _values[i];
+            if (_keys[i] == EMPTY) return 0;
+         }
+      }
+
+      boolean contains(int key) {
+         return get(key) != 0;
+      }
+
+      void add(int key, int delta) {
+         int mask = _keys.length - 1;
+         int i = hash(key) & mask;
+         while (_keys[i] != EMPTY && _keys[i] != key) i = (i + 1) & mask;
+         if (_keys[i] == EMPTY) {
+            _keys[i] = key;
+            _values[i] = delta;
+            if (++_size * 2 > _keys.length) grow();
+         } else {
+            _values[i] += delta;
+         }
+      }//end add
+
+      // the raw slots, for iteration: key EMPTY marks an unused slot
+      int[] keys() { return _keys; }
+      int[] values() { return _values; }
+
+      private void grow() {
+         int[] keys = _keys;
+         int[] values = _values;
+         _keys = new int[keys.length * 2];
+         _values = new int[keys.length * 2];
+         Arrays.fill(_keys, EMPTY);
+         _size = 0;
+         for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != EMPTY) add(keys[i], values[i]);
+         }
+      }//end grow
+
+      private static int hash(int key) {
+         return key * 0x9E3779B9 >>> 7 ^ key;
+      }
+   }//end IntCounts
+
+   private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+
+   private final Map<String, Integer> _gameNumbers = new HashMap<String, Integer>();
+   private final List<String> _gameIDs = new ArrayList<String>();
+   // per game: the other games rented by the same users, and by how many
+   private final List<IntCounts> _together = new ArrayList<IntCounts>();
+   // per game: the users who rented it
+   private int[] _renters = new int[64];
+
+   // per user: the games rented (value 1) and the favorite games
+   private final Map<String, IntCounts> _rented = new HashMap<String, IntCounts>();
+   private final Map<String, int[]> _favorites = new HashMap<String, int[]>();
+
+   /**
+    * Records that a user rented some games.  Games the user rented before
+    * are ignored, so recording the same rental twice changes nothing.
+    *
+    * @param login the user
+    * @param gameIDs the games rented
+    */
+   public void rented(String login, Iterable<String> gameIDs) {
+      _lock.writeLock().lock();
+      try {
+         IntCounts games = _rented.get(login);
+         if (games == null) {
+            games = new IntCounts(4);
+            _rented.put(login, games);
+         }
+         for (String gameID : gameIDs) {
+            int game = number(gameID);
+            if (games.contains(game)) {
+               continue;
+            }
+            int[] keys = games.keys();
+            for (int other : keys) {
+               if (other != IntCounts.EMPTY) {
+                  _together.get(game).add(other, 1);
+                  _together.get(other).add(game, 1);
+               }
+            }
+            games.add(game, 1);
+            ++_renters[game];
+         }
+      } finally {
+         _lock.writeLock().unlock();
+      }
+   }//end rented
+
+   /**
+    * Replaces a user's favorite games.
+    *
+    * @param login the user
+    * @param gameIDs the favorite games, an empty list for none
+    */
+   public void favorites(String login, List<String> gameIDs) {
+      _lock.writeLock().lock();
+      try {
+         int[] games = new int[gameIDs.size()];
+         for (int i = 0; i < games.length; ++i) {
+            games[i] = number(gameIDs.get(i));
+         }
+         _favorites.put(login, games);
+      } finally {
+         _lock.writeLock().unlock();
+      }
+   }//end favorites
+
+   /**
+    * @param login the user
+    * @param limit the most games to return
+    * @return gameIDs recommended to the user, best first
+    */
+   public List<String> recommend(String login, int limit) {
+      _lock.readLock().lock();
+      try {
+         int n = _gameIDs.size();
+         IntCounts rented = _rented.get(login);
+         int[] favorites = _favorites.get(login);
+         boolean[] known = new boolean[n];
+         double[] scores = new double[n];
+         int[] touched = new int[n];
+         int touchedCount = 0;
+
+         if (rented != null) {
+            for (int game : rented.keys()) {
+               if (game != IntCounts.EMPTY) known[game] = true;
+            }
+         }
+         if (favorites != null) {
+            for (int game : favorites) known[game] = true;
+         }
+         if (rented != null) {
+            for (int game : rented.keys()) {
+               if (game != IntCounts.EMPTY) touchedCount = score(game, 1.0, known, scores, touched, touchedCount);
+            }
+         }
+         if (favorites != null) {
+            for (int game : favorites) {
+               touchedCount = score(game, FAVORITE_WEIGHT, known, scores, touched, touchedCount);
+            }
+         }
+
+         // best first, then the most rented games to fill the list
+         int[] best = top(touched, touchedCount, scores, limit);
+         List<String> out = new ArrayList<String>(limit);
+         for (int game : best) out.add(_gameIDs.get(game));
+         if (out.size() < limit) {
+            for (int game : best) known[game] = true;
+            int[] all = new int[n];
+            int candidates = 0;
+            double[] popularity = new double[n];
+            for (int game = 0; game < n; ++game) {
+               if (!known[game] && _renters[game] > 0) {
+                  all[candidates++] = game;
+                  popularity[game] = _renters[game];
+               }
+            }
+            for (int game : top(all, candidates, popularity, limit - out.size())) out.add(_gameIDs.get(game));
+         }
+         return out;
+      } finally {
+         _lock.readLock().unlock();
+      }
+   }//end recommend
+
+   // the number of games and users known
+   public String toString() {
+      _lock.readLock().lock();
+      try {
+         return _gameIDs.size() + " games, " + _rented.size() + " users with rentals";
+      } finally {
+         _lock.readLock().unlock();
+      }
+   }
+
+   // adds the similarity of every game rented with seed; returns the new touched count
+   private int score(int seed, double weight, boolean[] known, double[] scores, int[] touched, int touchedCount) {
+      IntCounts row = _together.get(seed);
+      int[] keys = row.keys();
+      int[] values = row.values();
+      for (int i = 0; i < keys.length; ++i) {
+         int game = keys[i];
+         if (game == IntCounts.EMPTY || known[game]) {
+            continue;
+         }
+         if (scores[game] == 0) {
+            touched[touchedCount++] = game;
+         }
+         scores[game] += weight * values[i] / Math.sqrt((double) _renters[seed] * _renters[game]);
+      }
+      return touchedCount;
+   }//end score
+
+   // the k candidates with the highest scores, best first; ties go to the lower number
+   private static int[] top(int[] candidates, int count, double[] scores, int k) {
+      int[] best = new int[Math.max(0, Math.min(k, count))];
+      if (best.length == 0) {
+         return best;
+      }
+      int size = 0;
+      for (int c = 0; c < count; ++c) {
+         int game = candidates[c];
+         if (size == best.length && !ranksAbove(game, best[size - 1], scores)) {
+            continue;
+         }
+         int i = size == best.length ? size - 1 : size++;
+         while (i > 0 && ranksAbove(game, best[i - 1], scores)) {
+            best[i] = best[i - 1];
+            --i;
+         }
+         best[i] = game;
+      }
+      return best;
+   }//end top
+
+   private static boolean ranksAbove(int a, int b, double[] scores) {
+      return scores[a] != scores[b] ? scores[a] > scores[b] : a < b;
+   }
+
+   // the game's number, adding the game when it is new; call with the write lock held
+   private int number(String gameID) {
+      Integer number = _gameNumbers.get(gameID);
+      if (number == null) {
+         number = _gameIDs.size();
+         _gameNumbers.put(gameID, number);
+         _gameIDs.add(gameID);
+         _together.add(new IntCounts(16));
+         if (number == _renters.length) {
+            _renters = Arrays.copyOf(_renters, number * 2);
+         }
+      }
+      return number;
+   }//end number
+
+}//end Recommender
@@ -0,0 +1,340 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders rows of cells as an aligned table, tab separated values or JSON.
+ * Cells are streamed in with cell() and endRow(); the output is built in
+ * one reusable character buffer and written to the Writer with a single
+ * write and flush per page of -Drender.page.rows rows (default 500),
+ * instead of one synchronized print per cell.
+ *
+ *    Renderer out = Renderer.create("table", writer);
+ *    out.start(new String[] { "gameid", "price" });
+ *    out.cell(id); out.cell(price); out.endRow();
+ *    out.finish();
+ *
+ * A Renderer renders one result and is not thread safe.
+ *
+ */
+public abstract class Renderer {
+
+   static final int PAGE_ROWS = Integer.getInteger("render.page.rows", 500);
+   static final int BUFFER_CHARS = 64 * 1024;
+
+   /**
+    * @param format table, tsv or json
+    * @param out where the rendered pages are written
+    * @return a renderer for one result
+    */
+   public static Renderer create(String format, Writer out) {
+      if (format.equalsIgnoreCase("table")) {
+         return new Table(out);
+      } else if (format.equalsIgnoreCase("tsv")) {
+         return new Tsv(out);
+      } else if (format.equalsIgnoreCase("json")) {
+         return new JsonArray(out);
+      }
+      throw new IllegalArgumentException("Unknown output format: " + format);
+   }//end create
+
+   private final Writer _out;
+   private char[] _buf = new char[BUFFER_CHARS];
+   private int _len = 0;
+
+   protected String[] _columns = null;
+   private int _column = 0;
+   private int _rows = 0;
+   private int _pageRows = 0;
+
+   protected Renderer(Writer out) {
+      this._out = out;
+   }
+
+   /**
+    * Starts the result.  Call once, before the first cell.
+    *
+    * @param columns the column names
+    */
+   public void start(String[] columns) throws IOException {
+      _columns = columns;
+      header();
+   }
+
+   /**
+    * Adds the next cell of the current row.
+    *
+    * @param value the cell, or null
+    */
+   public void cell(String value) throws IOException {
+      writeCell(_column++, value);
+   }
+
+   /**
+    * Ends the current row, writing out the page when it is full.
+    */
+   public void endRow() throws IOException {
+      writeRowEnd();
+      _column = 0;
+      ++_rows;
+      if (++_pageRows >= PAGE_ROWS) {
+         flushPage();
+      }
+   }//end endRow
+
+   /**
+    * Writes out what is left and flushes the Writer.
+    *
+    * @return the number of rows rendered
+    */
+   public int finish() throws IOException {
+      if (_columns == null) {
+         empty();
+      } else {
+         footer();
+      }
+      flushPage();
+      return _rows;
+   }//end finish
+
+   /**
+    * @return the rows rendered so far
+    */
+   public int rows() {
+      return _rows;
+   }
+
+   /**
+    * @return a handler rendering each row of a result set.  The column
+    *         names are read from the metadata once, on the first row.
+    */
+   public RowHandler handler() {
+      return new RowHandler() {
+         private int _numCol = -1;
+
+         public void row(ResultSet rs) throws SQLException {
+            try {
+               if (_numCol < 0) {
+                  ResultSetMetaData rsmd = rs.getMetaData();
+                  _numCol = rsmd.getColumnCount();
+                  String[] columns = new String[_numCol];
+                  for (int i = 0; i < _numCol; ++i) {
+                     columns[i] = rsmd.getColumnName(i + 1);
+                  }
+                  start(columns);
+               }
+               for (int i = 1; i <= _numCol; ++i) {
+                  cell(rs.getString(i));
+               }
+               endRow();
+            } catch (IOException e) {
+               throw new SQLException("Cannot write the result: " + e.getMessage());
+            }
+         }
+      };
+   }//end handler
+
+   // called by start
+   protected abstract void header() throws IOException;
+
+   protected abstract void writeCell(int column, String value) throws IOException;
+
+   protected abstract void writeRowEnd() throws IOException;
+
+   // called by finish when start was called
+   protected void footer() throws IOException { }
+
+   // called by finish when there were no rows and start was never called
+   protected void empty() throws IOException { }
+
+   // called before a page is written out
+   protected void page() throws IOException { }
+
+   protected final void append(String s) {
+      int n = s.length();
+      ensure(n);
+      s.getChars(0, n, _buf, _len);
+      _len += n;
+   }
+
+   protected final void append(char c) {
+      ensure(1);
+      _buf[_len++] = c;
+   }
+
+   protected final void pad(int n) {
+      if (n <= 0) {
+         return;
+      }
+      ensure(n);
+      Arrays.fill(_buf, _len, _len + n, ' ');
+      _len += n;
+   }
+
+   private void ensure(int n) {
+      if (_len + n > _buf.length) {
+         _buf = Arrays.copyOf(_buf, Math.max(_buf.length * 2, _len + n));
+      }
+   }
+
+   private void flushPage() throws IOException {
+      page();
+      _out.write(_buf, 0, _len);
+      _out.flush();
+      _len = 0;
+      _pageRows = 0;
+   }//end flushPage
+
+   /**
+    * The layout executeQueryAndPrintResult has always used: the column
+    * names, then each row, every value followed by a tab.
+    */
+   static final class Tsv extends Renderer {
+      Tsv(Writer out) {
+         super(out);
+      }
+
+      protected void header() {
+         for (String column : _columns) {
+            append(column);
+            append('\t');
+         }
+         append('\n');
+      }
+
+      protected void writeCell(int column, String value) {
+         append(value == null ? "null" : value);
+         append('\t');
+      }
+
+      protected void writeRowEnd() {
+         append('\n');
+      }
+   }//end Tsv
+
+   /**
+    * Columns padded to the widest value on the page, with the column names
+    * repeated at the top of each page.
+    */
+   static final class Table extends Renderer {
+      // the cells of the current page, row by row
+      private final List<String> _cells = new ArrayList<String>();
+      private int[] _widths;
+
+      Table(Writer out) {
+         super(out);
+      }
+
+      protected void header() {
+         _widths = new int[_columns.length];
+      }
+
+      protected void writeCell(int column, String value) {
+         _cells.add(value == null ? "" : value);
+      }
+
+      protected void writeRowEnd() { }
+
+      protected void page() {
+         if (_cells.isEmpty()) {
+            return;
+         }
+         int numCol = _columns.length;
+         for (int c = 0; c < numCol; ++c) {
+            _widths[c] = _columns[c].length();
+         }
+         for (int i = 0; i < _cells.size(); ++i) {
+            _widths[i % numCol] = Math.max(_widths[i % numCol], _cells.get(i).length());
+         }
+         for (int c = 0; c < numCol; ++c) {
+            cell(c, _columns[c]);
+         }
+         for (int c = 0; c < numCol; ++c) {
+            if (c > 0) append("-+-");
+            for (int w = 0; w < _widths[c]; ++w) append('-');
+         }
+         append('\n');
+         for (int i = 0; i < _cells.size(); ++i) {
+            cell(i % numCol, _cells.get(i));
+         }
+         _cells.clear();
+      }//end page
+
+      private void cell(int c, String value) {
+         if (c > 0) append(" | ");
+         append(value);
+         if (c == _columns.length - 1) {
+            append('\n');
+         } else {
+            pad(_widths[c] - value.length());
+         }
+      }
+   }//end Table
+
+   /**
+    * An array of objects keyed by column name, with every value as a
+    * string.  The keys are quoted once, in header().
+    */
+   static final class JsonArray extends Renderer {
+      private String[] _keys;
+
+      JsonArray(Writer out) {
+         super(out);
+      }
+
+      protected void header() {
+         _keys = new String[_columns.length];
+         for (int c = 0; c < _keys.length; ++c) {
+            _keys[c] = Json.quote(_columns[c]) + ":";
+         }
+         append('[');
+      }
+
+      protected void writeCell(int column, String value) {
+         if (column == 0) {
+            append(rows() > 0 ? ",\n{" : "\n{");
+         } else {
+            append(',');
+         }
+         append(_keys[column]);
+         if (value == null) {
+            append("null");
+         } else if (plain(value)) {
+            append('"');
+            append(value);
+            append('"');
+         } else {
+            append(Json.quote(value));
+         }
+      }
+
+      // true when the value needs no escaping, which is nearly always
+      private static boolean plain(String value) {
+         for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      protected void writeRowEnd() {
+         append('}');
+      }
+
+      protected void footer() {
+         append("\n]\n");
+      }
+
+      protected void empty() {
+         append("[]\n");
+      }
+   }//end JsonArray
+
+}//end Renderer
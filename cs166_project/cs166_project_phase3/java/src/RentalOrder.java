@@ -0,0 +1,42 @@
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * A row of the RentalOrder table.
+ *
+ */
+public final class RentalOrder {
+
+   public static final String COLUMNS =
+      "rentalOrderID, login, noOfGames, totalPrice, orderTimestamp, dueDate";
+
+   /**
+    * Maps the columns listed in COLUMNS, in that order.
+    */
+   public static final RowMapper<RentalOrder> MAPPER = new RowMapper<RentalOrder>() {
+      public RentalOrder map(ResultSet rs) throws SQLException {
+         return new RentalOrder(rs.getString(1), rs.getString(2), rs.getInt(3),
+                                rs.getBigDecimal(4), rs.getTimestamp(5), rs.getTimestamp(6));
+      }
+   };
+
+   public final String rentalOrderID;
+   public final String login;
+   public final int noOfGames;
+   public final BigDecimal totalPrice;
+   public final Timestamp orderTimestamp;
+   public final Timestamp dueDate;
+
+   public RentalOrder(String rentalOrderID, String login, int noOfGames, BigDecimal totalPrice,
+                      Timestamp orderTimestamp, Timestamp dueDate) {
+      this.rentalOrderID = rentalOrderID;
+      this.login = login;
+      this.noOfGames = noOfGames;
+      this.totalPrice = totalPrice;
+      this.orderTimestamp = orderTimestamp;
+      this.dueDate = dueDate;
+   }
+
+}//end RentalOrder
@@ -0,0 +1,329 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the browse and history reads to streaming replicas of the primary
+ * database, and everything else to the primary.
+ *
+ * The replicas are listed in -Dreplicas as host:port or host:port/dbname,
+ * comma separated (the database defaults to the primary's), each with a
+ * pool of -Dreplica.pool.size connections (default -Dpool.size).  A read
+ * runs on a replica only inside read(), which routes the GameRental query
+ * methods of the calling thread until Route.end(); updates and the
+ * OrderBuilder transaction always use the primary.  Reads go round robin
+ * over the healthy replicas.
+ *
+ * Every -Dreplica.check.ms (default 1000) a daemon thread asks each replica
+ * how far it has replayed the primary's WAL.  A replica that fails, is not
+ * in recovery, or is more than -Dreplica.max.lag.bytes (default 16MB)
+ * behind the primary gets no reads until a later check passes; one that
+ * failed has its connections opened again first.  With no healthy replica
+ * the reads go to the primary.
+ *
+ * Read-your-writes: wrote(login) records the primary's WAL position after
+ * a user's write, and that user's reads go only to a replica that has
+ * replayed past it, or else to the primary, until every replica has,
+ * healthy or not.  Other users may see the write up to the replication
+ * lag later.
+ *
+ * To try it with two local instances, make the second one a standby of
+ * the first, e.g.
+ *
+ *    pg_basebackup -p $PGPORT -D $PGDATA2 -R
+ *    pg_ctl -D $PGDATA2 -o "-p 5433" start
+ *
+ * and run GameRental with -Dreplicas=localhost:5433.
+ *
+ */
+public class ReplicaRouter {
+
+   static final String REPLICAS = System.getProperty("replicas", "");
+   static final int POOL_SIZE = Integer.getInteger("replica.pool.size", GameRental.POOL_SIZE);
+   static final long CHECK_MS = Long.getLong("replica.check.ms", 1000);
+   static final long MAX_LAG_BYTES = Long.getLong("replica.max.lag.bytes", 16L * 1024 * 1024);
+
+   static final String PRIMARY_LSN = "SELECT CAST(pg_current_wal_lsn() AS text)";
+   // NULL on a server that is not a standby
+   static final String REPLAY_LSN = "SELECT CAST(pg_last_wal_replay_lsn() AS text)";
+
+   /**
+    * One replica and what the last check found.
+    */
+   static final class Replica {
+      final String url;
+      volatile ConnectionPool pool;
+      volatile boolean healthy = false;
+      // the WAL position replayed at the last check, -1 when unknown
+      volatile long replayed = -1;
+      volatile String problem = "not checked yet";
+      final AtomicLong reads = new AtomicLong();
+
+      Replica(String url) {
+         this.url = url;
+      }
+   }//end Replica
+
+   /**
+    * Routes the calling thread's queries until end() is called.
+    */
+   public final class Route {
+      private final ConnectionPool _previous;
+
+      Route(ConnectionPool previous) {
+         this._previous = previous;
+      }
+
+      public void end() {
+         _route.set(_previous);
+      }
+   }//end Route
+
+   private final ConnectionPool _primary;
+   private final String _user;
+   private final String _passwd;
+   private final List<Replica> _replicas;
+   private final ThreadLocal<ConnectionPool> _route = new ThreadLocal<ConnectionPool>();
+   private final AtomicInteger _next = new AtomicInteger();
+   private final AtomicLong _primaryReads = new AtomicLong();
+   // login -> the primary's WAL position after the user's last write
+   private final ConcurrentHashMap<String, Long> _written = new ConcurrentHashMap<String, Long>();
+   private final ScheduledExecutorService _checker;
+
+   /**
+    * Opens the pools of the -Dreplicas servers and starts checking them.
+    * A replica that cannot be reached now is tried again at each check.
+    *
+    * @param primary the pool of the primary
+    * @param dbname the primary's database, used for replicas that name none
+    * @param user the user name used to login to the databases
+    * @param passwd the user login password
+    */
+   public ReplicaRouter(ConnectionPool primary, String dbname, String user, String passwd) {
+      this._primary = primary;
+      this._user = user;
+      this._passwd = passwd;
+      List<Replica> replicas = new ArrayList<Replica>();
+      for (String entry : REPLICAS.split(",")) {
+         entry = entry.trim();
+         if (!entry.isEmpty()) {
+            replicas.add(new Replica("jdbc:postgresql://" + (entry.indexOf('/') < 0 ? entry + "/" + dbname : entry)));
+         }
+      }
+      this._replicas = Collections.unmodifiableList(replicas);
+      if (_replicas.isEmpty()) {
+         _checker = null;
+         return;
+      }
+      check();
+      _checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "replica-check");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      _checker.scheduleWithFixedDelay(new Runnable() {
+         public void run() {
+            check();
+         }
+      }, CHECK_MS, CHECK_MS, TimeUnit.MILLISECONDS);
+   }//end ReplicaRouter
+
+   /**
+    * @return the pool the calling thread's queries run on: a replica inside
+    *         read(), otherwise the primary
+    */
+   public ConnectionPool current() {
+      ConnectionPool pool = _route.get();
+      return pool == null ? _primary : pool;
+   }
+
+   /**
+    * @return true inside read(), where the calling thread's queries only
+    *         read
+    */
+   public boolean reading() {
+      return _route.get() != null;
+   }
+
+   /**
+    * Routes the calling thread's queries to a replica that has every write
+    * of login, or to the primary when there is none.  Must be ended with
+    * Route.end(), in a finally block.
+    *
+    * @param login the user the reads are for, or null when they need not
+    *        see any particular write
+    * @return the route to end
+    */
+   public Route read(String login) {
+      Route route = new Route(_route.get());
+      _route.set(pick(login));
+      return route;
+   }//end read
+
+   /**
+    * Records that login just wrote to the primary, so the user's next reads
+    * see it.  Call after the write committed.
+    *
+    * @param login the user who wrote
+    * @throws java.sql.SQLException when the primary's WAL position cannot be
+    *         read
+    */
+   public void wrote(String login) throws SQLException {
+      if (_replicas.isEmpty()) {
+         return;
+      }
+      long lsn = lsn(query(_primary, PRIMARY_LSN));
+      // keeps the furthest position when the user writes from two threads
+      while (true) {
+         Long previous = _written.putIfAbsent(login, lsn);
+         if (previous == null || previous >= lsn || _written.replace(login, previous, lsn)) {
+            return;
+         }
+      }
+   }//end wrote
+
+   private ConnectionPool pick(String login) {
+      Long required = login == null ? null : _written.get(login);
+      int n = _replicas.size();
+      if (n > 0) {
+         int start = _next.getAndIncrement() & Integer.MAX_VALUE;
+         for (int i = 0; i < n; ++i) {
+            Replica replica = _replicas.get((start + i) % n);
+            ConnectionPool pool = replica.pool;
+            if (replica.healthy && pool != null && (required == null || replica.replayed >= required)) {
+               replica.reads.incrementAndGet();
+               return pool;
+            }
+         }
+      }
+      _primaryReads.incrementAndGet();
+      return _primary;
+   }//end pick
+
+   // updates the health and replay position of every replica
+   private void check() {
+      long primaryLsn;
+      try {
+         primaryLsn = lsn(query(_primary, PRIMARY_LSN));
+      } catch (SQLException e) {
+         // the lag cannot be told; the replicas keep their state
+         return;
+      }
+      // the position every replica, healthy or not, has replayed; -1 while
+      // any of them is down or not a standby
+      long caughtUp = Long.MAX_VALUE;
+      for (Replica replica : _replicas) {
+         try {
+            if (replica.pool == null) {
+               replica.pool = new ConnectionPool(replica.url, _user, _passwd, POOL_SIZE, GameRental.STATEMENT_CACHE_SIZE);
+            }
+            String replayed = query(replica.pool, REPLAY_LSN);
+            if (replayed == null) {
+               replica.healthy = false;
+               replica.replayed = -1;
+               replica.problem = "not a standby";
+            } else {
+               replica.replayed = lsn(replayed);
+               replica.healthy = primaryLsn - replica.replayed <= MAX_LAG_BYTES;
+               replica.problem = replica.healthy ? null : (primaryLsn - replica.replayed) + " bytes behind";
+            }
+         } catch (SQLException e) {
+            replica.healthy = false;
+            replica.replayed = -1;
+            replica.problem = e.getMessage();
+            // opened again at the next check
+            ConnectionPool broken = replica.pool;
+            replica.pool = null;
+            if (broken != null) {
+               broken.close();
+            }
+         }
+         caughtUp = Math.min(caughtUp, replica.replayed);
+      }
+      // users whose writes every replica has can read anywhere again; a
+      // replica that is behind now may be healthy at the next check
+      for (Map.Entry<String, Long> e : _written.entrySet()) {
+         if (e.getValue() <= caughtUp) {
+            _written.remove(e.getKey(), e.getValue());
+         }
+      }
+   }//end check
+
+   // the first column of the first row, on a connection of pool
+   private static String query(ConnectionPool pool, String sql) throws SQLException {
+      PooledConnection pc = pool.acquire();
+      try {
+         PreparedStatement stmt = pc.prepare(sql);
+         ResultSet rs = stmt.executeQuery();
+         try {
+            return rs.next() ? rs.getString(1) : null;
+         } finally {
+            rs.close();
+         }
+      } finally {
+         pool.release(pc);
+      }
+   }//end query
+
+   /**
+    * @param lsn a WAL position as PostgreSQL prints it, e.g. 16/B374D848
+    * @return the position as a number
+    */
+   static long lsn(String lsn) throws SQLException {
+      int slash = lsn == null ? -1 : lsn.indexOf('/');
+      if (slash < 0) {
+         throw new SQLException("Not a WAL position: " + lsn);
+      }
+      return (Long.parseLong(lsn.substring(0, slash), 16) << 32) | Long.parseLong(lsn.substring(slash + 1), 16);
+   }//end lsn
+
+   /**
+    * @return true when -Dreplicas names at least one replica
+    */
+   public boolean hasReplicas() {
+      return !_replicas.isEmpty();
+   }
+
+   /**
+    * @return one line per replica with its state and reads, and the reads
+    *         that went to the primary
+    */
+   public String toString() {
+      StringBuilder s = new StringBuilder();
+      for (Replica replica : _replicas) {
+         s.append(String.format("%s %s, %d reads%n", replica.url,
+            replica.healthy ? "healthy" : "unhealthy (" + replica.problem + ")", replica.reads.get()));
+      }
+      s.append("primary ").append(_primaryReads.get()).append(" reads");
+      return s.toString();
+   }//end toString
+
+   /**
+    * Stops the checks and closes the replica connections.
+    */
+   public void close() {
+      if (_checker != null) {
+         _checker.shutdownNow();
+      }
+      for (Replica replica : _replicas) {
+         ConnectionPool pool = replica.pool;
+         if (pool != null) {
+            pool.close();
+         }
+      }
+   }//end close
+
+}//end ReplicaRouter
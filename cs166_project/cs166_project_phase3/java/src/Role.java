@@ -0,0 +1,41 @@
+/**
+ * The roles a GameRental user can have.  Users.role is a char(20) column,
+ * so values read from the database are blank padded; fromString() trims
+ * them.
+ *
+ */
+public enum Role {
+   CUSTOMER, EMPLOYEE, MANAGER;
+
+   /**
+    * Parses a role as stored in Users.role.  Anything that is not a known
+    * staff role is treated as a customer, so a mistyped role never grants
+    * extra permissions.
+    *
+    * @param value the stored role, possibly blank padded
+    * @return the matching role
+    */
+   public static Role fromString(String value) {
+      if (value == null) {
+         return CUSTOMER;
+      }
+      String role = value.trim();
+      if (role.equalsIgnoreCase("manager")) {
+         return MANAGER;
+      }
+      if (role.equalsIgnoreCase("employee")) {
+         return EMPLOYEE;
+      }
+      return CUSTOMER;
+   }//end fromString
+
+   // employees and managers may look at and update any order
+   public boolean isEmployeeOrManager() {
+      return this == EMPLOYEE || this == MANAGER;
+   }
+
+   public boolean isManager() {
+      return this == MANAGER;
+   }
+
+}//end Role
@@ -0,0 +1,86 @@
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the role of each user so permission checks do not go to the
+ * database.  Entries expire after a fixed time, which bounds how long a
+ * role change made by another process stays invisible; role changes made
+ * through this process call invalidate() and are seen immediately.
+ *
+ */
+public class RoleCache {
+
+   // how long a cached role is trusted, override with -Drole.cache.ttl.seconds=N
+   static final long TTL_MS = Long.getLong("role.cache.ttl.seconds", 60) * 1000;
+
+   private static final class Entry {
+      final Role role;
+      final long expiresAt;
+
+      Entry(Role role, long expiresAt) {
+         this.role = role;
+         this.expiresAt = expiresAt;
+      }
+   }//end Entry
+
+   private final GameRental _esql;
+   private final long _ttlMs;
+   private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+
+   public RoleCache(GameRental esql) {
+      this(esql, TTL_MS);
+   }
+
+   public RoleCache(GameRental esql, long ttlMs) {
+      this._esql = esql;
+      this._ttlMs = ttlMs;
+   }
+
+   /**
+    * Returns the role of a user, loading it with one query when it is not
+    * cached or has expired.
+    *
+    * @param login the user's login
+    * @return the user's role, or null if the user does not exist
+    * @throws java.sql.SQLException when the lookup fails
+    */
+   public Role get(String login) throws SQLException {
+      // timed as an operation, so its round trips show the cache's miss rate
+      Metrics.Operation op = _esql.metrics().start("RoleCache.get");
+      try {
+         Entry entry = _entries.get(login);
+         if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+            op.succeeded();
+            return entry.role;
+         }
+         String stored = _esql.executeQueryForObject(
+            "SELECT role FROM Users WHERE login = ?", RowMapper.STRING, login);
+         op.succeeded();
+         if (stored == null) {
+            _entries.remove(login);
+            return null;
+         }
+         Role role = Role.fromString(stored);
+         put(login, role);
+         return role;
+      } finally {
+         _esql.metrics().end(op);
+      }
+   }//end get
+
+   /**
+    * Records a role that was read elsewhere, e.g. by the login query.
+    */
+   public void put(String login, Role role) {
+      _entries.put(login, new Entry(role, System.currentTimeMillis() + _ttlMs));
+   }
+
+   /**
+    * Drops the cached role of a user whose role was just changed.
+    */
+   public void invalidate(String login) {
+      _entries.remove(login);
+   }
+
+}//end RoleCache
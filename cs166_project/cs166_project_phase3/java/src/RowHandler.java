@@ -0,0 +1,18 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a streamed query one at a time.
+ *
+ */
+public interface RowHandler {
+
+   /**
+    * Called once per row, with the result set positioned on that row.
+    *
+    * @param rs the result set; only valid during the call
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   void row(ResultSet rs) throws SQLException;
+
+}//end RowHandler
@@ -0,0 +1,28 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Turns the current row of a result set into an object.  Mappers read
+ * columns by position with the typed getters, so no intermediate String
+ * is created for numbers and timestamps.
+ *
+ */
+public interface RowMapper<T> {
+
+   /**
+    * Maps the first column as a String.
+    */
+   RowMapper<String> STRING = new RowMapper<String>() {
+      public String map(ResultSet rs) throws SQLException {
+         return rs.getString(1);
+      }
+   };
+
+   /**
+    * @param rs the result set, positioned on the row to map
+    * @return the mapped row
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   T map(ResultSet rs) throws SQLException;
+
+}//end RowMapper
@@ -0,0 +1,362 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inverted index over the words of the catalog's gameName and description,
+ * answering ranked, type-ahead queries in memory.
+ *
+ * Words are lower cased runs of letters and digits.  The term dictionary
+ * is a sorted array, so the terms starting with a prefix are one
+ * contiguous range found by binary search, and each term's postings (the
+ * rows containing it) are stored in that same order in one int array: the
+ * postings of every term matching a prefix are a single slice.
+ *
+ * Every word of a query must match, as a whole word or as the start of
+ * one, so "zel" and "legend of zel" both find The Legend of Zelda.  A row
+ * scores 3 per word matched in the name and 1 per word matched in the
+ * description, doubled for a whole word match; ties go to the shorter
+ * name.
+ *
+ * An index is immutable and safe to share between threads.
+ *
+ */
+public class SearchIndex {
+
+   // the labels in every description ("Platform: Wii;  Publisher: Nintendo")
+   private static final String[] LABELS = { "platform", "publisher" };
+
+   // a posting is row << 3 | EXACT | NAME | DESCRIPTION
+   private static final int EXACT = 4;
+   private static final int NAME = 2;
+   private static final int DESCRIPTION = 1;
+
+   // the kinds of posting, best score first: 8, 6, 4, 3, 2, 1
+   private static final int[] BY_SCORE = {
+      EXACT | NAME | DESCRIPTION, EXACT | NAME, NAME | DESCRIPTION, NAME, EXACT | DESCRIPTION, DESCRIPTION };
+
+   private final int _rows;
+   // name lengths, read by the ranking tie break without touching the Strings
+   private final char[] _nameLengths;
+   private final String[] _terms;
+   // postings of term t are _postings[_offsets[t] .. _offsets[t + 1]), by row
+   private final int[] _offsets;
+   private final int[] _postings;
+
+   /**
+    * Indexes row i as names[i] and descriptions[i].
+    */
+   public SearchIndex(String[] names, String[] descriptions) {
+      int n = names.length;
+      if (n >= (1 << 28)) {
+         throw new IllegalArgumentException("Too many rows to index: " + n);
+      }
+      this._rows = n;
+      this._nameLengths = new char[n];
+      for (int row = 0; row < n; ++row) {
+         _nameLengths[row] = (char) Math.min(names[row] == null ? 0 : names[row].length(), Character.MAX_VALUE);
+      }
+
+      // first pass: the distinct terms and how many rows hold each
+      Map<String, Integer> ids = new HashMap<String, Integer>();
+      int[] counts = new int[1024];
+      int[] lastRow = new int[1024];
+      for (int row = 0; row < n; ++row) {
+         for (int field = 0; field < 2; ++field) {
+            String[] words = words(field == 0 ? names[row] : descriptions[row]);
+            for (String word : words) {
+               Integer id = ids.get(word);
+               if (id == null) {
+                  id = ids.size();
+                  ids.put(word, id);
+                  if (id == counts.length) {
+                     counts = Arrays.copyOf(counts, id * 2);
+                     lastRow = Arrays.copyOf(lastRow, id * 2);
+                  }
+                  lastRow[id] = -1;
+               }
+               if (lastRow[id] != row) {
+                  lastRow[id] = row;
+                  ++counts[id];
+               }
+            }
+         }
+      }
+
+      // sorts the terms and lays out their postings in that order
+      _terms = ids.keySet().toArray(new String[ids.size()]);
+      Arrays.sort(_terms);
+      int[] slot = new int[_terms.length];   // term id -> sorted position
+      _offsets = new int[_terms.length + 1];
+      for (int t = 0; t < _terms.length; ++t) {
+         int id = ids.get(_terms[t]);
+         slot[id] = t;
+         _offsets[t + 1] = _offsets[t] + counts[id];
+      }
+      _postings = new int[_offsets[_terms.length]];
+
+      // second pass: the postings, in row order within each term
+      int[] next = Arrays.copyOf(_offsets, _terms.length);
+      for (int row = 0; row < n; ++row) {
+         for (int field = 0; field < 2; ++field) {
+            int flag = field == 0 ? NAME : DESCRIPTION;
+            for (String word : words(field == 0 ? names[row] : descriptions[row])) {
+               int t = slot[ids.get(word)];
+               int last = next[t] - 1;
+               if (last >= _offsets[t] && (_postings[last] >>> 3) == row) {
+                  _postings[last] |= flag;
+               } else {
+                  _postings[next[t]++] = row << 3 | flag;
+               }
+            }
+         }
+      }
+   }//end SearchIndex
+
+   /**
+    * @return the number of distinct words indexed
+    */
+   public int terms() {
+      return _terms.length;
+   }
+
+   /**
+    * @param query words or word prefixes, all of which must match
+    * @param limit the most rows to return
+    * @return the matching rows, best first
+    */
+   public int[] search(String query, int limit) {
+      String[] words = words(query);
+      if (words.length == 0 || limit <= 0) {
+         return new int[0];
+      }
+
+      // each word's matches as sorted postings; the rarest word goes first
+      int[][] matches = new int[words.length][];
+      for (int w = 0; w < words.length; ++w) {
+         matches[w] = matches(words[w]);
+         if (matches[w].length == 0) {
+            return new int[0];
+         }
+      }
+      Arrays.sort(matches, new Comparator<int[]>() {
+         public int compare(int[] a, int[] b) {
+            return Integer.compare(a.length, b.length);
+         }
+      });
+
+      int[] rows = new int[matches[0].length];
+      int[] scores = new int[matches[0].length];
+      int size = 0;
+      for (int p : matches[0]) {
+         rows[size] = p >>> 3;
+         scores[size++] = score(p);
+      }
+      for (int w = 1; w < matches.length && size > 0; ++w) {
+         size = intersect(rows, scores, size, matches[w]);
+      }
+      // ranks by score, then by shorter name, as one int
+      for (int i = 0; i < size; ++i) {
+         scores[i] = scores[i] << 16 | (Character.MAX_VALUE - _nameLengths[rows[i]]);
+      }
+      return top(rows, scores, size, limit);
+   }//end search
+
+   /**
+    * Splits text into lower cased words of letters and digits, leaving out
+    * the description labels.
+    */
+   static String[] words(String text) {
+      if (text == null) {
+         return new String[0];
+      }
+      String[] out = new String[8];
+      int count = 0;
+      int len = text.length();
+      int i = 0;
+      while (i < len) {
+         while (i < len && !Character.isLetterOrDigit(text.charAt(i))) ++i;
+         int start = i;
+         while (i < len && Character.isLetterOrDigit(text.charAt(i))) ++i;
+         if (i > start) {
+            String word = text.substring(start, i).toLowerCase();
+            if (isLabel(word)) {
+               continue;
+            }
+            if (count == out.length) {
+               out = Arrays.copyOf(out, count * 2);
+            }
+            out[count++] = word;
+         }
+      }
+      return Arrays.copyOf(out, count);
+   }//end words
+
+   private static boolean isLabel(String word) {
+      for (String label : LABELS) {
+         if (label.equals(word)) return true;
+      }
+      return false;
+   }
+
+   // the postings of every term starting with prefix, sorted by row, one per row
+   private int[] matches(String prefix) {
+      int lo = lowerBound(prefix);
+      int hi = lowerBound(prefix + Character.MAX_VALUE);
+      if (lo == hi) {
+         return new int[0];
+      }
+      boolean exact = _terms[lo].equals(prefix);
+      if (hi - lo == 1) {
+         int[] out = Arrays.copyOfRange(_postings, _offsets[lo], _offsets[hi]);
+         if (exact) {
+            for (int i = 0; i < out.length; ++i) out[i] |= EXACT;
+         }
+         return out;
+      }
+
+      // several terms: merge their slices, keeping the best posting per row
+      int exactEnd = exact ? _offsets[lo + 1] : _offsets[lo];
+      if (_offsets[hi] - _offsets[lo] > _rows / 16) {
+         return mergeDense(_offsets[lo], exactEnd, _offsets[hi]);
+      }
+      int[] all = Arrays.copyOfRange(_postings, _offsets[lo], _offsets[hi]);
+      for (int i = 0; i < exactEnd - _offsets[lo]; ++i) all[i] |= EXACT;
+      Arrays.sort(all);
+      int size = 0;
+      for (int p : all) {
+         if (size > 0 && (all[size - 1] >>> 3) == (p >>> 3)) {
+            if (score(p) > score(all[size - 1])) all[size - 1] = p;
+         } else {
+            all[size++] = p;
+         }
+      }
+      return size == all.length ? all : Arrays.copyOf(all, size);
+   }//end matches
+
+   // the same merge for slices covering much of the catalog, in linear time:
+   // one bitmap of rows per kind of posting instead of a sort
+   private int[] mergeDense(int from, int exactEnd, int to) {
+      int words = (_rows + 63) >>> 6;
+      long[][] kinds = new long[8][];
+      for (int i = from; i < to; ++i) {
+         int kind = (_postings[i] & 7) | (i < exactEnd ? EXACT : 0);
+         if (kinds[kind] == null) kinds[kind] = new long[words];
+         int row = _postings[i] >>> 3;
+         kinds[kind][row >>> 6] |= 1L << row;
+      }
+      int[] out = new int[to - from];
+      int size = 0;
+      for (int w = 0; w < words; ++w) {
+         long any = 0;
+         for (long[] bits : kinds) {
+            if (bits != null) any |= bits[w];
+         }
+         while (any != 0) {
+            int bit = Long.numberOfTrailingZeros(any);
+            any &= any - 1;
+            for (int kind : BY_SCORE) {
+               if (kinds[kind] != null && (kinds[kind][w] & (1L << bit)) != 0) {
+                  out[size++] = ((w << 6) + bit) << 3 | kind;
+                  break;
+               }
+            }
+         }
+      }
+      return Arrays.copyOf(out, size);
+   }//end mergeDense
+
+   // first term >= key
+   private int lowerBound(String key) {
+      int lo = 0;
+      int hi = _terms.length;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (_terms[mid].compareTo(key) < 0) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }//end lowerBound
+
+   private static int score(int posting) {
+      int score = ((posting & NAME) != 0 ? 3 : 0) + ((posting & DESCRIPTION) != 0 ? 1 : 0);
+      return (posting & EXACT) != 0 ? score * 2 : score;
+   }
+
+   // keeps the rows also in postings, adding their score; returns the new size
+   private static int intersect(int[] rows, int[] scores, int size, int[] postings) {
+      int out = 0;
+      int j = 0;
+      for (int i = 0; i < size && j < postings.length; ++i) {
+         int row = rows[i];
+         while (j < postings.length && (postings[j] >>> 3) < row) ++j;
+         if (j < postings.length && (postings[j] >>> 3) == row) {
+            rows[out] = row;
+            scores[out++] = scores[i] + score(postings[j]);
+         }
+      }
+      return out;
+   }//end intersect
+
+   // the best limit rows, with a min-heap of candidate positions
+   private static int[] top(int[] rows, int[] scores, int size, int limit) {
+      int k = Math.min(limit, size);
+      int[] heap = new int[k];
+      int heapSize = 0;
+      for (int i = 0; i < size; ++i) {
+         if (heapSize < k) {
+            heap[heapSize] = i;
+            siftUp(heap, heapSize++, rows, scores);
+         } else if (better(i, heap[0], rows, scores)) {
+            heap[0] = i;
+            siftDown(heap, k, rows, scores);
+         }
+      }
+      int[] out = new int[k];
+      for (int i = k - 1; i >= 0; --i) {
+         out[i] = rows[heap[0]];
+         heap[0] = heap[i];
+         siftDown(heap, i, rows, scores);
+      }
+      return out;
+   }//end top
+
+   // true when candidate a ranks above candidate b
+   private static boolean better(int a, int b, int[] rows, int[] scores) {
+      return scores[a] != scores[b] ? scores[a] > scores[b] : rows[a] < rows[b];
+   }
+
+   private static void siftUp(int[] heap, int i, int[] rows, int[] scores) {
+      while (i > 0) {
+         int parent = (i - 1) >>> 1;
+         if (!better(heap[parent], heap[i], rows, scores)) break;
+         swap(heap, i, parent);
+         i = parent;
+      }
+   }
+
+   private static void siftDown(int[] heap, int size, int[] rows, int[] scores) {
+      int i = 0;
+      while (true) {
+         int worst = i;
+         int left = 2 * i + 1;
+         int right = left + 1;
+         if (left < size && better(heap[worst], heap[left], rows, scores)) worst = left;
+         if (right < size && better(heap[worst], heap[right], rows, scores)) worst = right;
+         if (worst == i) break;
+         swap(heap, i, worst);
+         i = worst;
+      }
+   }
+
+   private static void swap(int[] heap, int a, int b) {
+      int t = heap[a];
+      heap[a] = heap[b];
+      heap[b] = t;
+   }
+
+}//end SearchIndex
@@ -0,0 +1,41 @@
+import java.sql.SQLException;
+
+/**
+ * A logged in user.  Created by LogIn, which loads the user's role in the
+ * same query that checks the password; later permission checks are served
+ * from the shared RoleCache.
+ *
+ */
+public class Session {
+
+   private final String _login;
+   private final RoleCache _roles;
+
+   public Session(String login, RoleCache roles) {
+      this._login = login;
+      this._roles = roles;
+   }
+
+   public String login() {
+      return _login;
+   }
+
+   /**
+    * @return the user's current role; a user deleted since login is
+    *         treated as a customer
+    * @throws java.sql.SQLException when an expired role cannot be reloaded
+    */
+   public Role role() throws SQLException {
+      Role role = _roles.get(_login);
+      return role == null ? Role.CUSTOMER : role;
+   }
+
+   public boolean isManager() throws SQLException {
+      return role().isManager();
+   }
+
+   public boolean isEmployeeOrManager() throws SQLException {
+      return role().isEmployeeOrManager();
+   }
+
+}//end Session
@@ -0,0 +1,233 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs every statement slower than -Dslow.query.ms (default 250; -1 turns
+ * the log off) to -Dslow.query.file (default slow-queries.log), with its
+ * template, bound parameters, row count and time.
+ *
+ * A sample of the slow statements the caller marks read only (the queries
+ * made inside ReplicaRouter.read()) also gets its plan: the statement is
+ * run again under EXPLAIN (ANALYZE, BUFFERS) on a background thread with
+ * its own pooled connection, in a transaction that is rolled back, so even
+ * a SELECT that calls a function that writes leaves nothing behind.  A
+ * template is explained at most once per
+ * -Dslow.query.explain.interval.seconds (default 60), and then only with
+ * probability -Dslow.query.explain.rate (default 0.1); when the explain
+ * thread is busy the capture is skipped.  Other statements are never run
+ * twice.
+ *
+ * One entry is a tab separated line, time, ms, rows, SQL on one line and
+ * parameters, followed by the plan lines indented by four spaces.  The
+ * file is rotated at -Dslow.query.file.bytes (default 10MB), keeping
+ * -Dslow.query.files (default 5) old files as .1, .2, ...  SlowQueryReport
+ * ranks the templates in them.
+ *
+ */
+public class SlowQueryLog {
+
+   static final long THRESHOLD_MS = Long.getLong("slow.query.ms", 250);
+   static final String FILE = System.getProperty("slow.query.file", "slow-queries.log");
+   static final long MAX_BYTES = Long.getLong("slow.query.file.bytes", 10L << 20);
+   static final int MAX_FILES = Integer.getInteger("slow.query.files", 5);
+   static final double EXPLAIN_RATE = Double.parseDouble(System.getProperty("slow.query.explain.rate", "0.1"));
+   static final long EXPLAIN_INTERVAL_MS = Long.getLong("slow.query.explain.interval.seconds", 60) * 1000;
+
+   // a parameter list is cut after this many values, and each value after this many characters
+   static final int MAX_PARAMS = 20;
+   static final int MAX_PARAM_CHARS = 100;
+
+   private final GameRental _esql;
+   private final File _file;
+   private final long _thresholdNanos;
+   private final ThreadPoolExecutor _explainer;
+   // template -> when it was last explained
+   private final ConcurrentHashMap<String, Long> _explained = new ConcurrentHashMap<String, Long>();
+   private final Random _random = new Random();
+
+   public SlowQueryLog(GameRental esql) {
+      this(esql, new File(FILE), THRESHOLD_MS);
+   }
+
+   public SlowQueryLog(GameRental esql, File file, long thresholdMs) {
+      this._esql = esql;
+      this._file = file;
+      this._thresholdNanos = thresholdMs < 0 ? Long.MAX_VALUE : thresholdMs * 1000000;
+      this._explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+         new ArrayBlockingQueue<Runnable>(16), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+               Thread t = new Thread(r, "slow-query-explain");
+               t.setDaemon(true);
+               return t;
+            }
+         }, new ThreadPoolExecutor.DiscardPolicy());
+   }//end SlowQueryLog
+
+   /**
+    * Logs the statement if it ran longer than the threshold.
+    *
+    * @param sql the SQL template
+    * @param params the bound values, or null when not known
+    * @param nanos how long it ran
+    * @param rows rows returned or changed, or -1 when it failed
+    * @param readOnly true when the statement only reads, so its plan may be
+    *        captured by running it again
+    */
+   public void record(final String sql, final Object[] params, long nanos, long rows, boolean readOnly) {
+      if (nanos < _thresholdNanos) {
+         return;
+      }
+      final String entry = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS").format(new Date()) + '\t' +
+         String.format("%.1f", nanos / 1e6) + '\t' + rows + '\t' + oneLine(sql) + '\t' + format(params);
+      if (rows >= 0 && params != null && readOnly && sampled(sql)) {
+         _explainer.execute(new Runnable() {
+            public void run() {
+               write(entry, explain(sql, params));
+            }
+         });
+      } else {
+         write(entry, null);
+      }
+   }//end record
+
+   /**
+    * Stops the explain thread; plans not captured yet are dropped.
+    */
+   public void close() {
+      _explainer.shutdownNow();
+   }
+
+   private boolean sampled(String sql) {
+      long now = System.currentTimeMillis();
+      Long last = _explained.get(sql);
+      if (last != null && now - last < EXPLAIN_INTERVAL_MS) {
+         return false;
+      }
+      synchronized (_random) {
+         if (_random.nextDouble() >= EXPLAIN_RATE) {
+            return false;
+         }
+      }
+      _explained.put(sql, now);
+      return true;
+   }//end sampled
+
+   // the plan, or the reason there is none
+   private List<String> explain(String sql, Object[] params) {
+      List<String> plan = new ArrayList<String>();
+      try {
+         PooledConnection pc = _esql.pool().acquire();
+         try {
+            // ANALYZE runs the statement; whatever it changes is rolled back
+            pc.connection().setAutoCommit(false);
+            // a statement used once, so the pooled statement cache is left alone
+            PreparedStatement stmt = pc.connection().prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+            try {
+               GameRental.bind(stmt, params);
+               ResultSet rs = stmt.executeQuery();
+               while (rs.next()) {
+                  plan.add(rs.getString(1));
+               }
+            } finally {
+               stmt.close();
+               pc.connection().rollback();
+            }
+         } finally {
+            _esql.pool().release(pc);
+         }
+      } catch (SQLException e) {
+         plan.add("(no plan: " + e.getMessage() + ")");
+      }
+      return plan;
+   }//end explain
+
+   private synchronized void write(String entry, List<String> plan) {
+      try {
+         if (_file.length() > MAX_BYTES) {
+            rotate();
+         }
+         Writer out = new OutputStreamWriter(new FileOutputStream(_file, true), StandardCharsets.UTF_8);
+         try {
+            out.write(entry);
+            out.write('\n');
+            if (plan != null) {
+               for (String line : plan) {
+                  out.write("    ");
+                  out.write(line);
+                  out.write('\n');
+               }
+            }
+         } finally {
+            out.close();
+         }
+      } catch (IOException e) {
+         System.err.println("Cannot write the slow query log: " + e.getMessage());
+      }
+   }//end write
+
+   // file.N is dropped, file.N-1 becomes file.N, ..., file becomes file.1
+   private void rotate() {
+      for (int i = MAX_FILES; i >= 1; --i) {
+         File from = i == 1 ? _file : rotated(_file, i - 1);
+         File to = rotated(_file, i);
+         if (from.exists()) {
+            to.delete();
+            from.renameTo(to);
+         }
+      }
+      if (MAX_FILES < 1) {
+         _file.delete();
+      }
+   }//end rotate
+
+   static File rotated(File file, int n) {
+      return new File(file.getPath() + "." + n);
+   }
+
+   static String oneLine(String sql) {
+      return sql.replaceAll("\\s+", " ").trim();
+   }
+
+   // the values as a list: strings and timestamps quoted, long values and lists cut short
+   static String format(Object[] params) {
+      if (params == null) {
+         return "";
+      }
+      StringBuilder out = new StringBuilder("[");
+      for (int i = 0; i < params.length && i < MAX_PARAMS; ++i) {
+         if (i > 0) out.append(", ");
+         Object p = params[i];
+         if (p == null) {
+            out.append("NULL");
+         } else if (p instanceof Number || p instanceof Boolean) {
+            out.append(p);
+         } else {
+            String value = oneLine(p.toString()).replace("'", "''");
+            out.append('\'').append(value.length() > MAX_PARAM_CHARS
+               ? value.substring(0, MAX_PARAM_CHARS) + "..." : value).append('\'');
+         }
+      }
+      if (params.length > MAX_PARAMS) {
+         out.append(", ... ").append(params.length - MAX_PARAMS).append(" more");
+      }
+      return out.append(']').toString();
+   }//end format
+
+}//end SlowQueryLog
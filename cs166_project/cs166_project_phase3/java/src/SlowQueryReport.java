@@ -0,0 +1,170 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ranks the SQL templates of a slow query log by total time.
+ *
+ *    java -cp classes SlowQueryReport <log file> [top] [plans]
+ *
+ * Reads the log and its rotated files (.1, .2, ...) and prints, per
+ * template, how often it was slow, its total, mean and worst time and the
+ * mean rows.  With "plans" the plan of the slowest explained run of each
+ * template follows, with the parameters it ran with.
+ *
+ */
+public class SlowQueryReport {
+
+   /**
+    * The slow runs of one template.
+    */
+   static final class Template {
+      final String sql;
+      long count = 0;
+      double totalMs = 0;
+      double maxMs = 0;
+      long rows = 0;
+      long errors = 0;
+      // the slowest run with a plan
+      double planMs = -1;
+      String planParams = null;
+      List<String> plan = null;
+
+      Template(String sql) {
+         this.sql = sql;
+      }
+   }//end Template
+
+   private final Map<String, Template> _templates = new HashMap<String, Template>();
+
+   public static void main (String[] args) {
+      if (args.length < 1) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            SlowQueryReport.class.getName () +
+            " <log file> [top] [plans]");
+         return;
+      }//end if
+
+      try {
+         int top = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+         boolean plans = args.length > 2 && args[2].equals("plans");
+         SlowQueryReport report = new SlowQueryReport();
+         File file = new File(args[0]);
+         int files = 0;
+         for (int n = 0; n == 0 || SlowQueryLog.rotated(file, n).exists(); ++n) {
+            File f = n == 0 ? file : SlowQueryLog.rotated(file, n);
+            if (f.exists()) {
+               report.read(f);
+               ++files;
+            }
+         }
+         if (files == 0) {
+            System.err.println("No slow query log at " + file);
+            return;
+         }
+         report.print(top, plans);
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+
+   /**
+    * Adds the entries of one log file.
+    */
+   public void read(File file) throws IOException {
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+      try {
+         Template current = null;
+         List<String> plan = null;
+         double ms = 0;
+         String params = null;
+         String line;
+         while ((line = in.readLine()) != null) {
+            if (line.startsWith("    ")) {
+               if (plan != null) plan.add(line.substring(4));
+               continue;
+            }
+            finish(current, ms, params, plan);
+            current = null;
+            plan = null;
+            // time, ms, rows, sql, params
+            String[] fields = line.split("\t", -1);
+            if (fields.length < 5) {
+               continue;
+            }
+            try {
+               ms = Double.parseDouble(fields[1]);
+               long rows = Long.parseLong(fields[2]);
+               current = _templates.get(fields[3]);
+               if (current == null) {
+                  current = new Template(fields[3]);
+                  _templates.put(fields[3], current);
+               }
+               ++current.count;
+               current.totalMs += ms;
+               current.maxMs = Math.max(current.maxMs, ms);
+               if (rows < 0) {
+                  ++current.errors;
+               } else {
+                  current.rows += rows;
+               }
+               params = fields[4];
+               plan = new ArrayList<String>();
+            } catch (NumberFormatException e) {
+               // not an entry: skipped
+            }
+         }
+         finish(current, ms, params, plan);
+      } finally {
+         in.close();
+      }
+   }//end read
+
+   // keeps the plan when it belongs to the slowest explained run so far
+   private static void finish(Template template, double ms, String params, List<String> plan) {
+      if (template != null && plan != null && !plan.isEmpty() && ms > template.planMs) {
+         template.planMs = ms;
+         template.planParams = params;
+         template.plan = plan;
+      }
+   }//end finish
+
+   /**
+    * Prints the top templates, slowest total first.
+    */
+   public void print(int top, boolean plans) {
+      List<Template> templates = new ArrayList<Template>(_templates.values());
+      Collections.sort(templates, new Comparator<Template>() {
+         public int compare(Template a, Template b) {
+            return Double.compare(b.totalMs, a.totalMs);
+         }
+      });
+      System.out.println(String.format("%8s %12s %10s %10s %9s %6s  %s",
+         "count", "total ms", "mean ms", "max ms", "rows/run", "errors", "sql"));
+      for (Template t : templates.subList(0, Math.min(top, templates.size()))) {
+         long ok = Math.max(1, t.count - t.errors);
+         System.out.println(String.format("%8d %12.1f %10.1f %10.1f %9.1f %6d  %s",
+            t.count, t.totalMs, t.totalMs / t.count, t.maxMs, (double) t.rows / ok, t.errors, t.sql));
+         if (plans && t.plan != null) {
+            System.out.println(String.format("   slowest explained run: %.1f ms with %s", t.planMs, t.planParams));
+            for (String line : t.plan) {
+               System.out.println("      " + line);
+            }
+            System.out.println();
+         }
+      }
+      System.out.println(templates.size() + " templates");
+   }//end print
+
+}//end SlowQueryReport
@@ -0,0 +1,130 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * The manager dashboard, read from the summary tables that
+ * sql/src/create_stats.sql keeps up to date.
+ *
+ */
+public interface StatsService {
+
+   /**
+    * Rentals, units and revenue of one game.
+    */
+   final class GameStat {
+      public final String gameID;
+      public final String gameName;
+      public final long rentals;
+      public final long unitsRented;
+      public final BigDecimal revenue;
+
+      public GameStat(String gameID, String gameName, long rentals, long unitsRented, BigDecimal revenue) {
+         this.gameID = gameID;
+         this.gameName = gameName;
+         this.rentals = rentals;
+         this.unitsRented = unitsRented;
+         this.revenue = revenue;
+      }
+   }//end GameStat
+
+   /**
+    * Units and revenue of one genre.
+    */
+   final class GenreStat {
+      public final String genre;
+      public final long unitsRented;
+      public final BigDecimal revenue;
+
+      public GenreStat(String genre, long unitsRented, BigDecimal revenue) {
+         this.genre = genre;
+         this.unitsRented = unitsRented;
+         this.revenue = revenue;
+      }
+   }//end GenreStat
+
+   /**
+    * Orders, games, spend and overdue games of one user.
+    */
+   final class UserStat {
+      public final String login;
+      public final long orders;
+      public final long gamesRented;
+      public final BigDecimal totalSpent;
+      public final int numOverDueGames;
+
+      public UserStat(String login, long orders, long gamesRented, BigDecimal totalSpent, int numOverDueGames) {
+         this.login = login;
+         this.orders = orders;
+         this.gamesRented = gamesRented;
+         this.totalSpent = totalSpent;
+         this.numOverDueGames = numOverDueGames;
+      }
+   }//end UserStat
+
+   /**
+    * Copies of one game on the shelf, reserved by orders not yet delivered
+    * and rented out.
+    */
+   final class StockStat {
+      public final String gameID;
+      public final String gameName;
+      public final long available;
+      public final long reserved;
+      public final long rented;
+
+      public StockStat(String gameID, String gameName, long available, long reserved, long rented) {
+         this.gameID = gameID;
+         this.gameName = gameName;
+         this.available = available;
+         this.reserved = reserved;
+         this.rented = rented;
+      }
+   }//end StockStat
+
+   /**
+    * Brings the summary tables up to date with the orders placed since the
+    * last refresh.  Call once before reading a dashboard.
+    *
+    * @throws AccessDeniedException when the user is not a manager
+    * @throws java.sql.SQLException when the update fails
+    */
+   void refresh(Session session) throws SQLException, AccessDeniedException;
+
+   /**
+    * @return the most rented games by units, most first
+    * @throws AccessDeniedException when the user is not a manager
+    * @throws java.sql.SQLException when the query fails
+    */
+   List<GameStat> topGames(Session session, int limit) throws SQLException, AccessDeniedException;
+
+   /**
+    * @return every genre, highest revenue first
+    * @throws AccessDeniedException when the user is not a manager
+    * @throws java.sql.SQLException when the query fails
+    */
+   List<GenreStat> genres(Session session) throws SQLException, AccessDeniedException;
+
+   /**
+    * @return the users who spent the most, most first
+    * @throws AccessDeniedException when the user is not a manager
+    * @throws java.sql.SQLException when the query fails
+    */
+   List<UserStat> topSpenders(Session session, int limit) throws SQLException, AccessDeniedException;
+
+   /**
+    * @return the users with overdue games, most overdue first
+    * @throws AccessDeniedException when the user is not a manager
+    * @throws java.sql.SQLException when the query fails
+    */
+   List<UserStat> mostOverdue(Session session, int limit) throws SQLException, AccessDeniedException;
+
+   /**
+    * @return the stocked games with the fewest copies available, fewest
+    *         first
+    * @throws AccessDeniedException when the user is not a manager
+    * @throws java.sql.SQLException when the query fails
+    */
+   List<StockStat> lowStock(Session session, int limit) throws SQLException, AccessDeniedException;
+
+}//end StatsService
@@ -0,0 +1,44 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * The tracking state of an order, as stored in a TrackingInfo row, or one
+ * event of the TrackingEvent log, with lastUpdateDate as the event time.
+ *
+ */
+public final class TrackingEvent {
+
+   public static final String COLUMNS =
+      "trackingID, rentalOrderID, status, currentLocation, courierName, lastUpdateDate, additionalComments";
+
+   /**
+    * Maps the columns listed in COLUMNS, in that order.
+    */
+   public static final RowMapper<TrackingEvent> MAPPER = new RowMapper<TrackingEvent>() {
+      public TrackingEvent map(ResultSet rs) throws SQLException {
+         return new TrackingEvent(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                                  rs.getString(5), rs.getTimestamp(6), rs.getString(7));
+      }
+   };
+
+   public final String trackingID;
+   public final String rentalOrderID;
+   public final String status;
+   public final String currentLocation;
+   public final String courierName;
+   public final Timestamp lastUpdateDate;
+   public final String additionalComments;
+
+   public TrackingEvent(String trackingID, String rentalOrderID, String status, String currentLocation,
+                        String courierName, Timestamp lastUpdateDate, String additionalComments) {
+      this.trackingID = trackingID;
+      this.rentalOrderID = rentalOrderID;
+      this.status = status;
+      this.currentLocation = currentLocation;
+      this.courierName = courierName;
+      this.lastUpdateDate = lastUpdateDate;
+      this.additionalComments = additionalComments;
+   }
+
+}//end TrackingEvent
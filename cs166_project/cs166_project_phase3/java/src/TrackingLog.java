@@ -0,0 +1,305 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Appends tracking events to the TrackingEvent log of create_tracking.sql
+ * and keeps TrackingInfo, the latest state of each trackingID, moving
+ * forward with them.
+ *
+ * An event carries a trackingID, a status, location, courier and comments,
+ * and its time in lastUpdateDate; rentalOrderID is not needed.  Events
+ * for a trackingID with no TrackingInfo row are rejected.  An event older
+ * than the latest state is kept in the history but leaves TrackingInfo as
+ * it is, so courier scans arriving late or out of order do no harm.
+ *
+ * append() writes one event in a single statement.  appendAll() writes a
+ * batch in one transaction: the events as one JDBC batch, then one update
+ * per trackingID with the newest of its events, in trackingID order so
+ * that concurrent batches lock the TrackingInfo rows in the same order.
+ * A burst of scans of the same parcel costs one row update per batch.
+ *
+ * merge() is the bulk path for feeds already reduced to one event per
+ * trackingID: -Dtracking.merge.rows (default 500) events go in each
+ * statement as a VALUES list, which appends them and moves TrackingInfo
+ * forward in the one round trip.
+ *
+ * Thread safe.
+ *
+ */
+public class TrackingLog {
+
+   static final String INSERT_EVENT =
+      "INSERT INTO TrackingEvent (trackingID, eventTime, status, currentLocation, courierName, additionalComments, source) " +
+      "SELECT ?, ?, ?, ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM TrackingInfo WHERE trackingID = ?)";
+
+   // moves the latest state forward, never back
+   static final String UPDATE_LATEST =
+      "UPDATE TrackingInfo SET status = ?, currentLocation = ?, courierName = ?, additionalComments = ?, " +
+      "lastUpdateDate = ? WHERE trackingID = ? AND lastUpdateDate <= ?";
+
+   // both of the above in one round trip; returns the number of events stored
+   static final String APPEND_ONE =
+      "WITH e AS (" + INSERT_EVENT + " RETURNING trackingID, eventTime, status, currentLocation, courierName, additionalComments), " +
+      "u AS (UPDATE TrackingInfo t SET status = e.status, currentLocation = e.currentLocation, courierName = e.courierName, " +
+      "additionalComments = e.additionalComments, lastUpdateDate = e.eventTime " +
+      "FROM e WHERE t.trackingID = e.trackingID AND t.lastUpdateDate <= e.eventTime RETURNING 1) " +
+      "SELECT COUNT(*) FROM e";
+
+   static final String HISTORY =
+      "SELECT e.trackingID, t.rentalOrderID, e.status, e.currentLocation, e.courierName, e.eventTime, e.additionalComments " +
+      "FROM TrackingEvent e JOIN TrackingInfo t ON t.trackingID = e.trackingID " +
+      "WHERE e.trackingID = ? ORDER BY e.eventTime, e.eventID";
+
+   static final String CREATE_PARTITION = "SELECT tracking_event_partition(?)";
+
+   // events per statement of merge(), at 6 parameters each
+   static final int MERGE_ROWS = Integer.getInteger("tracking.merge.rows", 500);
+
+   /**
+    * What appendAll() or merge() stored.
+    */
+   public static final class Result {
+      // events stored in the log
+      public final int accepted;
+      // events for unknown trackingIDs
+      public final int rejected;
+      // TrackingInfo rows moved to a newer state
+      public final int applied;
+
+      Result(int accepted, int rejected, int applied) {
+         this.accepted = accepted;
+         this.rejected = rejected;
+         this.applied = applied;
+      }
+
+      public String toString() {
+         return accepted + " events stored, " + rejected + " rejected, " + applied + " tracking states moved forward";
+      }
+   }//end Result
+
+   private final GameRental _esql;
+   // months (year * 12 + month) whose partition is known to exist
+   private final Map<Integer, Boolean> _partitions = new ConcurrentHashMap<Integer, Boolean>();
+
+   public TrackingLog(GameRental esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * Appends one event and applies it to TrackingInfo if it is the newest.
+    *
+    * @param event the event; its lastUpdateDate is the event time
+    * @param source where the event came from, e.g. "app"
+    * @return false if there is no such trackingID
+    * @throws java.sql.SQLException when the statement fails
+    */
+   public boolean append(TrackingEvent event, String source) throws SQLException {
+      ensurePartition(event.lastUpdateDate);
+      return _esql.executeQueryForInt(APPEND_ONE, event.trackingID, event.lastUpdateDate, event.status,
+         event.currentLocation, event.courierName, event.additionalComments, source, event.trackingID) > 0;
+   }//end append
+
+   /**
+    * Appends a batch of events in one transaction and applies the newest
+    * event of each trackingID to TrackingInfo.
+    *
+    * @param events the events, in any order
+    * @param source where the events came from
+    * @return how many were stored, rejected and applied
+    * @throws java.sql.SQLException when a statement fails; nothing of the
+    *         batch is stored then
+    */
+   public Result appendAll(List<TrackingEvent> events, String source) throws SQLException {
+      if (events.isEmpty()) {
+         return new Result(0, 0, 0);
+      }
+      for (TrackingEvent event : events) {
+         ensurePartition(event.lastUpdateDate);
+      }
+      Metrics metrics = _esql.metrics();
+      Metrics.Operation op = metrics.start("TrackingLog.appendAll");
+      PooledConnection pc = _esql.pool().acquire();
+      try {
+         Connection conn = pc.connection();
+         conn.setAutoCommit(false);
+
+         PreparedStatement insert = pc.prepare(INSERT_EVENT);
+         for (TrackingEvent e : events) {
+            GameRental.bind(insert, e.trackingID, e.lastUpdateDate, e.status, e.currentLocation,
+                            e.courierName, e.additionalComments, source, e.trackingID);
+            insert.addBatch();
+         }
+         long start = System.nanoTime();
+         int[] inserted = insert.executeBatch();
+
+         // the newest stored event of each trackingID, by trackingID
+         TreeMap<String, TrackingEvent> latest = new TreeMap<String, TrackingEvent>();
+         int accepted = 0;
+         for (int i = 0; i < inserted.length; ++i) {
+            if (inserted[i] == 0) {
+               continue;
+            }
+            ++accepted;
+            TrackingEvent e = events.get(i);
+            TrackingEvent newest = latest.get(e.trackingID);
+            if (newest == null || !e.lastUpdateDate.before(newest.lastUpdateDate)) {
+               latest.put(e.trackingID, e);
+            }
+         }
+         _esql.statementDone(INSERT_EVENT, null, start, accepted);
+
+         int applied = 0;
+         if (!latest.isEmpty()) {
+            PreparedStatement update = pc.prepare(UPDATE_LATEST);
+            for (TrackingEvent e : latest.values()) {
+               GameRental.bind(update, e.status, e.currentLocation, e.courierName, e.additionalComments,
+                               e.lastUpdateDate, e.trackingID, e.lastUpdateDate);
+               update.addBatch();
+            }
+            start = System.nanoTime();
+            for (int count : update.executeBatch()) {
+               applied += Math.max(0, count);
+            }
+            _esql.statementDone(UPDATE_LATEST, null, start, applied);
+         }
+
+         start = System.nanoTime();
+         conn.commit();
+         _esql.statementDone("COMMIT", null, start, 0);
+         op.succeeded();
+         return new Result(accepted, events.size() - accepted, applied);
+      } finally {
+         // rolls back anything left uncommitted
+         _esql.pool().release(pc);
+         metrics.end(op);
+      }
+   }//end appendAll
+
+   /**
+    * Appends one event per trackingID, and applies each one that is newer
+    * than the tracking state, in one transaction with multi-row
+    * statements.
+    *
+    * @param events the events, at most one per trackingID
+    * @param source where the events came from
+    * @return how many were stored, rejected and applied
+    * @throws java.sql.SQLException when a statement fails; nothing is
+    *         stored then
+    */
+   public Result merge(List<TrackingEvent> events, String source) throws SQLException {
+      // in trackingID order, so concurrent merges lock the rows in the same order
+      TreeMap<String, TrackingEvent> byID = new TreeMap<String, TrackingEvent>();
+      for (TrackingEvent event : events) {
+         if (byID.put(event.trackingID, event) != null) {
+            throw new IllegalArgumentException("More than one event for tracking ID " + event.trackingID);
+         }
+         ensurePartition(event.lastUpdateDate);
+      }
+      if (byID.isEmpty()) {
+         return new Result(0, 0, 0);
+      }
+      TrackingEvent[] sorted = byID.values().toArray(new TrackingEvent[byID.size()]);
+
+      Metrics metrics = _esql.metrics();
+      Metrics.Operation op = metrics.start("TrackingLog.merge");
+      PooledConnection pc = _esql.pool().acquire();
+      try {
+         Connection conn = pc.connection();
+         conn.setAutoCommit(false);
+         int accepted = 0;
+         int applied = 0;
+         for (int from = 0; from < sorted.length; from += MERGE_ROWS) {
+            int rows = Math.min(MERGE_ROWS, sorted.length - from);
+            String sql = mergeStatement(rows);
+            PreparedStatement stmt = pc.prepare(sql);
+            int index = 1;
+            for (int i = from; i < from + rows; ++i) {
+               TrackingEvent e = sorted[i];
+               stmt.setString(index++, e.trackingID);
+               stmt.setTimestamp(index++, e.lastUpdateDate);
+               stmt.setString(index++, e.status);
+               stmt.setString(index++, e.currentLocation);
+               stmt.setString(index++, e.courierName);
+               stmt.setString(index++, e.additionalComments);
+            }
+            stmt.setString(index, source);
+            long start = System.nanoTime();
+            ResultSet rs = stmt.executeQuery();
+            try {
+               rs.next();
+               accepted += rs.getInt(1);
+               applied += rs.getInt(2);
+            } finally {
+               rs.close();
+            }
+            _esql.statementDone(sql, null, start, rows);
+         }
+         long start = System.nanoTime();
+         conn.commit();
+         _esql.statementDone("COMMIT", null, start, 0);
+         op.succeeded();
+         return new Result(accepted, sorted.length - accepted, applied);
+      } finally {
+         // rolls back anything left uncommitted
+         _esql.pool().release(pc);
+         metrics.end(op);
+      }
+   }//end merge
+
+   // merge() for a VALUES list of rows events; returns the events stored and the states moved
+   static String mergeStatement(int rows) {
+      StringBuilder sql = new StringBuilder(200 + rows * 40);
+      sql.append("WITH v (trackingID, eventTime, status, currentLocation, courierName, additionalComments) AS (VALUES ");
+      for (int i = 0; i < rows; ++i) {
+         sql.append(i == 0 ? "" : ", ").append("(?, CAST(? AS timestamp), ?, ?, ?, ?)");
+      }
+      sql.append("), e AS (INSERT INTO TrackingEvent ")
+         .append("(trackingID, eventTime, status, currentLocation, courierName, additionalComments, source) ")
+         .append("SELECT v.trackingID, v.eventTime, v.status, v.currentLocation, v.courierName, v.additionalComments, ? ")
+         .append("FROM v JOIN TrackingInfo t ON t.trackingID = v.trackingID RETURNING 1), ")
+         .append("u AS (UPDATE TrackingInfo t SET status = v.status, currentLocation = v.currentLocation, ")
+         .append("courierName = v.courierName, additionalComments = v.additionalComments, lastUpdateDate = v.eventTime ")
+         .append("FROM v WHERE t.trackingID = v.trackingID AND t.lastUpdateDate <= v.eventTime RETURNING 1) ")
+         .append("SELECT (SELECT COUNT(*) FROM e), (SELECT COUNT(*) FROM u)");
+      return sql.toString();
+   }//end mergeStatement
+
+   /**
+    * @return every event of the trackingID, oldest first
+    * @throws java.sql.SQLException when the query fails
+    */
+   public List<TrackingEvent> history(String trackingID) throws SQLException {
+      return _esql.executeQueryForList(HISTORY, TrackingEvent.MAPPER, trackingID);
+   }
+
+   /**
+    * Creates the log partition of the month of t unless it is known to
+    * exist.
+    *
+    * @throws java.sql.SQLException when the partition cannot be created
+    */
+   public void ensurePartition(Timestamp t) throws SQLException {
+      Calendar calendar = Calendar.getInstance();
+      calendar.setTime(t);
+      Integer month = calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+      if (_partitions.containsKey(month)) {
+         return;
+      }
+      try {
+         _esql.executeQueryForObject(CREATE_PARTITION, RowMapper.STRING, t);
+      } catch (SQLException e) {
+         // another session may have created it at the same moment
+         _esql.executeQueryForObject(CREATE_PARTITION, RowMapper.STRING, t);
+      }
+      _partitions.put(month, Boolean.TRUE);
+   }//end ensurePartition
+
+}//end TrackingLog
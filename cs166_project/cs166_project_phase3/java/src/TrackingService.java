@@ -0,0 +1,39 @@
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Reading and updating the tracking state of orders.
+ *
+ */
+public interface TrackingService {
+
+   /**
+    * @return the tracking state, or null if the tracking ID does not belong to the order
+    * @throws AccessDeniedException when a customer asks about another user's order
+    * @throws java.sql.SQLException when the query fails
+    */
+   TrackingEvent tracking(Session session, String trackingID, String rentalOrderID)
+      throws SQLException, AccessDeniedException;
+
+   /**
+    * @return every state the order's tracking went through, oldest first;
+    *         empty if the tracking ID does not belong to the order
+    * @throws AccessDeniedException when a customer asks about another user's order
+    * @throws java.sql.SQLException when the query fails
+    */
+   List<TrackingEvent> history(Session session, String trackingID, String rentalOrderID)
+      throws SQLException, AccessDeniedException;
+
+   /**
+    * Appends a tracking event stamped with the current time, which becomes
+    * the tracking state.
+    *
+    * @return false if there is no such tracking ID
+    * @throws AccessDeniedException when the user is not an employee or manager
+    * @throws java.sql.SQLException when the update fails
+    */
+   boolean updateTracking(Session session, String trackingID, String status, String currentLocation,
+                          String courierName, String additionalComments)
+      throws SQLException, AccessDeniedException;
+
+}//end TrackingService
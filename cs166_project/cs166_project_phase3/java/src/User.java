@@ -0,0 +1,41 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A row of the Users table.
+ *
+ */
+public final class User {
+
+   public static final String COLUMNS = "login, password, role, favGames, phoneNum, numOverDueGames, version";
+
+   /**
+    * Maps the columns listed in COLUMNS, in that order.
+    */
+   public static final RowMapper<User> MAPPER = new RowMapper<User>() {
+      public User map(ResultSet rs) throws SQLException {
+         return new User(rs.getString(1), rs.getString(2), rs.getString(3),
+                         rs.getString(4), rs.getString(5), rs.getInt(6), rs.getInt(7));
+      }
+   };
+
+   public final String login;
+   public final String password;
+   public final String role;
+   public final String favGames;
+   public final String phoneNum;
+   public final int numOverDueGames;
+   public final int version;
+
+   public User(String login, String password, String role, String favGames,
+               String phoneNum, int numOverDueGames, int version) {
+      this.login = login;
+      this.password = password;
+      this.role = role;
+      this.favGames = favGames;
+      this.phoneNum = phoneNum;
+      this.numOverDueGames = numOverDueGames;
+      this.version = version;
+   }
+
+}//end User
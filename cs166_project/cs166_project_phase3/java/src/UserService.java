@@ -0,0 +1,44 @@
+import java.sql.SQLException;
+
+/**
+ * Accounts: signing up, logging in and editing one's own profile.
+ *
+ */
+public interface UserService {
+
+   /**
+    * Creates a customer account with no favorite games and no overdue games.
+    *
+    * @return false if the login is already taken
+    * @throws java.sql.SQLException when the insert fails
+    */
+   boolean createUser(String login, String password, String phoneNum) throws SQLException;
+
+   /**
+    * @return the session of the user, or null if the login or password is wrong
+    * @throws java.sql.SQLException when the query fails
+    */
+   Session logIn(String login, String password) throws SQLException;
+
+   void updateFavGames(String login, String favGames) throws SQLException;
+
+   void updatePassword(String login, String password) throws SQLException;
+
+   void updatePhoneNum(String login, String phoneNum) throws SQLException;
+
+   /**
+    * Sets a user's role or number of overdue games, provided the user is
+    * still at the version the caller read.
+    *
+    * @param field role or numOverDueGames
+    * @param value the new value; an Integer for numOverDueGames
+    * @return the user's new version
+    * @throws ConcurrentUpdateException when the user changed or was deleted
+    *         since it was read, with the current values
+    * @throws AccessDeniedException when the session's user is not a manager
+    * @throws java.sql.SQLException when the update fails
+    */
+   int updateUser(Session session, String login, int version, String field, Object value)
+      throws SQLException, AccessDeniedException, ConcurrentUpdateException;
+
+}//end UserService
@@ -11,15 +11,33 @@ DROP INDEX IF EXISTS index_gamesInOrder_rentalOrderID;
 
 DROP INDEX IF EXISTS index_trackingInfo_trackingID;
 
+DROP INDEX IF EXISTS index_users_login_role;
+DROP INDEX IF EXISTS index_rentalOrder_login_orderTimestamp;
+DROP INDEX IF EXISTS index_catalog_genre;
+DROP INDEX IF EXISTS index_catalog_price;
+DROP INDEX IF EXISTS index_rentalOrder_dueDate;
+
 -- Create indexes
-CREATE INDEX IF NOT EXISTS index_users_login ON Users(login);
-CREATE INDEX IF NOT EXISTS index_rentalOrder_login ON RentalOrder(login);
+-- The primary keys already index Users(login), Catalog(gameID),
+-- RentalOrder(rentalOrderID), TrackingInfo(trackingID) and
+-- GamesInOrder(rentalOrderID, gameID), so no index repeats them.
+-- Run java/src/IndexReport against a loaded database to check that each
+-- index below is used by the query it is for.
+
+-- viewRecentOrders (login = ? ORDER BY orderTimestamp DESC LIMIT 5, read backwards)
+-- and the order history pages (login = ? AND (orderTimestamp, rentalOrderID) > (?, ?))
+CREATE INDEX IF NOT EXISTS index_rentalOrder_login_orderTimestamp ON RentalOrder(login, orderTimestamp, rentalOrderID) INCLUDE (dueDate);
 
-CREATE INDEX IF NOT EXISTS index_catalog_gameID ON Catalog(gameID);
-CREATE INDEX IF NOT EXISTS index_gamesInOrder_gameID ON GamesInOrder (gameID);
+-- OverdueJob: the orders that fell due since its last run, and their users
+CREATE INDEX IF NOT EXISTS index_rentalOrder_dueDate ON RentalOrder(dueDate) INCLUDE (login);
 
-CREATE INDEX IF NOT EXISTS index_rentalOrder_rentalOrderID ON RentalOrder(rentalOrderID);
+-- viewOrderInfo and viewTrackingInfo join TrackingInfo on rentalOrderID
 CREATE INDEX IF NOT EXISTS index_trackingInfo_rentalOrderID ON TrackingInfo(rentalOrderID);
-CREATE INDEX IF NOT EXISTS index_gamesInOrder_rentalOrderID ON GamesInOrder(rentalOrderID);
 
-CREATE INDEX IF NOT EXISTS index_trackingInfo_trackingID ON TrackingInfo(trackingID);
\ No newline at end of file
+-- rentals of one game; also keeps deletes from Catalog from scanning GamesInOrder
+CREATE INDEX IF NOT EXISTS index_gamesInOrder_gameID ON GamesInOrder(gameID);
+
+-- catalog browsing: filter by genre, and price ranges and sorts paged on (price, gameID),
+-- covering every column the views show
+CREATE INDEX IF NOT EXISTS index_catalog_genre ON Catalog(genre, gameID) INCLUDE (gameName, price, description, imageURL);
+CREATE INDEX IF NOT EXISTS index_catalog_price ON Catalog(price, gameID) INCLUDE (gameName, genre, description, imageURL);
@@ -0,0 +1,169 @@
+/* Copies of each game, so an order cannot rent more copies than the store
+   owns. A game's copies are split over a few Inventory rows ("stripes"),
+   each with its own available, reserved and rented counts; the game's
+   totals are the sums over its stripes (InventoryTotals). placeOrder
+   reserves with reserve_units(), which takes the units from one stripe
+   picked at random by a conditional decrement, so concurrent orders of a
+   popular game lock different rows instead of queuing on one. Only when
+   that stripe runs short does it lock all the game's stripes, in stripe
+   order, and gather the units from them.
+
+   Reserved copies become rented when the order's tracking status becomes
+   'Delivered', and available again when it becomes 'Returned to Sender'.
+   TrackingInfo.unitsAt records which count holds an order's copies once
+   they have moved (NULL: the count its status implies), and the copies
+   only move forward, reserved to rented to available, so a status that
+   goes back and forth, e.g. 'Delivered' corrected to 'In Transit' and
+   then 'Delivered' again, moves them once.
+   Only available is kept per stripe; reserved and rented are moved on the
+   stripe the order hashes to, so a single stripe's reserved or rented can
+   go below zero while the game's totals stay right. A game without
+   Inventory rows is not tracked and can be ordered without limit. Run
+   after create_tracking.sql; seed_inventory() adds the games that have no
+   Inventory rows yet, as BulkLoader does after a load. */
+
+DROP VIEW IF EXISTS InventoryTotals;
+DROP TABLE IF EXISTS Inventory;
+
+-- the stock is counted from the statuses again below
+ALTER TABLE TrackingInfo ADD COLUMN IF NOT EXISTS unitsAt varchar(10)
+   CHECK (unitsAt IN ('reserved', 'rented', 'available'));
+UPDATE TrackingInfo SET unitsAt = NULL WHERE unitsAt IS NOT NULL;
+
+CREATE TABLE Inventory ( gameID varchar(50) NOT NULL,
+                         stripe integer NOT NULL,
+                         available integer NOT NULL CHECK (available >= 0),
+                         reserved integer NOT NULL DEFAULT 0,
+                         rented integer NOT NULL DEFAULT 0,
+                         PRIMARY KEY(gameID, stripe),
+                         FOREIGN KEY(gameID) REFERENCES Catalog(gameID) ON DELETE CASCADE
+);
+
+CREATE VIEW InventoryTotals AS
+SELECT gameID, COUNT(*) AS stripes, SUM(available) AS available, SUM(reserved) AS reserved, SUM(rented) AS rented
+  FROM Inventory
+ GROUP BY gameID;
+
+/* Replaces the stock of a game with p_copies available copies over
+   p_stripes stripes. Copies already reserved or rented are forgotten. */
+CREATE OR REPLACE FUNCTION set_inventory(p_gameID varchar, p_copies integer, p_stripes integer)
+RETURNS void AS $$
+BEGIN
+   DELETE FROM Inventory WHERE gameID = p_gameID;
+   INSERT INTO Inventory (gameID, stripe, available)
+   SELECT p_gameID, s, p_copies / p_stripes + CASE WHEN s < p_copies % p_stripes THEN 1 ELSE 0 END
+     FROM generate_series(0, p_stripes - 1) s;
+END;
+$$ LANGUAGE plpgsql;
+
+/* Gives every game without Inventory rows p_copies copies on the shelf,
+   plus the copies its existing orders have out: reserved until delivered,
+   rented until returned. */
+CREATE OR REPLACE FUNCTION seed_inventory(p_copies integer DEFAULT 100, p_stripes integer DEFAULT 4)
+RETURNS void AS $$
+BEGIN
+   INSERT INTO Inventory (gameID, stripe, available, reserved, rented)
+   SELECT c.gameID, s, p_copies / p_stripes + CASE WHEN s < p_copies % p_stripes THEN 1 ELSE 0 END,
+          CASE WHEN s = 0 THEN COALESCE(o.reserved, 0) ELSE 0 END,
+          CASE WHEN s = 0 THEN COALESCE(o.rented, 0) ELSE 0 END
+     FROM Catalog c
+          CROSS JOIN generate_series(0, p_stripes - 1) s
+          LEFT JOIN (SELECT g.gameID,
+                            SUM(CASE WHEN t.status NOT IN ('Delivered', 'Returned to Sender') THEN g.unitsOrdered ELSE 0 END) AS reserved,
+                            SUM(CASE WHEN t.status = 'Delivered' THEN g.unitsOrdered ELSE 0 END) AS rented
+                       FROM GamesInOrder g JOIN TrackingInfo t ON t.rentalOrderID = g.rentalOrderID
+                      GROUP BY g.gameID) o ON o.gameID = c.gameID
+    WHERE NOT EXISTS (SELECT 1 FROM Inventory i WHERE i.gameID = c.gameID);
+END;
+$$ LANGUAGE plpgsql;
+
+/* Moves p_units copies of a game from available to reserved and returns
+   true, or returns false and changes nothing when fewer are available.
+   p_pick chooses the stripe tried first (modulo the game's stripes). The
+   rows stay locked until the caller's transaction ends. */
+CREATE OR REPLACE FUNCTION reserve_units(p_gameID varchar, p_units integer, p_pick integer)
+RETURNS boolean AS $$
+DECLARE
+   stripes integer;
+   total integer;
+   remaining integer := p_units;
+   take integer;
+   r record;
+BEGIN
+   IF p_units <= 0 THEN
+      RETURN true;
+   END IF;
+   SELECT COUNT(*) INTO stripes FROM Inventory WHERE gameID = p_gameID;
+   IF stripes = 0 THEN
+      RETURN true;
+   END IF;
+
+   -- a stripe that does not qualify is not locked
+   UPDATE Inventory SET available = available - p_units, reserved = reserved + p_units
+    WHERE gameID = p_gameID AND stripe = abs(p_pick) % stripes AND available >= p_units;
+   IF FOUND THEN
+      RETURN true;
+   END IF;
+
+   PERFORM 1 FROM Inventory WHERE gameID = p_gameID ORDER BY stripe FOR UPDATE;
+   SELECT SUM(available) INTO total FROM Inventory WHERE gameID = p_gameID;
+   IF total < p_units THEN
+      RETURN false;
+   END IF;
+   FOR r IN SELECT stripe, available FROM Inventory WHERE gameID = p_gameID AND available > 0 ORDER BY stripe LOOP
+      take := LEAST(r.available, remaining);
+      UPDATE Inventory SET available = available - take, reserved = reserved + take
+       WHERE gameID = p_gameID AND stripe = r.stripe;
+      remaining := remaining - take;
+      EXIT WHEN remaining = 0;
+   END LOOP;
+   RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+/* Moves the copies of an order from one count to another: from 'reserved'
+   to 'rented' on delivery, and from either back to 'available' on return. */
+CREATE OR REPLACE FUNCTION move_order_units(p_rentalOrderID varchar, p_from text, p_to text)
+RETURNS void AS $$
+BEGIN
+   UPDATE Inventory i
+      SET available = i.available + CASE WHEN p_to = 'available' THEN g.unitsOrdered ELSE 0 END,
+          reserved = i.reserved + CASE WHEN p_to = 'reserved' THEN g.unitsOrdered ELSE 0 END
+                                - CASE WHEN p_from = 'reserved' THEN g.unitsOrdered ELSE 0 END,
+          rented = i.rented + CASE WHEN p_to = 'rented' THEN g.unitsOrdered ELSE 0 END
+                            - CASE WHEN p_from = 'rented' THEN g.unitsOrdered ELSE 0 END
+     FROM GamesInOrder g
+    WHERE g.rentalOrderID = p_rentalOrderID
+      AND i.gameID = g.gameID
+      AND i.stripe = abs(hashtext(p_rentalOrderID))
+                     % (SELECT COUNT(*) FROM Inventory s WHERE s.gameID = g.gameID);
+END;
+$$ LANGUAGE plpgsql;
+
+/* Moves the order's copies to the count NEW.status asks for, if that is
+   further along than where they are, and records where they are now. */
+CREATE OR REPLACE FUNCTION trackingInfo_inventory() RETURNS trigger AS $$
+DECLARE
+   held varchar(10) := COALESCE(OLD.unitsAt,
+                                CASE OLD.status WHEN 'Delivered' THEN 'rented'
+                                                WHEN 'Returned to Sender' THEN 'available'
+                                                ELSE 'reserved' END);
+   target varchar(10) := CASE NEW.status WHEN 'Delivered' THEN 'rented'
+                                         WHEN 'Returned to Sender' THEN 'available'
+                                         ELSE NULL END;
+BEGIN
+   IF (held = 'reserved' AND target IN ('rented', 'available'))
+      OR (held = 'rented' AND target = 'available') THEN
+      PERFORM move_order_units(NEW.rentalOrderID, held, target);
+      held := target;
+   END IF;
+   NEW.unitsAt := held;
+   RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trackingInfo_inventory ON TrackingInfo;
+CREATE TRIGGER trackingInfo_inventory BEFORE UPDATE OF status ON TrackingInfo
+FOR EACH ROW WHEN (OLD.status IS DISTINCT FROM NEW.status) EXECUTE PROCEDURE trackingInfo_inventory();
+
+SELECT seed_inventory();
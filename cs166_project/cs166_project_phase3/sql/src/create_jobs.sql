@@ -0,0 +1,13 @@
+/* Progress of the background jobs. For OverdueJob, watermark is the time
+   up to which due dates and the recordedAt of tracking events have been
+   counted: an order counts as overdue once its dueDate has passed while
+   its latest tracking status is 'Delivered'. OverdueJob owns
+   Users.numOverDueGames; a value set by hand holds only until the job next
+   recounts that user. */
+CREATE TABLE IF NOT EXISTS JobWatermark ( job varchar(50) NOT NULL,
+                                          watermark timestamp NOT NULL,
+                                          lastRun timestamp NOT NULL,
+                                          rowsProcessed bigint NOT NULL DEFAULT 0,
+                                          rowsChanged bigint NOT NULL DEFAULT 0,
+                                          PRIMARY KEY(job)
+);
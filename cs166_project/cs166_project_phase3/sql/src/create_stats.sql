@@ -0,0 +1,246 @@
+/* Rental statistics kept up to date by triggers, so the manager dashboard
+   reads a few summary rows instead of aggregating GamesInOrder. The
+   triggers do not touch the summary rows themselves: each statement on
+   GamesInOrder or RentalOrder appends its change, summed per game or per
+   user, to GameStatsDelta or UserStatsDelta. Those tables have no keys, so
+   concurrent orders never wait on each other there, however many of them
+   rent the same game or genre. fold_rental_stats() adds the pending
+   deltas to the summary tables in one short transaction, in key order;
+   StatsService.refresh() calls it once before a dashboard is read, and
+   GameRentalServer every -Dstats.fold.seconds. Revenue counts each order line at
+   the game's catalog price when the line is written. Run after
+   load_data.sql; refresh_rental_stats() rebuilds the tables from scratch
+   at current prices, as BulkLoader does after a load. */
+
+DROP TABLE IF EXISTS GameStats;
+DROP TABLE IF EXISTS GenreStats;
+DROP TABLE IF EXISTS UserStats;
+DROP TABLE IF EXISTS GameStatsDelta;
+DROP TABLE IF EXISTS UserStatsDelta;
+
+CREATE TABLE GameStats ( gameID varchar(50) NOT NULL,
+                         rentals bigint NOT NULL DEFAULT 0,
+                         unitsRented bigint NOT NULL DEFAULT 0,
+                         revenue decimal(14,2) NOT NULL DEFAULT 0,
+                         PRIMARY KEY(gameID)
+);
+
+CREATE TABLE GenreStats ( genre varchar(30) NOT NULL,
+                          unitsRented bigint NOT NULL DEFAULT 0,
+                          revenue decimal(14,2) NOT NULL DEFAULT 0,
+                          PRIMARY KEY(genre)
+);
+
+CREATE TABLE UserStats ( login varchar(50) NOT NULL,
+                         orders bigint NOT NULL DEFAULT 0,
+                         gamesRented bigint NOT NULL DEFAULT 0,
+                         totalSpent decimal(14,2) NOT NULL DEFAULT 0,
+                         PRIMARY KEY(login)
+);
+
+-- changes not yet folded into GameStats and GenreStats; the genre is
+-- looked up when they are folded
+CREATE TABLE GameStatsDelta ( gameID varchar(50) NOT NULL,
+                              rentals bigint NOT NULL,
+                              unitsRented bigint NOT NULL,
+                              revenue decimal(14,2) NOT NULL
+);
+
+-- changes not yet folded into UserStats
+CREATE TABLE UserStatsDelta ( login varchar(50) NOT NULL,
+                              orders bigint NOT NULL,
+                              gamesRented bigint NOT NULL,
+                              totalSpent decimal(14,2) NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS index_gameStats_unitsRented ON GameStats(unitsRented DESC);
+CREATE INDEX IF NOT EXISTS index_userStats_totalSpent ON UserStats(totalSpent DESC);
+CREATE INDEX IF NOT EXISTS index_users_numOverDueGames ON Users(numOverDueGames DESC) WHERE numOverDueGames > 0;
+
+/* One delta row per game the statement changed. Removed lines count at
+   the game's current price; lines of a game already deleted are skipped. */
+CREATE OR REPLACE FUNCTION gamesInOrder_stats() RETURNS trigger AS $$
+BEGIN
+   IF TG_OP = 'INSERT' THEN
+      INSERT INTO GameStatsDelta (gameID, rentals, unitsRented, revenue)
+      SELECT n.gameID, COUNT(*), SUM(n.unitsOrdered), SUM(n.unitsOrdered * c.price)
+        FROM new_lines n JOIN Catalog c ON c.gameID = n.gameID
+       GROUP BY n.gameID;
+   ELSIF TG_OP = 'DELETE' THEN
+      INSERT INTO GameStatsDelta (gameID, rentals, unitsRented, revenue)
+      SELECT o.gameID, -COUNT(*), -SUM(o.unitsOrdered), -SUM(o.unitsOrdered * c.price)
+        FROM old_lines o JOIN Catalog c ON c.gameID = o.gameID
+       GROUP BY o.gameID;
+   ELSE
+      INSERT INTO GameStatsDelta (gameID, rentals, unitsRented, revenue)
+      SELECT d.gameID, SUM(d.rentals), SUM(d.units), SUM(d.units * c.price)
+        FROM (SELECT gameID, 1 AS rentals, unitsOrdered AS units FROM new_lines
+              UNION ALL
+              SELECT gameID, -1, -unitsOrdered FROM old_lines) d
+             JOIN Catalog c ON c.gameID = d.gameID
+       GROUP BY d.gameID
+      HAVING SUM(d.rentals) <> 0 OR SUM(d.units) <> 0;
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+/* One delta row per user the statement changed. */
+CREATE OR REPLACE FUNCTION rentalOrder_stats() RETURNS trigger AS $$
+BEGIN
+   IF TG_OP = 'INSERT' THEN
+      INSERT INTO UserStatsDelta (login, orders, gamesRented, totalSpent)
+      SELECT login, COUNT(*), SUM(noOfGames), SUM(totalPrice)
+        FROM new_orders
+       GROUP BY login;
+   ELSIF TG_OP = 'DELETE' THEN
+      INSERT INTO UserStatsDelta (login, orders, gamesRented, totalSpent)
+      SELECT login, -COUNT(*), -SUM(noOfGames), -SUM(totalPrice)
+        FROM old_orders
+       GROUP BY login;
+   ELSE
+      -- an update that leaves login, noOfGames and totalPrice alone adds nothing
+      INSERT INTO UserStatsDelta (login, orders, gamesRented, totalSpent)
+      SELECT login, SUM(orders), SUM(games), SUM(spent)
+        FROM (SELECT login, 1 AS orders, noOfGames AS games, totalPrice AS spent FROM new_orders
+              UNION ALL
+              SELECT login, -1, -noOfGames, -totalPrice FROM old_orders) d
+       GROUP BY login
+      HAVING SUM(orders) <> 0 OR SUM(games) <> 0 OR SUM(spent) <> 0;
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+/* Adds the pending deltas to the summary tables and removes them. One fold
+   runs at a time; deltas appended meanwhile wait for the next one. Deltas
+   of deleted games are dropped. The summary rows are written in key
+   order, so a fold and another transaction that locks them in key order
+   cannot deadlock. */
+CREATE OR REPLACE FUNCTION fold_rental_stats() RETURNS void AS $$
+BEGIN
+   PERFORM pg_advisory_xact_lock(hashtext('fold_rental_stats'));
+
+   WITH d AS (DELETE FROM GameStatsDelta RETURNING gameID, rentals, unitsRented, revenue),
+        g AS (SELECT d.gameID, c.genre, SUM(d.rentals) AS rentals, SUM(d.unitsRented) AS unitsRented,
+                     SUM(d.revenue) AS revenue
+                FROM d JOIN Catalog c ON c.gameID = d.gameID
+               GROUP BY d.gameID, c.genre),
+        games AS (INSERT INTO GameStats AS s (gameID, rentals, unitsRented, revenue)
+                  SELECT gameID, rentals, unitsRented, revenue FROM g ORDER BY gameID
+                  ON CONFLICT (gameID) DO UPDATE
+                     SET rentals = s.rentals + EXCLUDED.rentals,
+                         unitsRented = s.unitsRented + EXCLUDED.unitsRented,
+                         revenue = s.revenue + EXCLUDED.revenue)
+   INSERT INTO GenreStats AS s (genre, unitsRented, revenue)
+   SELECT genre, SUM(unitsRented), SUM(revenue) FROM g GROUP BY genre ORDER BY genre
+   ON CONFLICT (genre) DO UPDATE
+      SET unitsRented = s.unitsRented + EXCLUDED.unitsRented,
+          revenue = s.revenue + EXCLUDED.revenue;
+
+   WITH d AS (DELETE FROM UserStatsDelta RETURNING login, orders, gamesRented, totalSpent)
+   INSERT INTO UserStats AS s (login, orders, gamesRented, totalSpent)
+   SELECT login, SUM(orders), SUM(gamesRented), SUM(totalSpent) FROM d GROUP BY login ORDER BY login
+   ON CONFLICT (login) DO UPDATE
+      SET orders = s.orders + EXCLUDED.orders,
+          gamesRented = s.gamesRented + EXCLUDED.gamesRented,
+          totalSpent = s.totalSpent + EXCLUDED.totalSpent;
+END;
+$$ LANGUAGE plpgsql;
+
+/* A game moved to another genre takes its totals along; a deleted game
+   takes them away. The folded totals are taken from the old genre first:
+   the fold in between already counts the game's pending deltas under its
+   new genre. The order lines of a deleted game are removed by the foreign
+   key first, while their trigger can no longer find the game, and its
+   pending deltas are dropped by the next fold. */
+CREATE OR REPLACE FUNCTION catalog_stats() RETURNS trigger AS $$
+DECLARE
+   g_units bigint;
+   g_revenue decimal(14,2);
+BEGIN
+   PERFORM pg_advisory_xact_lock(hashtext('fold_rental_stats'));
+   SELECT unitsRented, revenue INTO g_units, g_revenue FROM GameStats WHERE gameID = OLD.gameID;
+   IF FOUND THEN
+      UPDATE GenreStats SET unitsRented = unitsRented - g_units, revenue = revenue - g_revenue
+       WHERE genre = OLD.genre;
+   END IF;
+   IF TG_OP = 'DELETE' THEN
+      DELETE FROM GameStats WHERE gameID = OLD.gameID;
+      RETURN NULL;
+   END IF;
+   PERFORM fold_rental_stats();
+   IF g_units IS NOT NULL THEN
+      INSERT INTO GenreStats AS s (genre, unitsRented, revenue)
+      VALUES (NEW.genre, g_units, g_revenue)
+      ON CONFLICT (genre) DO UPDATE
+         SET unitsRented = s.unitsRented + EXCLUDED.unitsRented,
+             revenue = s.revenue + EXCLUDED.revenue;
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- statement triggers, so a batch of lines appends one delta per game;
+-- a trigger with transition tables has a single event
+DROP TRIGGER IF EXISTS gamesInOrder_stats ON GamesInOrder;
+DROP TRIGGER IF EXISTS gamesInOrder_insert_stats ON GamesInOrder;
+CREATE TRIGGER gamesInOrder_insert_stats AFTER INSERT ON GamesInOrder
+REFERENCING NEW TABLE AS new_lines
+FOR EACH STATEMENT EXECUTE PROCEDURE gamesInOrder_stats();
+
+DROP TRIGGER IF EXISTS gamesInOrder_update_stats ON GamesInOrder;
+CREATE TRIGGER gamesInOrder_update_stats AFTER UPDATE ON GamesInOrder
+REFERENCING OLD TABLE AS old_lines NEW TABLE AS new_lines
+FOR EACH STATEMENT EXECUTE PROCEDURE gamesInOrder_stats();
+
+DROP TRIGGER IF EXISTS gamesInOrder_delete_stats ON GamesInOrder;
+CREATE TRIGGER gamesInOrder_delete_stats AFTER DELETE ON GamesInOrder
+REFERENCING OLD TABLE AS old_lines
+FOR EACH STATEMENT EXECUTE PROCEDURE gamesInOrder_stats();
+
+DROP TRIGGER IF EXISTS rentalOrder_stats ON RentalOrder;
+DROP TRIGGER IF EXISTS rentalOrder_insert_stats ON RentalOrder;
+CREATE TRIGGER rentalOrder_insert_stats AFTER INSERT ON RentalOrder
+REFERENCING NEW TABLE AS new_orders
+FOR EACH STATEMENT EXECUTE PROCEDURE rentalOrder_stats();
+
+DROP TRIGGER IF EXISTS rentalOrder_update_stats ON RentalOrder;
+CREATE TRIGGER rentalOrder_update_stats AFTER UPDATE ON RentalOrder
+REFERENCING OLD TABLE AS old_orders NEW TABLE AS new_orders
+FOR EACH STATEMENT EXECUTE PROCEDURE rentalOrder_stats();
+
+DROP TRIGGER IF EXISTS rentalOrder_delete_stats ON RentalOrder;
+CREATE TRIGGER rentalOrder_delete_stats AFTER DELETE ON RentalOrder
+REFERENCING OLD TABLE AS old_orders
+FOR EACH STATEMENT EXECUTE PROCEDURE rentalOrder_stats();
+
+DROP TRIGGER IF EXISTS catalog_stats ON Catalog;
+CREATE TRIGGER catalog_stats AFTER UPDATE OF genre ON Catalog
+FOR EACH ROW WHEN (OLD.genre IS DISTINCT FROM NEW.genre) EXECUTE PROCEDURE catalog_stats();
+
+DROP TRIGGER IF EXISTS catalog_delete_stats ON Catalog;
+CREATE TRIGGER catalog_delete_stats AFTER DELETE ON Catalog
+FOR EACH ROW EXECUTE PROCEDURE catalog_stats();
+
+/* Recomputes every summary table from the base tables. */
+CREATE OR REPLACE FUNCTION refresh_rental_stats() RETURNS void AS $$
+BEGIN
+   PERFORM pg_advisory_xact_lock(hashtext('fold_rental_stats'));
+   TRUNCATE GameStats, GenreStats, UserStats, GameStatsDelta, UserStatsDelta;
+   INSERT INTO GameStats (gameID, rentals, unitsRented, revenue)
+   SELECT g.gameID, COUNT(*), SUM(g.unitsOrdered), SUM(g.unitsOrdered * c.price)
+     FROM GamesInOrder g JOIN Catalog c ON c.gameID = g.gameID
+    GROUP BY g.gameID;
+   INSERT INTO GenreStats (genre, unitsRented, revenue)
+   SELECT c.genre, SUM(s.unitsRented), SUM(s.revenue)
+     FROM GameStats s JOIN Catalog c ON c.gameID = s.gameID
+    GROUP BY c.genre;
+   INSERT INTO UserStats (login, orders, gamesRented, totalSpent)
+   SELECT login, COUNT(*), SUM(noOfGames), SUM(totalPrice)
+     FROM RentalOrder
+    GROUP BY login;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT refresh_rental_stats();
@@ -3,6 +3,8 @@ DROP TABLE IF EXISTS Catalog CASCADE;
 DROP TABLE IF EXISTS RentalOrder CASCADE;
 DROP TABLE IF EXISTS TrackingInfo CASCADE;
 DROP TABLE IF EXISTS GamesInOrder CASCADE;
+DROP SEQUENCE IF EXISTS rentalOrderID_seq;
+DROP SEQUENCE IF EXISTS trackingID_seq;
 
 CREATE TABLE Users ( login varchar(50) NOT NULL,
                      password varchar(30) NOT NULL,
@@ -10,6 +12,7 @@ CREATE TABLE Users ( login varchar(50) NOT NULL,
                      favGames text,
                      phoneNum varchar(20) NOT NULL,
                      numOverDueGames integer DEFAULT 0,
+                     version integer NOT NULL DEFAULT 0,
                      PRIMARY KEY(login)
 );
 
@@ -19,6 +22,7 @@ CREATE TABLE Catalog ( gameID varchar(50) NOT NULL,
                        price decimal(10,2) NOT NULL,
                        description text,
                        imageURL varchar(20),
+                       version integer NOT NULL DEFAULT 0,
                        PRIMARY KEY(gameID)
 );
 
@@ -53,3 +57,15 @@ CREATE TABLE GamesInOrder ( rentalOrderID varchar(50) NOT NULL,
                            FOREIGN KEY(gameID) REFERENCES Catalog(gameID)
                            ON DELETE CASCADE
 );
+
+/* Users.version and Catalog.version count the updates of a row. Edits made
+   after a read check that the version is still the one read
+   (... WHERE version = ?) and add one, so two managers editing the same row
+   cannot overwrite each other unnoticed. Every UPDATE of these tables adds
+   one to version. */
+
+/* Numeric part of new rentalOrderIDs and trackingIDs. Each nextval reserves a
+   block of 100 numbers that the application hands out from memory, so
+   INCREMENT BY must match IdAllocator.BLOCK_SIZE. */
+CREATE SEQUENCE rentalOrderID_seq START WITH 10000 INCREMENT BY 100;
+CREATE SEQUENCE trackingID_seq START WITH 10000 INCREMENT BY 100;
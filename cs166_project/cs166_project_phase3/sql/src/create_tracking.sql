@@ -0,0 +1,67 @@
+/* Tracking history as an append-only event log. Every change of an order's
+   tracking state is one TrackingEvent row, never updated; TrackingInfo
+   keeps only the latest state of each trackingID, so viewTrackingInfo stays
+   a primary key lookup. TrackingLog in the application appends events and
+   moves TrackingInfo forward in the same transaction, and only to a newer
+   event, so scans arriving out of order do not go back in time.
+
+   TrackingEvent is partitioned by month of eventTime. Appends go to the
+   newest partition, and old months can be detached or dropped whole.
+   tracking_event_partition() creates the partition of a month; the
+   application calls it before writing to a month it has not seen. There
+   is no foreign key to TrackingInfo: TrackingLog only appends events for
+   trackingIDs that exist. Run after load_data.sql; seed_tracking_events()
+   starts the log over from the current TrackingInfo rows, as BulkLoader
+   does after a load. */
+
+DROP TABLE IF EXISTS TrackingEvent;
+DROP SEQUENCE IF EXISTS trackingEventID_seq;
+
+CREATE SEQUENCE trackingEventID_seq;
+
+-- source: 'order' when the order was placed, 'app' for an update made in
+-- the application, 'seed' for a state copied from TrackingInfo, or the feed
+-- the event was imported from. eventTime is the time the event happened as
+-- its source reports it, which can be long before it arrives; recordedAt is
+-- set by the database when the row is written.
+CREATE TABLE TrackingEvent ( trackingID varchar(50) NOT NULL,
+                             eventTime timestamp NOT NULL,
+                             eventID bigint NOT NULL DEFAULT nextval('trackingEventID_seq'),
+                             recordedAt timestamp NOT NULL DEFAULT CAST(clock_timestamp() AS timestamp),
+                             status varchar(50) NOT NULL,
+                             currentLocation varchar(60) NOT NULL,
+                             courierName varchar(60) NOT NULL,
+                             additionalComments text,
+                             source varchar(20) NOT NULL,
+                             PRIMARY KEY(trackingID, eventTime, eventID)
+) PARTITION BY RANGE (eventTime);
+
+-- OverdueJob: the events recorded since its last run, whatever month they
+-- happened in
+CREATE INDEX IF NOT EXISTS index_trackingEvent_recordedAt ON TrackingEvent(recordedAt) INCLUDE (trackingID);
+
+/* Creates the partition holding the month of t, if missing. */
+CREATE OR REPLACE FUNCTION tracking_event_partition(t timestamp) RETURNS void AS $$
+DECLARE
+   m timestamp := date_trunc('month', t);
+BEGIN
+   EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF TrackingEvent FOR VALUES FROM (%L) TO (%L)',
+                  'trackingevent_' || to_char(m, 'YYYY_MM'), m, m + interval '1 month');
+END;
+$$ LANGUAGE plpgsql;
+
+/* Empties the log and adds one 'seed' event per TrackingInfo row. */
+CREATE OR REPLACE FUNCTION seed_tracking_events() RETURNS void AS $$
+BEGIN
+   TRUNCATE TrackingEvent;
+   PERFORM tracking_event_partition(m)
+      FROM (SELECT DISTINCT date_trunc('month', lastUpdateDate) AS m FROM TrackingInfo) months;
+   INSERT INTO TrackingEvent (trackingID, eventTime, status, currentLocation, courierName, additionalComments, source)
+   SELECT trackingID, lastUpdateDate, status, currentLocation, courierName, additionalComments, 'seed'
+     FROM TrackingInfo;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT tracking_event_partition(LOCALTIMESTAMP);
+SELECT tracking_event_partition(LOCALTIMESTAMP + interval '1 month');
+SELECT seed_tracking_events();
@@ -1,9 +1,11 @@
-/* Replace the location to where you saved the data files*/
-COPY Users
+/* Replace the location to where you saved the data files.
+   COPY ... FROM reads the files on the database host; to load from the
+   client, or to load large data sets, use java/scripts/bulk_load.sh */
+COPY Users (login, password, role, favGames, phoneNum, numOverDueGames)
 FROM '/class/classes/ynovi001/cs166_project_phase3/data/users.csv'
 WITH DELIMITER ',' CSV HEADER;
 
-COPY Catalog
+COPY Catalog (gameID, gameName, genre, price, description, imageURL)
 FROM '/class/classes/ynovi001/cs166_project_phase3/data/catalog.csv'
 WITH DELIMITER ',' CSV HEADER;
 
@@ -18,3 +20,9 @@ WITH DELIMITER ',' CSV HEADER;
 COPY GamesInOrder
 FROM '/class/classes/ynovi001/cs166_project_phase3/data/gamesinorder.csv'
 WITH DELIMITER ',' CSV HEADER;
+
+/* Move the ID sequences past the loaded IDs */
+SELECT setval('rentalOrderID_seq', (SELECT COALESCE(MAX(CAST(substring(rentalOrderID FROM 16) AS bigint)), 0) + 1
+                                    FROM RentalOrder WHERE rentalOrderID ~ '^gamerentalorder[0-9]+$'));
+SELECT setval('trackingID_seq', (SELECT COALESCE(MAX(CAST(substring(trackingID FROM 11) AS bigint)), 0) + 1
+                                 FROM TrackingInfo WHERE trackingID ~ '^trackingid[0-9]+$'));